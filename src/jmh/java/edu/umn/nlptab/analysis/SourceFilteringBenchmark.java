@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bytes per feature structure returned by the scrolls in {@link FsDataSource}, when they return the full
+ * source and when they return only the fields in {@link UnitOfAnalysis#getSourceFields()}, along with the time the
+ * shard spends parsing, filtering and serializing each source.
+ * <p>The sources have the shape written by system indexing with the nested span encoding: identifiers, the type
+ * hierarchy, string and integer feature maps of {@code featureCount} features each, references, the locations of
+ * {@code ancestorCount} ancestors and the primary location. The unit of analysis reads a single string feature. The
+ * bytes per document are printed when each trial finishes.</p>
+ *
+ * @since 1.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SourceFilteringBenchmark {
+    private static final int DOCUMENTS = 256;
+
+    @Param({"all", "required"})
+    public String sourceFields;
+
+    @Param({"8", "64"})
+    public int featureCount;
+
+    @Param({"2", "8"})
+    public int ancestorCount;
+
+    private BytesReference[] sources;
+
+    private String[] includes;
+
+    private long bytes;
+
+    private long documents;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("required".equals(sourceFields)) {
+            // the source fields do not depend on the filters or routing
+            UnitOfAnalysis unitOfAnalysis = new UnitOfAnalysis(() -> null, null);
+            unitOfAnalysis.addSourceFields(Collections.singleton("StringFeatures.feature0"));
+            includes = unitOfAnalysis.getSourceFields();
+        }
+
+        Random random = new Random(42);
+        sources = new BytesReference[DOCUMENTS];
+        for (int i = 0; i < DOCUMENTS; i++) {
+            sources[i] = source(random, i).bytes();
+        }
+    }
+
+    private XContentBuilder source(Random random, int index) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field("system", "nlptab-system-benchmark")
+                .field("casIdentifier", "cas-" + index)
+                .field("casViewIdentifier", "cas-" + index + "-_InitialView")
+                .field("documentIdentifier", "document-" + index)
+                .field("primaryType", "org.apache.ctakes.typesystem.type.textsem.DiseaseDisorderMention");
+
+        builder.startArray("types")
+                .value("org.apache.ctakes.typesystem.type.textsem.DiseaseDisorderMention")
+                .value("org.apache.ctakes.typesystem.type.textsem.EventMention")
+                .value("org.apache.ctakes.typesystem.type.textsem.IdentifiedAnnotation")
+                .value("uima.tcas.Annotation")
+                .value("uima.cas.AnnotationBase")
+                .value("uima.cas.TOP")
+                .endArray();
+
+        builder.startObject("StringFeatures");
+        for (int i = 0; i < featureCount; i++) {
+            builder.field("feature" + i, "value" + random.nextInt(64));
+        }
+        builder.endObject();
+
+        builder.startObject("IntegerFeatures");
+        for (int i = 0; i < featureCount; i++) {
+            builder.field("feature" + i, random.nextInt(1000));
+        }
+        builder.endObject();
+
+        builder.startObject("references")
+                .field("ontologyConceptArr", "fs-" + random.nextInt(100000))
+                .endObject();
+
+        int begin = random.nextInt(10000);
+        int end = begin + random.nextInt(50);
+        builder.startArray("documentLocations");
+        for (int distance = 0; distance < ancestorCount; distance++) {
+            builder.startObject()
+                    .field("begin", begin)
+                    .field("end", end)
+                    .field("distance", distance)
+                    .endObject();
+            begin = Math.max(0, begin - random.nextInt(200));
+            end += random.nextInt(200);
+        }
+        builder.endArray();
+
+        return builder.startObject("primaryLocation")
+                .field("begin", begin)
+                .field("end", end)
+                .endObject()
+                .endObject();
+    }
+
+    @Benchmark
+    public long fetchSource() throws IOException {
+        long fetched = 0;
+        for (BytesReference source : sources) {
+            Map<String, Object> sourceAsMap = XContentHelper.convertToMap(source, false).v2();
+            if (includes != null) {
+                sourceAsMap = XContentMapValues.filter(sourceAsMap, includes, null);
+            }
+            fetched += XContentFactory.jsonBuilder().map(sourceAsMap).bytes().length();
+        }
+        bytes += fetched;
+        documents += sources.length;
+        return fetched;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (documents > 0) {
+            System.out.printf("%nsourceFields=%s featureCount=%d ancestorCount=%d: %d bytes per document%n",
+                    sourceFields, featureCount, ancestorCount, bytes / documents);
+        }
+    }
+}
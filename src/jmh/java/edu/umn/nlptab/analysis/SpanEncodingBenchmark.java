@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.casprocessing.FsDocumentLocation;
+import edu.umn.nlptab.systemindex.PackedLocations;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.join.QueryBitSetProducer;
+import org.apache.lucene.search.join.ScoreMode;
+import org.apache.lucene.search.join.ToParentBlockJoinQuery;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the nested and flat span encodings of feature structure locations on a Lucene index with the fields each
+ * encoding writes: index size, printed when the index is built, and the latency of finding the feature structures
+ * with a location at most {@code maxDistance} from them covering a span. The nested encoding answers this with a block
+ * join over the {@code documentLocations} child documents, the flat encoding with a {@link LocationCoveringQuery} over
+ * the {@code ancestorLocations} arrays and {@link PackedLocations} doc values.
+ * <p>Each feature structure has {@code ancestorCount} locations, its own and those of its ancestors, each covering
+ * the previous one.</p>
+ *
+ * @since 1.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SpanEncodingBenchmark {
+    private static final int FEATURE_STRUCTURES = 50000;
+
+    private static final int DOCUMENT_LENGTH = 1000000;
+
+    private static final int QUERIES = 64;
+
+    @Param({"nested", "flat"})
+    public String spanEncoding;
+
+    @Param({"2", "8"})
+    public int ancestorCount;
+
+    @Param({"0", "4"})
+    public int maxDistance;
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    private IndexSearcher searcher;
+
+    private Query[] queries;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        Random random = new Random(42);
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()))) {
+            for (int i = 0; i < FEATURE_STRUCTURES; i++) {
+                SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance = locations(random);
+                if ("nested".equals(spanEncoding)) {
+                    writer.addDocuments(nestedDocuments(locationAtDistance));
+                } else {
+                    writer.addDocument(flatDocument(locationAtDistance));
+                }
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        searcher.setQueryCache(null);
+        System.out.printf("%nspanEncoding=%s ancestorCount=%d: %d bytes, %d lucene documents%n", spanEncoding,
+                ancestorCount, directory.ramBytesUsed(), reader.maxDoc());
+
+        queries = new Query[QUERIES];
+        QueryBitSetProducer parents = new QueryBitSetProducer(new TermQuery(new Term("_type", "FeatureStructure")));
+        for (int i = 0; i < QUERIES; i++) {
+            int begin = random.nextInt(DOCUMENT_LENGTH);
+            int end = begin + random.nextInt(20);
+            if ("nested".equals(spanEncoding)) {
+                BooleanQuery.Builder child = new BooleanQuery.Builder()
+                        .add(NumericRangeQuery.newIntRange("documentLocations.begin", null, begin, true, true),
+                                BooleanClause.Occur.FILTER)
+                        .add(NumericRangeQuery.newIntRange("documentLocations.end", end, null, true, true),
+                                BooleanClause.Occur.FILTER)
+                        .add(NumericRangeQuery.newIntRange("documentLocations.distance", null, maxDistance, true,
+                                true), BooleanClause.Occur.FILTER);
+                queries[i] = new ToParentBlockJoinQuery(child.build(), parents, ScoreMode.None);
+            } else {
+                BooleanQuery.Builder approximation = new BooleanQuery.Builder()
+                        .add(NumericRangeQuery.newIntRange("ancestorLocations.begin", null, begin, true, true),
+                                BooleanClause.Occur.FILTER)
+                        .add(NumericRangeQuery.newIntRange("ancestorLocations.end", end, null, true, true),
+                                BooleanClause.Occur.FILTER)
+                        .add(NumericRangeQuery.newIntRange("ancestorLocations.distance", null, maxDistance, true,
+                                true), BooleanClause.Occur.FILTER);
+                queries[i] = new LocationCoveringQuery(approximation.build(), PackedLocations.FIELD, begin, end,
+                        maxDistance);
+            }
+        }
+    }
+
+    private SortedMap<Integer, Set<FsDocumentLocation>> locations(Random random) {
+        SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance = new TreeMap<>();
+        int begin = random.nextInt(DOCUMENT_LENGTH);
+        int end = begin + random.nextInt(20);
+        for (int distance = 0; distance < ancestorCount; distance++) {
+            locationAtDistance.put(distance, Collections.singleton(new FsDocumentLocation(begin, end)));
+            begin = Math.max(0, begin - random.nextInt(100 << distance));
+            end += random.nextInt(100 << distance);
+        }
+        return locationAtDistance;
+    }
+
+    private static List<Document> nestedDocuments(SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance) {
+        List<Document> documents = new ArrayList<>();
+        FsDocumentLocation primaryLocation = null;
+        for (Map.Entry<Integer, Set<FsDocumentLocation>> entry : locationAtDistance.entrySet()) {
+            for (FsDocumentLocation location : entry.getValue()) {
+                if (primaryLocation == null) {
+                    primaryLocation = location;
+                }
+                Document child = new Document();
+                child.add(new IntField("documentLocations.begin", location.getBegin(), Field.Store.NO));
+                child.add(new IntField("documentLocations.end", location.getEnd(), Field.Store.NO));
+                child.add(new IntField("documentLocations.distance", entry.getKey(), Field.Store.NO));
+                documents.add(child);
+            }
+        }
+        Document parent = primaryLocationDocument(primaryLocation);
+        documents.add(parent);
+        return documents;
+    }
+
+    private static Document flatDocument(SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance)
+            throws IOException {
+        Document document = primaryLocationDocument(locationAtDistance.get(locationAtDistance.firstKey()).iterator()
+                .next());
+        for (Map.Entry<Integer, Set<FsDocumentLocation>> entry : locationAtDistance.entrySet()) {
+            for (FsDocumentLocation location : entry.getValue()) {
+                document.add(new IntField("ancestorLocations.begin", location.getBegin(), Field.Store.NO));
+                document.add(new IntField("ancestorLocations.end", location.getEnd(), Field.Store.NO));
+                document.add(new IntField("ancestorLocations.distance", entry.getKey(), Field.Store.NO));
+            }
+        }
+
+        // elasticsearch writes binary doc values as the number of values followed by the length and bytes of each
+        BytesReference packed = PackedLocations.encode(locationAtDistance);
+        byte[] bytes = new byte[packed.length() + 10];
+        ByteArrayDataOutput out = new ByteArrayDataOutput(bytes);
+        out.writeVInt(1);
+        out.writeVInt(packed.length());
+        BytesRef packedBytes = packed.toBytesRef();
+        out.writeBytes(packedBytes.bytes, packedBytes.offset, packedBytes.length);
+        document.add(new BinaryDocValuesField(PackedLocations.FIELD, new BytesRef(bytes, 0, out.getPosition())));
+        return document;
+    }
+
+    private static Document primaryLocationDocument(FsDocumentLocation primaryLocation) {
+        Document document = new Document();
+        document.add(new StringField("_type", "FeatureStructure", Field.Store.NO));
+        document.add(new IntField("primaryLocation.begin", primaryLocation.getBegin(), Field.Store.NO));
+        document.add(new IntField("primaryLocation.end", primaryLocation.getEnd(), Field.Store.NO));
+        return document;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public int query() throws IOException {
+        int hits = 0;
+        for (Query query : queries) {
+            TotalHitCountCollector collector = new TotalHitCountCollector();
+            searcher.search(query, collector);
+            hits += collector.getTotalHits();
+        }
+        return hits;
+    }
+}
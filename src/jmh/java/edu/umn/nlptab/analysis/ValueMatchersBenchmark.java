@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares testing the candidate reference values of a hypothesis feature structure with
+ * {@link EquivalenceTest#test(Object, Object)}, which is how feature values were tested before, against the
+ * {@link ValueMatcher} built once per hypothesis value, for each of the ten equivalence tests accepted in analysis
+ * configurations.
+ * <p>The values are scalars when {@code valueCount} is 0, and otherwise lists of that many strings, drawn from a small
+ * vocabulary so that a share of the tests match.</p>
+ *
+ * @since 1.2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValueMatchersBenchmark {
+    private static final int HYPOTHESIS_VALUES = 256;
+
+    private static final int CANDIDATES = 16;
+
+    private static final int VOCABULARY = 64;
+
+    @Param({"any are in", "none are in", "all are in", "covers all", "equals", "any are equal to",
+            "none are equal to", "is in", "is not in", "does not equal"})
+    public String equivalenceTestName;
+
+    @Param({"0", "4", "32"})
+    public int valueCount;
+
+    private EquivalenceTest equivalenceTest;
+
+    private Function<Object, ValueMatcher> valueMatcherFactory;
+
+    private Object[] hypothesisValues;
+
+    private Object[] referenceValues;
+
+    @Setup
+    public void setUp() {
+        equivalenceTest = EquivalenceTests.getEquivalenceTest(equivalenceTestName);
+        valueMatcherFactory = ValueMatchers.getFactory(equivalenceTest);
+
+        Random random = new Random(42);
+        hypothesisValues = new Object[HYPOTHESIS_VALUES];
+        for (int i = 0; i < HYPOTHESIS_VALUES; i++) {
+            hypothesisValues[i] = value(random);
+        }
+        referenceValues = new Object[HYPOTHESIS_VALUES * CANDIDATES];
+        for (int i = 0; i < referenceValues.length; i++) {
+            referenceValues[i] = value(random);
+        }
+    }
+
+    private Object value(Random random) {
+        if (valueCount == 0) {
+            return "value" + random.nextInt(VOCABULARY);
+        }
+        List<String> values = new ArrayList<>(valueCount);
+        for (int i = 0; i < valueCount; i++) {
+            values.add("value" + random.nextInt(VOCABULARY));
+        }
+        return values;
+    }
+
+    @Benchmark
+    public int equivalenceTest() {
+        int matches = 0;
+        for (int i = 0; i < HYPOTHESIS_VALUES; i++) {
+            Object hypothesisValue = hypothesisValues[i];
+            for (int j = i * CANDIDATES; j < (i + 1) * CANDIDATES; j++) {
+                if (equivalenceTest.test(hypothesisValue, referenceValues[j])) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int valueMatcher() {
+        int matches = 0;
+        for (int i = 0; i < HYPOTHESIS_VALUES; i++) {
+            ValueMatcher valueMatcher = valueMatcherFactory.apply(hypothesisValues[i]);
+            for (int j = i * CANDIDATES; j < (i + 1) * CANDIDATES; j++) {
+                if (valueMatcher.matches(referenceValues[j])) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+}
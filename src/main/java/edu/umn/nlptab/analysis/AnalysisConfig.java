@@ -16,15 +16,20 @@
 
 package edu.umn.nlptab.analysis;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import edu.umn.nlptab.core.InstanceIndexes;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Provider;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +40,11 @@ import java.util.Map;
  * @since 1.0
  */
 public class AnalysisConfig {
+    /**
+     * Seeded hash used to sample true positives, fixed so that the same matches are sampled on every run.
+     */
+    private static final HashFunction TRUE_POSITIVE_SAMPLE_HASH = Hashing.murmur3_128(0x54505331);
+
     private final Provider<FeatureValueMapping> featureValueMappingProvider;
 
     private final Provider<UnitOfAnalysis> unitOfAnalysisProvider;
@@ -58,6 +68,24 @@ public class AnalysisConfig {
 
     private boolean hitMiss;
 
+    private ResultPersistence resultPersistence = ResultPersistence.ALL;
+
+    private double truePositiveSampleRate = 1.0;
+
+    @Nullable
+    private DocumentSampling documentSampling;
+
+    private int scrollPageSize = 500;
+
+    private int prefetchDocuments = 4;
+
+    private long prefetchMemoryBudget = 64 * 1024 * 1024;
+
+    private boolean distributed = false;
+
+    @Nullable
+    private Map<String, Object> jsonMap;
+
     @Inject
     public AnalysisConfig(Provider<FeatureValueMapping> featureValueMappingProvider,
                           Provider<UnitOfAnalysis> unitOfAnalysisProvider) {
@@ -66,6 +94,8 @@ public class AnalysisConfig {
     }
 
     public void initFromMap(Map<String, Object> jsonMap) throws AnalysisConfigurationException {
+        this.jsonMap = jsonMap;
+
         @SuppressWarnings("unchecked")
         Map<String, Object> hypothesisUnitOfAnalysisMap = (Map<String, Object>) jsonMap.get("hypothesisUnitOfAnalysis");
         if (hypothesisUnitOfAnalysisMap == null) {
@@ -104,6 +134,8 @@ public class AnalysisConfig {
             FeatureValueMapping featureValueMapping = featureValueMappingProvider.get()
                     .initFromJsonMap(featureValueMappingJsonMap, hypothesis.getSystemIndex(), reference.getSystemIndex());
             featureValueMappings.add(featureValueMapping);
+            hypothesis.addSourceFields(featureValueMapping.getHypothesisSourceFields());
+            reference.addSourceFields(featureValueMapping.getReferenceSourceFields());
         }
 
         Integer fuzzDistance = (Integer) jsonMap.get("fuzzDistance");
@@ -121,6 +153,55 @@ public class AnalysisConfig {
         }
 
         this.hitMiss = Boolean.parseBoolean(hitMiss);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> samplingJson = (Map<String, Object>) jsonMap.get("sampling");
+        documentSampling = DocumentSampling.fromJson(samplingJson);
+
+        resultPersistence = ResultPersistence.fromJson((String) jsonMap.get("persistence"));
+
+        if (resultPersistence == ResultPersistence.SAMPLED) {
+            Number truePositiveSampleRate = (Number) jsonMap.get("truePositiveSampleRate");
+            if (truePositiveSampleRate == null) {
+                throw new AnalysisConfigurationException("truePositiveSampleRate was null");
+            }
+            double sampleRate = truePositiveSampleRate.doubleValue();
+            if (sampleRate < 0 || sampleRate > 1) {
+                throw new AnalysisConfigurationException("truePositiveSampleRate must be between 0 and 1");
+            }
+            this.truePositiveSampleRate = sampleRate;
+        } else if (resultPersistence == ResultPersistence.ERRORS) {
+            truePositiveSampleRate = 0;
+        }
+
+        distributed = Boolean.TRUE.equals(jsonMap.get("distributed"));
+        if (distributed && documentSampling != null) {
+            throw new AnalysisConfigurationException("Sampled analyses cannot be distributed");
+        }
+
+        Number scrollPageSize = (Number) jsonMap.get("scrollPageSize");
+        if (scrollPageSize != null) {
+            if (scrollPageSize.intValue() < 1) {
+                throw new AnalysisConfigurationException("scrollPageSize must be at least 1");
+            }
+            this.scrollPageSize = scrollPageSize.intValue();
+        }
+
+        Number prefetchDocuments = (Number) jsonMap.get("prefetchDocuments");
+        if (prefetchDocuments != null) {
+            if (prefetchDocuments.intValue() < 1) {
+                throw new AnalysisConfigurationException("prefetchDocuments must be at least 1");
+            }
+            this.prefetchDocuments = prefetchDocuments.intValue();
+        }
+
+        Number prefetchMemoryBudget = (Number) jsonMap.get("prefetchMemoryBudget");
+        if (prefetchMemoryBudget != null) {
+            if (prefetchMemoryBudget.longValue() < 0) {
+                throw new AnalysisConfigurationException("prefetchMemoryBudget must not be negative");
+            }
+            this.prefetchMemoryBudget = prefetchMemoryBudget.longValue();
+        }
     }
 
     boolean isHitMiss() {
@@ -152,7 +233,98 @@ public class AnalysisConfig {
         return fuzzDistance;
     }
 
-    Collection<FeatureValueTester> createFeatureStructureTesters(Map<String, Object> hypothesisFeatureStructure) {
+    @Nullable
+    DocumentSampling getDocumentSampling() {
+        return documentSampling;
+    }
+
+    /**
+     * Whether the analysis is evaluated on the nodes holding the shards of the hypothesis system index by the
+     * {@link DistributedAnalysisAction} rather than on the node running the analysis.
+     *
+     * @return true if the analysis is distributed
+     */
+    boolean isDistributed() {
+        return distributed;
+    }
+
+    /**
+     * The json map the configuration was initialized from, which is sent to the shards of a distributed analysis.
+     *
+     * @return json map of the configuration
+     */
+    Map<String, Object> getJsonMap() {
+        if (jsonMap == null) {
+            throw new IllegalStateException("jsonMap not initialized");
+        }
+        return jsonMap;
+    }
+
+    /**
+     * The number of feature structures fetched by each page when scrolling the feature structures of a document.
+     *
+     * @return page size
+     */
+    int getScrollPageSize() {
+        return scrollPageSize;
+    }
+
+    /**
+     * The maximum number of documents whose feature structures are loaded ahead of the document being evaluated.
+     *
+     * @return number of documents
+     */
+    int getPrefetchDocuments() {
+        return prefetchDocuments;
+    }
+
+    /**
+     * The number of bytes of feature structure source loaded ahead at which no further documents are loaded.
+     *
+     * @return number of bytes
+     */
+    long getPrefetchMemoryBudget() {
+        return prefetchMemoryBudget;
+    }
+
+    ResultPersistence getResultPersistence() {
+        return resultPersistence;
+    }
+
+    /**
+     * Returns whether the true positive match document for a hypothesis feature structure should be written. The
+     * sample is determined by the feature structure id so that rerunning an analysis samples the same matches.
+     *
+     * @param hypothesisId the id of the hypothesis feature structure
+     * @return true if the document should be written
+     */
+    boolean shouldPersistTruePositive(String hypothesisId) {
+        switch (resultPersistence) {
+            case ALL:
+                return true;
+            case ERRORS:
+                return false;
+            default:
+                long hash = TRUE_POSITIVE_SAMPLE_HASH.hashString(hypothesisId, StandardCharsets.UTF_8).asLong();
+                return (hash >>> 11) * 0x1.0p-53 < truePositiveSampleRate;
+        }
+    }
+
+    /**
+     * Returns whether the converse tests of every feature value mapping agree with the normal tests, in which case any
+     * reference feature structure matched by a hypothesis feature structure is known to have a converse match.
+     *
+     * @return true if the converse tests are exact
+     */
+    boolean isConverseExact() {
+        if (featureValueMappings == null) {
+            throw new IllegalStateException("featureValueMappings not initialized");
+        }
+        return featureValueMappings.stream().allMatch(FeatureValueMapping::isConverseExact);
+    }
+
+    Collection<FeatureValueTester> createFeatureStructureTesters(Map<String, Object> hypothesisFeatureStructure,
+                                                                  FsCache fsCache) {
         if (featureValueMappings == null) {
             throw new IllegalStateException("featureValueMappings not initialized");
         }
@@ -160,21 +332,22 @@ public class AnalysisConfig {
         Collection<FeatureValueTester> featureStructureTesters = new ArrayList<>();
 
         for (FeatureValueMapping featureValueMapping : featureValueMappings) {
-            FeatureValueTester tester = featureValueMapping.createTester(hypothesisFeatureStructure);
+            FeatureValueTester tester = featureValueMapping.createTester(hypothesisFeatureStructure, fsCache);
             featureStructureTesters.add(tester);
         }
 
         return featureStructureTesters;
     }
 
-    Collection<FeatureValueTester> createConverseFeatureStructureTesters(Map<String, Object> referenceFeatureStructure) {
+    Collection<FeatureValueTester> createConverseFeatureStructureTesters(Map<String, Object> referenceFeatureStructure,
+                                                                         FsCache fsCache) {
         if (featureValueMappings == null) {
             throw new IllegalStateException("featureValueMappings not initialized");
         }
         Collection<FeatureValueTester> featureStructureTesters = new ArrayList<>();
 
         for (FeatureValueMapping featureValueMapping : featureValueMappings) {
-            FeatureValueTester tester = featureValueMapping.createConverseTester(referenceFeatureStructure);
+            FeatureValueTester tester = featureValueMapping.createConverseTester(referenceFeatureStructure, fsCache);
             featureStructureTesters.add(tester);
         }
 
@@ -201,6 +374,11 @@ public class AnalysisConfig {
 
         xContentBuilder.field("description", description);
 
+        xContentBuilder.field("persistence", resultPersistence.toJson());
+        if (resultPersistence == ResultPersistence.SAMPLED) {
+            xContentBuilder.field("truePositiveSampleRate", truePositiveSampleRate);
+        }
+
         xContentBuilder.startArray("featureValueMappings");
 
         for (FeatureValueMapping featureValueMapping : featureValueMappings) {
@@ -209,4 +387,75 @@ public class AnalysisConfig {
 
         xContentBuilder.endArray();
     }
+
+    /**
+     * Computes a fingerprint of everything in the configuration which determines the counts of a document, but not the
+     * description or how the results are persisted. The fingerprint does not depend on the order of the feature value
+     * mappings or filters. Analyses with the same fingerprint share per-document counts.
+     *
+     * @return hex encoded SHA-256 hash of the canonical configuration
+     * @throws IOException if there is a failure building the canonical configuration
+     */
+    String fingerprint() throws IOException {
+        if (hypothesis == null) {
+            throw new IllegalStateException("hypothesis not initialized");
+        }
+        if (reference == null) {
+            throw new IllegalStateException("reference not initialized");
+        }
+        if (featureValueMappings == null) {
+            throw new IllegalStateException("featureValueMappings not initialized");
+        }
+
+        XContentBuilder xContentBuilder = XContentFactory.jsonBuilder().startObject();
+        xContentBuilder.startObject("hypothesisUnitOfAnalysis");
+        hypothesis.appendFingerprintTo(xContentBuilder);
+        xContentBuilder.endObject();
+        xContentBuilder.startObject("referenceUnitOfAnalysis");
+        reference.appendFingerprintTo(xContentBuilder);
+        xContentBuilder.endObject();
+
+        // every feature value mapping must match, so their order does not matter
+        List<String> mappings = new ArrayList<>(featureValueMappings.size());
+        for (FeatureValueMapping featureValueMapping : featureValueMappings) {
+            XContentBuilder mappingBuilder = XContentFactory.jsonBuilder();
+            featureValueMapping.addFingerprintToXContent(mappingBuilder);
+            mappings.add(mappingBuilder.string());
+        }
+        Collections.sort(mappings);
+        xContentBuilder.array("featureValueMappings", mappings.toArray());
+
+        xContentBuilder.field("fuzzDistance", fuzzDistance)
+                .field("hitMiss", hitMiss)
+                .endObject();
+
+        return Hashing.sha256().hashBytes(xContentBuilder.bytes().toBytes()).toString();
+    }
+
+    /**
+     * Computes a fingerprint of the complete results of an analysis, which adds how the results are persisted and
+     * sampled and the versions of the two systems to {@link #fingerprint()}. Analyses with the same result fingerprint
+     * produce the same results.
+     *
+     * @param hypothesisVersion the version of the hypothesis system index
+     * @param referenceVersion  the version of the reference system index
+     * @return hex encoded SHA-256 hash of the fingerprint and result settings
+     * @throws IOException if there is a failure building the canonical configuration
+     */
+    String resultFingerprint(String hypothesisVersion, String referenceVersion) throws IOException {
+        XContentBuilder xContentBuilder = XContentFactory.jsonBuilder().startObject()
+                .field("fingerprint", fingerprint())
+                .field("hypothesisVersion", hypothesisVersion)
+                .field("referenceVersion", referenceVersion)
+                .field("persistence", resultPersistence.toJson())
+                .field("truePositiveSampleRate", truePositiveSampleRate);
+        if (documentSampling != null) {
+            xContentBuilder.startObject("sampling");
+            documentSampling.appendTo(xContentBuilder);
+            xContentBuilder.endObject();
+        }
+        xContentBuilder.endObject();
+
+        return Hashing.sha256().hashBytes(xContentBuilder.bytes().toBytes()).toString();
+    }
 }
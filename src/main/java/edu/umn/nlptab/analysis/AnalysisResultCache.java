@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node level cache of analysis results keyed by {@link AnalysisConfig#resultFingerprint(String, String)}. An analysis
+ * claims its result fingerprint before running, a request for an analysis which is already running is attached to the
+ * running analysis, and a request for an analysis which has already finished returns the finished analysis.
+ * <p>The version of a system index is the version and creation date of its metadata document, which is updated when
+ * the system finishes indexing, so results are not reused after a system has been re-indexed.</p>
+ *
+ * @since 1.2.0
+ */
+public class AnalysisResultCache {
+    private static final ESLogger logger = Loggers.getLogger(AnalysisResultCache.class);
+
+    private final Client client;
+
+    private final ConcurrentMap<String, String> runningAnalyses = new ConcurrentHashMap<>();
+
+    @Inject
+    AnalysisResultCache(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Computes the result fingerprint of an analysis configuration, including the current versions of its systems.
+     *
+     * @param analysisConfig the analysis configuration
+     * @return the result fingerprint
+     * @throws IOException if there is a failure building the fingerprint
+     */
+    String resultFingerprint(AnalysisConfig analysisConfig) throws IOException {
+        String metadataIndex = analysisConfig.getInstanceIndexes().metadataIndex();
+        return analysisConfig.resultFingerprint(
+                systemVersion(metadataIndex, analysisConfig.getHypothesis().getSystemIndex()),
+                systemVersion(metadataIndex, analysisConfig.getReference().getSystemIndex()));
+    }
+
+    private String systemVersion(String metadataIndex, String systemIndex) {
+        GetResponse getResponse;
+        try {
+            getResponse = client.prepareGet(metadataIndex, "SystemIndex", systemIndex).get();
+        } catch (IndexNotFoundException e) {
+            return "missing";
+        }
+        if (!getResponse.isExists()) {
+            return "missing";
+        }
+        return getResponse.getVersion() + "@" + getResponse.getSource().get("created");
+    }
+
+    /**
+     * Claims a result fingerprint for an analysis, unless an identical analysis is running or has finished.
+     *
+     * @param resultFingerprint the result fingerprint of the analysis
+     * @param id                the identifier of the analysis claiming the fingerprint
+     * @param analysisIndex     the analysis index to search for finished analyses
+     * @return the identifier of the running or finished identical analysis, or null if the fingerprint was claimed
+     */
+    @Nullable
+    String claim(String resultFingerprint, String id, String analysisIndex) {
+        String runningId = runningAnalyses.putIfAbsent(resultFingerprint, id);
+        if (runningId != null) {
+            return runningId;
+        }
+
+        String finishedId = findFinished(resultFingerprint, analysisIndex);
+        if (finishedId != null) {
+            runningAnalyses.remove(resultFingerprint, id);
+        }
+        return finishedId;
+    }
+
+    @Nullable
+    private String findFinished(String resultFingerprint, String analysisIndex) {
+        SearchResponse searchResponse;
+        try {
+            searchResponse = client.prepareSearch(analysisIndex)
+                    .setTypes("AnalysisTask")
+                    .setQuery(QueryBuilders.boolQuery()
+                            .filter(QueryBuilders.termQuery("resultFingerprint", resultFingerprint))
+                            .filter(QueryBuilders.termQuery("finished", true))
+                            .filter(QueryBuilders.termQuery("failed", false)))
+                    .setFetchSource(false)
+                    .setSize(1)
+                    .get();
+        } catch (IndexNotFoundException e) {
+            return null;
+        }
+
+        SearchHit[] hits = searchResponse.getHits().getHits();
+        return hits.length == 0 ? null : hits[0].getId();
+    }
+
+    /**
+     * Releases the claim of an analysis on its result fingerprint once it has finished or failed. The analysis index is
+     * refreshed first so that a claim made after the release finds the finished analysis instead of running it again.
+     *
+     * @param resultFingerprint the result fingerprint of the analysis
+     * @param id                the identifier of the analysis which claimed the fingerprint
+     * @param analysisIndex     the analysis index the finished analysis was written to
+     */
+    void release(String resultFingerprint, String id, String analysisIndex) {
+        try {
+            client.admin().indices().prepareRefresh(analysisIndex).get();
+        } catch (RuntimeException e) {
+            logger.warn("Failed to refresh {} before releasing analysis {}", e, analysisIndex, id);
+        } finally {
+            runningAnalyses.remove(resultFingerprint, id);
+        }
+    }
+}
@@ -16,24 +16,21 @@
 
 package edu.umn.nlptab.analysis;
 
-import edu.umn.nlptab.core.ElasticSearchSetup;
 import edu.umn.nlptab.NlpTabException;
-import org.elasticsearch.action.search.SearchResponse;
+import com.google.common.collect.Iterators;
+import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Provider;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
-import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.Iterator;
+import java.util.function.Predicate;
 
 /**
  * Main class responsible for running the co-occurrence analysis.
@@ -48,33 +45,107 @@ public class AnalysisRunner {
 
     private final Provider<TypeCoOccurrenceEvaluation> typeCoOccurrenceEvaluationProvider;
 
-    private final Provider<ElasticSearchSetup> esSetupProvider;
+    private final Provider<AnalysisSetup> analysisSetupProvider;
 
     private final Client client;
 
+    private final AnalysisResultCache analysisResultCache;
+
     private String id;
 
     private AnalysisConfig analysisConfig;
 
+    private boolean refresh = false;
+
+    private int completed = 0;
+
+    private int skipped = 0;
+
+    @Nullable private String resultFingerprint;
+
     @Inject
     AnalysisRunner(CoOccurrenceCounts coOccurrenceCounts,
                    Provider<TypeCoOccurrenceEvaluation> typeCoOccurrenceEvaluationProvider,
-                   Provider<ElasticSearchSetup> esSetupProvider,
-                   Client client) {
+                   Provider<AnalysisSetup> analysisSetupProvider,
+                   Client client,
+                   AnalysisResultCache analysisResultCache) {
         this.coOccurrenceCounts = coOccurrenceCounts;
         this.typeCoOccurrenceEvaluationProvider = typeCoOccurrenceEvaluationProvider;
-        this.esSetupProvider = esSetupProvider;
+        this.analysisSetupProvider = analysisSetupProvider;
         this.client = client;
+        this.analysisResultCache = analysisResultCache;
     }
 
     public void setId(String id) {
         this.id = id;
     }
 
+    public String getId() {
+        return id;
+    }
+
     public void setAnalysisConfig(AnalysisConfig analysisConfig) {
         this.analysisConfig = analysisConfig;
     }
 
+    /**
+     * Sets whether the analysis refreshes an earlier analysis, only evaluating the shared documents which have no
+     * partial counts stored for the fingerprint of the configuration and totalling the counts from the stored partials.
+     *
+     * @param refresh true to only evaluate documents which have not been evaluated
+     */
+    public void setRefresh(boolean refresh) {
+        this.refresh = refresh;
+    }
+
+    /**
+     * Checks that the configuration of a refresh has the same fingerprint as the finished analysis it refreshes, since
+     * the partial counts stored under that fingerprint are reused.
+     *
+     * @throws AnalysisConfigurationException if there is no finished analysis with the id, or its configuration differs
+     * @throws IOException                    if there is a failure computing the fingerprint
+     */
+    public void checkRefreshedAnalysis() throws AnalysisConfigurationException, IOException {
+        if (id == null) {
+            throw new IllegalStateException("id not initialized");
+        }
+        GetResponse getResponse = client.prepareGet(analysisConfig.getInstanceIndexes().analysisIndex(),
+                CoOccurrenceCounts.ELASTIC_SEARCH_TYPE, id)
+                .setFetchSource("fingerprint", null)
+                .get();
+        if (!getResponse.isExists()) {
+            throw new AnalysisConfigurationException("No finished analysis " + id + " to refresh");
+        }
+        if (!analysisConfig.fingerprint().equals(getResponse.getSource().get("fingerprint"))) {
+            throw new AnalysisConfigurationException("Configuration does not match analysis " + id);
+        }
+    }
+
+    /**
+     * Claims the results of the analysis in the {@link AnalysisResultCache}, unless an analysis with the same
+     * configuration of the same versions of the systems is already running or has finished. Refreshes do not use the
+     * cache.
+     *
+     * @return the identifier of the identical analysis, or null if this analysis should be run
+     * @throws IOException if there is a failure computing the result fingerprint
+     */
+    @Nullable
+    public String claimResults() throws IOException {
+        if (refresh) {
+            return null;
+        }
+        if (id == null) {
+            throw new IllegalStateException("id not initialized");
+        }
+        String fingerprint = analysisResultCache.resultFingerprint(analysisConfig);
+        String existingId = analysisResultCache.claim(fingerprint, id,
+                analysisConfig.getInstanceIndexes().analysisIndex());
+        if (existingId == null) {
+            resultFingerprint = fingerprint;
+        }
+        return existingId;
+    }
+
     /**
      * Runs the analysis.
      */
@@ -82,13 +153,7 @@ public class AnalysisRunner {
         String analysisIndex = analysisConfig.getInstanceIndexes().analysisIndex();
 
         try {
-            ElasticSearchSetup elasticSearchSetup = esSetupProvider.get();
-            elasticSearchSetup.setIndex(analysisIndex);
-            elasticSearchSetup.setUpPrimaryIndex("edu/umn/nlptab/analysis/AnalysisSettings.json");
-            elasticSearchSetup.setUpPrimaryIndexType("MatchCounts", "edu/umn/nlptab/analysis/MatchCountsMapping.json");
-            elasticSearchSetup.setUpPrimaryIndexType("FalsePositive", "edu/umn/nlptab/analysis/FalsePositive.json");
-            elasticSearchSetup.setUpPrimaryIndexType("FalseNegative", "edu/umn/nlptab/analysis/FalseNegative.json");
-            elasticSearchSetup.setUpPrimaryIndexType("TruePositive", "edu/umn/nlptab/analysis/TruePositive.json");
+            analysisSetupProvider.get().setUpElasticSearch(analysisConfig.getInstanceIndexes());
 
             performAnalysis();
             client.prepareUpdate(analysisIndex, "AnalysisTask", id)
@@ -111,6 +176,10 @@ public class AnalysisRunner {
             } catch (IOException e1) {
                 logger.error("Failed to upload failure object", e1);
             }
+        } finally {
+            if (resultFingerprint != null) {
+                analysisResultCache.release(resultFingerprint, id, analysisIndex);
+            }
         }
     }
 
@@ -120,24 +189,23 @@ public class AnalysisRunner {
 
         String analysisIndex = analysisConfig.getInstanceIndexes().analysisIndex();
 
-        Set<String> hypothesisIdentifiers = getDocumentIdentifiersInSystem(analysisConfig.getHypothesis().getSystemIndex());
-        Set<String> referenceIdentifiers = getDocumentIdentifiersInSystem(analysisConfig.getReference().getSystemIndex());
-        Set<String> documentIdentifiers = hypothesisIdentifiers.stream()
-                .filter(referenceIdentifiers::contains)
-                .collect(Collectors.toSet());
-
-        logger.info("Found {} shared documents", documentIdentifiers.size());
+        String hypothesisSystemIndex = analysisConfig.getHypothesis().getSystemIndex();
+        String referenceSystemIndex = analysisConfig.getReference().getSystemIndex();
 
-        int completed = 0;
+        // the shared documents are not known until the identifiers have been merged, so the total starts as the
+        // smaller number of documents in either system and is corrected when the analysis finishes
+        long estimatedTotal = Math.min(countDocumentsInSystem(hypothesisSystemIndex),
+                countDocumentsInSystem(referenceSystemIndex));
 
         client.prepareIndex(analysisIndex, "AnalysisTask", id)
                 .setSource(XContentFactory.jsonBuilder()
                         .startObject()
-                        .field("total", documentIdentifiers.size())
+                        .field("total", estimatedTotal)
                         .field("completed", 0)
                         .field("finished", false)
                         .field("failed", false)
                         .nullField("error")
+                        .field("resultFingerprint", resultFingerprint)
                         .endObject())
                 .get();
 
@@ -145,56 +213,153 @@ public class AnalysisRunner {
         coOccurrenceCounts.setIndex(analysisIndex);
         coOccurrenceCounts.setAnalysisId(id);
 
-        for (String documentIdentifier : documentIdentifiers) {
-            logger.debug("Analyzing document: {}", documentIdentifier);
+        String fingerprint = analysisConfig.fingerprint();
 
-            TypeCoOccurrenceEvaluation typeCoOccurrenceEvaluation = typeCoOccurrenceEvaluationProvider.get();
+        DocumentSampling documentSampling = analysisConfig.getDocumentSampling();
+        if (documentSampling != null && refresh) {
+            throw new NlpTabException("Sampled analyses cannot be refreshed");
+        }
 
-            if (typeCoOccurrenceEvaluation == null) {
-                throw new RuntimeException("Provider for type cooccurrence returned null");
+        if (analysisConfig.isDistributed()) {
+            analyzeDistributed();
+        } else {
+            while (true) {
+                analyzeSharedDocuments(analysisIndex, fingerprint, documentSampling);
+
+                if (documentSampling == null) {
+                    break;
+                }
+
+                DocumentSampling.Intervals intervals = documentSampling.bootstrap(analysisConfig.isHitMiss());
+                coOccurrenceCounts.setConfidenceIntervals(intervals);
+                if (documentSampling.isNarrowEnough(intervals) || !documentSampling.expand()) {
+                    break;
+                }
+                logger.debug("Confidence intervals wider than the target, expanding the sample.");
             }
+        }
 
-            typeCoOccurrenceEvaluation.setDocumentId(documentIdentifier);
-            typeCoOccurrenceEvaluation.setAnalysisId(id);
-            typeCoOccurrenceEvaluation.setIndex(analysisIndex);
-            typeCoOccurrenceEvaluation.setAnalysisConfig(analysisConfig);
-
-            CoOccurrenceCounts other = typeCoOccurrenceEvaluation.computeCoOccurrenceCounts();
-            coOccurrenceCounts.add(other);
+        logger.info("Analyzed {} shared documents, {} of which were already evaluated", completed, skipped);
 
-            client.prepareUpdate(analysisIndex, "AnalysisTask", id)
-                    .setDoc(XContentFactory.jsonBuilder()
-                            .startObject()
-                            .field("completed", ++completed)
-                            .endObject())
-                    .get();
-        }
+        client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                .setDoc(XContentFactory.jsonBuilder()
+                        .startObject()
+                        .field("total", completed)
+                        .field("completed", completed)
+                        .endObject())
+                .get();
 
         coOccurrenceCounts.buildRequest().get();
     }
 
-    private Set<String> getDocumentIdentifiersInSystem(String systemIndex) {
-        Set<String> documentIdentifiers = new HashSet<>();
+    /**
+     * Evaluates the shared documents, or those shared documents in the current round of the sample.
+     */
+    private void analyzeSharedDocuments(String analysisIndex,
+                                        String fingerprint,
+                                        @Nullable DocumentSampling documentSampling)
+            throws IOException, InterruptedException, NlpTabException {
+        String searchIndex = analysisConfig.getInstanceIndexes().searchIndex();
+        String hypothesisSystemIndex = analysisConfig.getHypothesis().getSystemIndex();
+        String referenceSystemIndex = analysisConfig.getReference().getSystemIndex();
+        try (DocumentIdentifierSource hypothesisIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                hypothesisSystemIndex);
+             DocumentIdentifierSource referenceIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                     referenceSystemIndex)) {
+            Iterator<String> documentIdentifiers = new SharedDocumentIdentifiers(hypothesisIdentifiers,
+                    referenceIdentifiers);
+            if (documentSampling != null) {
+                documentIdentifiers = Iterators.filter(documentIdentifiers, documentSampling::includes);
+            }
+            Predicate<String> needsEvaluation = documentIdentifier -> true;
+            if (refresh) {
+                StoredPartials storedPartials = new StoredPartials(client, analysisIndex, fingerprint,
+                        new DocumentViews(client, analysisConfig), documentIdentifiers, coOccurrenceCounts);
+                documentIdentifiers = storedPartials;
+                needsEvaluation = storedPartials;
+            }
 
-        SearchResponse scrollResp = client.prepareSearch(analysisConfig.getInstanceIndexes().searchIndex())
-                .setTypes("DocumentInSystem")
-                .setQuery(QueryBuilders.termQuery("systemIndex", systemIndex))
-                .setScroll(new TimeValue(60, TimeUnit.SECONDS))
-                .setSize(100)
+            try (DocumentPrefetcher documentPrefetcher = new DocumentPrefetcher(client, documentIdentifiers,
+                    analysisConfig.getHypothesis(), analysisConfig.isHitMiss() ? null : analysisConfig.getReference(),
+                    needsEvaluation,
+                    analysisConfig.getPrefetchDocuments(), analysisConfig.getPrefetchMemoryBudget(),
+                    analysisConfig.getScrollPageSize())) {
+                while (documentPrefetcher.hasNext()) {
+                    DocumentPrefetcher.PrefetchedDocument prefetchedDocument = documentPrefetcher.next();
+
+                    if (prefetchedDocument.isSkipped()) {
+                        logger.trace("Document already evaluated: {}", prefetchedDocument.getDocumentIdentifier());
+                        skipped++;
+                    } else {
+                        evaluateDocument(prefetchedDocument, analysisIndex, fingerprint, documentSampling);
+                    }
+
+                    client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                            .setDoc(XContentFactory.jsonBuilder()
+                                    .startObject()
+                                    .field("completed", ++completed)
+                                    .endObject())
+                            .get();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the shared documents on the shards of the hypothesis system index and totals their counts.
+     */
+    private void analyzeDistributed() throws NlpTabException {
+        DistributedAnalysisResponse response = DistributedAnalysisAction.INSTANCE.newRequestBuilder(client)
+                .setIndices(analysisConfig.getHypothesis().getSystemIndex())
+                .setAnalysisId(id)
+                .setAnalysisConfig(analysisConfig.getJsonMap())
+                .setRefresh(refresh)
                 .get();
 
-        while (true) {
-            for (SearchHit searchHit : scrollResp.getHits().getHits()) {
-                documentIdentifiers.add((String) searchHit.getSource().get("documentIdentifier"));
-            }
+        if (response.getFailedShards() > 0) {
+            throw new NlpTabException("Analysis failed on " + response.getFailedShards() + " shards: "
+                    + response.getShardFailures()[0].reason());
+        }
 
-            scrollResp = client.prepareSearchScroll(scrollResp.getScrollId()).setScroll(new TimeValue(60, TimeUnit.SECONDS)).get();
+        coOccurrenceCounts.add(response.getFirstOnly(), response.getSecondOnly(), response.getBoth());
+        completed = Math.toIntExact(response.getCompleted());
+        skipped = Math.toIntExact(response.getSkipped());
+    }
 
-            if (scrollResp.getHits().getHits().length == 0) {
-                break;
-            }
+    private void evaluateDocument(DocumentPrefetcher.PrefetchedDocument prefetchedDocument,
+                                  String analysisIndex,
+                                  String fingerprint,
+                                  @Nullable DocumentSampling documentSampling)
+            throws IOException, InterruptedException, NlpTabException {
+        String documentIdentifier = prefetchedDocument.getDocumentIdentifier();
+        logger.debug("Analyzing document: {}", documentIdentifier);
+
+        TypeCoOccurrenceEvaluation typeCoOccurrenceEvaluation = typeCoOccurrenceEvaluationProvider.get();
+
+        if (typeCoOccurrenceEvaluation == null) {
+            throw new RuntimeException("Provider for type cooccurrence returned null");
         }
 
-        return documentIdentifiers;
+        typeCoOccurrenceEvaluation.setPrefetchedDocument(prefetchedDocument);
+        typeCoOccurrenceEvaluation.setAnalysisId(id);
+        typeCoOccurrenceEvaluation.setIndex(analysisIndex);
+        typeCoOccurrenceEvaluation.setAnalysisConfig(analysisConfig);
+        typeCoOccurrenceEvaluation.setFingerprint(fingerprint);
+
+        CoOccurrenceCounts other = typeCoOccurrenceEvaluation.computeCoOccurrenceCounts();
+        coOccurrenceCounts.add(other);
+        if (documentSampling != null) {
+            documentSampling.addDocument(other);
+        }
+    }
+
+    private long countDocumentsInSystem(String systemIndex) {
+        return client.prepareSearch(analysisConfig.getInstanceIndexes().searchIndex())
+                .setTypes("DocumentInSystem")
+                .setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.termQuery("systemIndex", systemIndex)))
+                .setSize(0)
+                .get()
+                .getHits()
+                .getTotalHits();
     }
 }
@@ -18,15 +18,38 @@ package edu.umn.nlptab.analysis;
 
 import edu.umn.nlptab.core.ElasticSearchSetup;
 import edu.umn.nlptab.NlpTabException;
+import edu.umn.nlptab.core.InstanceIndexes;
 import org.elasticsearch.common.inject.Inject;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Performs setup for the running of an analysis task, including creating the analysis index.
+ * <p>The analysis index is created with its settings and all of the analysis types in one request, and is only
+ * initialized once per node.</p>
  *
  * @author Ben Knoll
  * @since 1.0
  */
 class AnalysisSetup {
+    private static final String SETTINGS = "edu/umn/nlptab/analysis/AnalysisSettings.json";
+
+    private static final Map<String, String> TYPES = buildTypes();
+
+    private static Map<String, String> buildTypes() {
+        Map<String, String> types = new LinkedHashMap<>();
+        types.put("MatchCounts", "edu/umn/nlptab/analysis/MatchCountsMapping.json");
+        types.put("FalsePositive", "edu/umn/nlptab/analysis/FalsePositive.json");
+        types.put("FalseNegative", "edu/umn/nlptab/analysis/FalseNegative.json");
+        types.put("TruePositive", "edu/umn/nlptab/analysis/TruePositive.json");
+        types.put(CoOccurrenceCounts.DOCUMENT_ELASTIC_SEARCH_TYPE, "edu/umn/nlptab/analysis/DocumentMatchCounts.json");
+        types.put(CoOccurrenceCounts.PARTIAL_ELASTIC_SEARCH_TYPE, "edu/umn/nlptab/analysis/PartialMatchCounts.json");
+        types.put(TypeMatrixRunner.PAIR_COUNTS_TYPE, "edu/umn/nlptab/analysis/TypePairCounts.json");
+        return Collections.unmodifiableMap(types);
+    }
+
     private final ElasticSearchSetup elasticSearchSetup;
 
     @Inject
@@ -34,10 +57,8 @@ class AnalysisSetup {
         this.elasticSearchSetup = elasticSearchSetup;
     }
 
-    void setUpElasticSearch() throws NlpTabException {
-        elasticSearchSetup.setUpPrimaryIndex("edu/umn/nlptab/analysis/AnalysisSettings.json");
-
-        elasticSearchSetup.setUpPrimaryIndexType("MatchCounts",
-                "edu/umn/nlptab/analysis/MatchCountsMapping.json");
+    void setUpElasticSearch(InstanceIndexes instanceIndexes) throws NlpTabException {
+        elasticSearchSetup.setInstance(instanceIndexes.getInstanceName());
+        elasticSearchSetup.setUpInstanceIndex(InstanceIndexes.ANALYSIS_SUFFIX, SETTINGS, TYPES);
     }
 }
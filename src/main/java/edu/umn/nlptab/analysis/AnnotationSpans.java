@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import java.util.Arrays;
+
+/**
+ * The primary locations and type codes of the annotations of one system in a single document, in order of begin.
+ * The arrays are reused from document to document.
+ *
+ * @since 1.2.0
+ */
+class AnnotationSpans {
+    private int[] begins = new int[256];
+
+    private int[] ends = new int[256];
+
+    private int[] typeCodes = new int[256];
+
+    private int size = 0;
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int begin, int end, int typeCode) {
+        if (size == begins.length) {
+            int newLength = size * 2;
+            begins = Arrays.copyOf(begins, newLength);
+            ends = Arrays.copyOf(ends, newLength);
+            typeCodes = Arrays.copyOf(typeCodes, newLength);
+        }
+        begins[size] = begin;
+        ends[size] = end;
+        typeCodes[size] = typeCode;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getBegin(int index) {
+        return begins[index];
+    }
+
+    int getEnd(int index) {
+        return ends[index];
+    }
+
+    int getTypeCode(int index) {
+        return typeCodes[index];
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs a batch of analyses between the same two systems, determining the shared documents once and fetching the
+ * feature structures of each document once for all of the analyses. Each analysis keeps its own id, task progress and
+ * match counts, exactly as if it were run by its own {@link AnalysisRunner}.
+ *
+ * @since 1.2.0
+ */
+public class BatchAnalysisRunner {
+    private static final ESLogger logger = Loggers.getLogger(BatchAnalysisRunner.class);
+
+    private static final int PAGE_SIZE = 500;
+
+    private final Provider<CoOccurrenceCounts> coOccurrenceCountsProvider;
+
+    private final Provider<TypeCoOccurrenceEvaluation> typeCoOccurrenceEvaluationProvider;
+
+    private final Provider<AnalysisSetup> analysisSetupProvider;
+
+    private final Client client;
+
+    private final List<String> ids = new ArrayList<>();
+
+    private final List<AnalysisConfig> analysisConfigs = new ArrayList<>();
+
+    private final List<CoOccurrenceCounts> coOccurrenceCounts = new ArrayList<>();
+
+    @Inject
+    BatchAnalysisRunner(Provider<CoOccurrenceCounts> coOccurrenceCountsProvider,
+                        Provider<TypeCoOccurrenceEvaluation> typeCoOccurrenceEvaluationProvider,
+                        Provider<AnalysisSetup> analysisSetupProvider,
+                        Client client) {
+        this.coOccurrenceCountsProvider = coOccurrenceCountsProvider;
+        this.typeCoOccurrenceEvaluationProvider = typeCoOccurrenceEvaluationProvider;
+        this.analysisSetupProvider = analysisSetupProvider;
+        this.client = client;
+    }
+
+    /**
+     * Adds an analysis to the batch.
+     *
+     * @param id             the id of the analysis
+     * @param analysisConfig the configuration of the analysis
+     * @throws AnalysisConfigurationException if the analysis is not between the same instance and systems as the
+     *                                        analyses already in the batch, or it is sampled or distributed, which
+     *                                        batches do not support
+     */
+    public void addAnalysis(String id, AnalysisConfig analysisConfig) throws AnalysisConfigurationException {
+        if (analysisConfig.getDocumentSampling() != null) {
+            throw new AnalysisConfigurationException("Sampled analyses cannot be run in a batch");
+        }
+        if (analysisConfig.isDistributed()) {
+            throw new AnalysisConfigurationException("Distributed analyses cannot be run in a batch");
+        }
+        if (!analysisConfigs.isEmpty()) {
+            AnalysisConfig first = analysisConfigs.get(0);
+            if (!first.getInstanceIndexes().analysisIndex().equals(analysisConfig.getInstanceIndexes().analysisIndex())) {
+                throw new AnalysisConfigurationException("All analyses in a batch must be in the same instance");
+            }
+            if (!first.getHypothesis().getSystemIndex().equals(analysisConfig.getHypothesis().getSystemIndex())
+                    || !first.getReference().getSystemIndex().equals(analysisConfig.getReference().getSystemIndex())) {
+                throw new AnalysisConfigurationException("All analyses in a batch must compare the same systems");
+            }
+        }
+        ids.add(id);
+        analysisConfigs.add(analysisConfig);
+    }
+
+    /**
+     * Runs the analyses.
+     */
+    public void setupIndexAndPerformAnalyses() {
+        if (analysisConfigs.isEmpty()) {
+            return;
+        }
+
+        String analysisIndex = analysisConfigs.get(0).getInstanceIndexes().analysisIndex();
+
+        try {
+            analysisSetupProvider.get().setUpElasticSearch(analysisConfigs.get(0).getInstanceIndexes());
+
+            performAnalyses(analysisIndex);
+            updateTasks(analysisIndex, "finished", true);
+        } catch (InterruptedException | IOException | NlpTabException e) {
+            logger.error("Failed batch analysis", e);
+            try {
+                BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+                for (String id : ids) {
+                    bulkRequestBuilder.add(client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                            .setDoc(XContentFactory.jsonBuilder()
+                                    .startObject()
+                                    .field("finished", true)
+                                    .field("failed", true)
+                                    .field("error", e.getLocalizedMessage())
+                                    .endObject()));
+                }
+                bulkRequestBuilder.get();
+            } catch (IOException e1) {
+                logger.error("Failed to upload failure objects", e1);
+            }
+        }
+    }
+
+    private void performAnalyses(String analysisIndex) throws IOException, InterruptedException, NlpTabException {
+        AnalysisConfig first = analysisConfigs.get(0);
+        String searchIndex = first.getInstanceIndexes().searchIndex();
+        String hypothesisSystemIndex = first.getHypothesis().getSystemIndex();
+        String referenceSystemIndex = first.getReference().getSystemIndex();
+
+        logger.info("Running batch of {} analyses of {} against {}.", analysisConfigs.size(), hypothesisSystemIndex,
+                referenceSystemIndex);
+
+        long estimatedTotal = Math.min(countDocumentsInSystem(searchIndex, hypothesisSystemIndex),
+                countDocumentsInSystem(searchIndex, referenceSystemIndex));
+
+        BulkRequestBuilder taskRequests = client.prepareBulk();
+        for (int i = 0; i < ids.size(); i++) {
+            taskRequests.add(client.prepareIndex(analysisIndex, "AnalysisTask", ids.get(i))
+                    .setSource(XContentFactory.jsonBuilder()
+                            .startObject()
+                            .field("total", estimatedTotal)
+                            .field("completed", 0)
+                            .field("finished", false)
+                            .field("failed", false)
+                            .nullField("error")
+                            .endObject()));
+
+            CoOccurrenceCounts counts = coOccurrenceCountsProvider.get();
+            counts.setAnalysisConfig(analysisConfigs.get(i));
+            counts.setIndex(analysisIndex);
+            counts.setAnalysisId(ids.get(i));
+            coOccurrenceCounts.add(counts);
+        }
+        taskRequests.get();
+
+        List<UnitOfAnalysis> hypotheses = new ArrayList<>();
+        List<UnitOfAnalysis> references = new ArrayList<>();
+        List<String> fingerprints = new ArrayList<>();
+        for (AnalysisConfig analysisConfig : analysisConfigs) {
+            hypotheses.add(analysisConfig.getHypothesis());
+            references.add(analysisConfig.getReference());
+            fingerprints.add(analysisConfig.fingerprint());
+        }
+
+        int completed = 0;
+        try (DocumentIdentifierSource hypothesisIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                hypothesisSystemIndex);
+             DocumentIdentifierSource referenceIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                     referenceSystemIndex)) {
+            SharedDocumentIdentifiers documentIdentifiers = new SharedDocumentIdentifiers(hypothesisIdentifiers,
+                    referenceIdentifiers);
+            while (documentIdentifiers.hasNext()) {
+                String documentIdentifier = documentIdentifiers.next();
+                logger.debug("Analyzing document: {}", documentIdentifier);
+
+                List<List<SearchHit>> hypothesisHits = fetchFeatureStructures(hypothesisSystemIndex,
+                        documentIdentifier, hypotheses);
+                List<List<SearchHit>> referenceHits = fetchFeatureStructures(referenceSystemIndex,
+                        documentIdentifier, references);
+
+                for (int i = 0; i < analysisConfigs.size(); i++) {
+                    TypeCoOccurrenceEvaluation typeCoOccurrenceEvaluation = typeCoOccurrenceEvaluationProvider.get();
+                    typeCoOccurrenceEvaluation.setDocumentId(documentIdentifier);
+                    typeCoOccurrenceEvaluation.setAnalysisId(ids.get(i));
+                    typeCoOccurrenceEvaluation.setIndex(analysisIndex);
+                    typeCoOccurrenceEvaluation.setAnalysisConfig(analysisConfigs.get(i));
+                    typeCoOccurrenceEvaluation.setHypothesisHits(hypothesisHits.get(i));
+                    typeCoOccurrenceEvaluation.setReferenceHits(referenceHits.get(i));
+                    typeCoOccurrenceEvaluation.setFingerprint(fingerprints.get(i));
+
+                    coOccurrenceCounts.get(i).add(typeCoOccurrenceEvaluation.computeCoOccurrenceCounts());
+                }
+
+                updateTasks(analysisIndex, "completed", ++completed);
+            }
+        }
+
+        logger.info("Analyzed {} shared documents", completed);
+
+        updateTasks(analysisIndex, "total", completed);
+
+        for (CoOccurrenceCounts counts : coOccurrenceCounts) {
+            counts.buildRequest().get();
+        }
+    }
+
+    /**
+     * Fetches the feature structures in a document which are in any of the units of analysis with a single scroll,
+     * naming the query of each unit to determine which units each feature structure is in. Only the source fields read
+     * by any of the units are fetched.
+     *
+     * @param systemIndex        the system index of the units of analysis
+     * @param documentIdentifier the document
+     * @param unitsOfAnalysis    the units of analysis
+     * @return the feature structures in each unit of analysis, in the same order as the units
+     */
+    private List<List<SearchHit>> fetchFeatureStructures(String systemIndex,
+                                                         String documentIdentifier,
+                                                         List<UnitOfAnalysis> unitsOfAnalysis) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery().minimumNumberShouldMatch(1);
+        List<List<SearchHit>> hits = new ArrayList<>(unitsOfAnalysis.size());
+        Set<String> sourceFields = new LinkedHashSet<>();
+        for (int i = 0; i < unitsOfAnalysis.size(); i++) {
+            UnitOfAnalysis unitOfAnalysis = unitsOfAnalysis.get(i);
+            query.should(unitOfAnalysis.queryInDocument(documentIdentifier).queryName(Integer.toString(i)));
+            Collections.addAll(sourceFields, unitOfAnalysis.getSourceFields());
+            hits.add(new ArrayList<>());
+        }
+
+        SearchResponse response = client.prepareSearch(systemIndex)
+                .setTypes("FeatureStructure")
+                .setRouting(unitsOfAnalysis.get(0).routing(documentIdentifier))
+                .setQuery(query)
+                .setFetchSource(sourceFields.toArray(new String[sourceFields.size()]), null)
+                .addSort("_doc", SortOrder.ASC)
+                .setScroll(TimeValue.timeValueMinutes(2))
+                .setSize(PAGE_SIZE)
+                .get();
+
+        try {
+            SearchHit[] page = response.getHits().getHits();
+            while (page.length > 0) {
+                for (SearchHit hit : page) {
+                    for (String matchedQuery : hit.getMatchedQueries()) {
+                        hits.get(Integer.parseInt(matchedQuery)).add(hit);
+                    }
+                }
+
+                response = client.prepareSearchScroll(response.getScrollId())
+                        .setScroll(TimeValue.timeValueMinutes(2))
+                        .get();
+                page = response.getHits().getHits();
+            }
+        } finally {
+            ClearScrollResponse clearScrollResponse = client.prepareClearScroll()
+                    .addScrollId(response.getScrollId())
+                    .get();
+            if (!clearScrollResponse.isSucceeded()) {
+                logger.debug("Failed to clear scroll: {}", clearScrollResponse.status());
+            }
+        }
+
+        return hits;
+    }
+
+    private void updateTasks(String analysisIndex, String field, @Nullable Object value) throws IOException {
+        BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (String id : ids) {
+            bulkRequestBuilder.add(client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                    .setDoc(XContentFactory.jsonBuilder()
+                            .startObject()
+                            .field(field, value)
+                            .endObject()));
+        }
+        bulkRequestBuilder.get();
+    }
+
+    private long countDocumentsInSystem(String searchIndex, String systemIndex) {
+        return client.prepareSearch(searchIndex)
+                .setTypes("DocumentInSystem")
+                .setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.termQuery("systemIndex", systemIndex)))
+                .setSize(0)
+                .get()
+                .getHits()
+                .getTotalHits();
+    }
+}
@@ -21,10 +21,6 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
-import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
-import org.elasticsearch.script.Script;
-import org.elasticsearch.script.ScriptService;
 import org.elasticsearch.search.SearchHit;
 
 import javax.annotation.Nullable;
@@ -76,17 +72,20 @@ class ClosestFsFinder {
 
         SearchResponse searchResponse;
         if (limit != 0) {
-            FunctionScoreQueryBuilder query = new FunctionScoreQueryBuilder(boolQueryBuilder)
-                    .add(ScoreFunctionBuilders.scriptFunction(new Script("annotationDistance", ScriptService.ScriptType.INLINE, "native", primaryLocation)));
-            float minScore = 1.0f / (limit + 1.0f);
+            SpanProximityQueryBuilder query = new SpanProximityQueryBuilder(boolQueryBuilder,
+                    (Integer) primaryLocation.get("begin"), (Integer) primaryLocation.get("end"))
+                    .maxDistance(limit);
             searchResponse = client.prepareSearch(target.getSystemIndex())
+                    .setRouting(target.routing(documentId))
                     .setQuery(query)
-                    .setMinScore(minScore)
+                    .setFetchSource(false)
+                    .setSize(1)
                     .execute().actionGet();
         } else {
             searchResponse = client.prepareSearch(target.getSystemIndex())
-                    .setQuery(boolQueryBuilder.must(QueryBuilders.termQuery("primaryLocation.begin", primaryLocation.get("begin")))
-                            .must(QueryBuilders.termQuery("primaryLocation.end", primaryLocation.get("end"))))
+                    .setRouting(target.routing(documentId))
+                    .setQuery(boolQueryBuilder.filter(QueryBuilders.termQuery("primaryLocation.begin", primaryLocation.get("begin")))
+                            .filter(QueryBuilders.termQuery("primaryLocation.end", primaryLocation.get("end"))))
                     .get();
         }
 
@@ -22,6 +22,7 @@ import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 
 /**
@@ -30,6 +31,10 @@ import java.io.IOException;
 class CoOccurrenceCounts {
     public static final String ELASTIC_SEARCH_TYPE = "MatchCounts";
 
+    public static final String DOCUMENT_ELASTIC_SEARCH_TYPE = "DocumentMatchCounts";
+
+    public static final String PARTIAL_ELASTIC_SEARCH_TYPE = "PartialMatchCounts";
+
     private final Client client;
 
     private String index;
@@ -44,6 +49,8 @@ class CoOccurrenceCounts {
 
     private AnalysisConfig analysisConfig;
 
+    @Nullable private DocumentSampling.Intervals confidenceIntervals;
+
     @Inject
     CoOccurrenceCounts(Client client) {
         this.client = client;
@@ -69,20 +76,45 @@ class CoOccurrenceCounts {
         both = Math.incrementExact(both);
     }
 
+    long getFirstOnly() {
+        return firstOnly;
+    }
+
+    long getSecondOnly() {
+        return secondOnly;
+    }
+
+    long getBoth() {
+        return both;
+    }
+
+    void setConfidenceIntervals(DocumentSampling.Intervals confidenceIntervals) {
+        this.confidenceIntervals = confidenceIntervals;
+    }
+
     void add(CoOccurrenceCounts other) {
-        firstOnly = Math.addExact(firstOnly, other.firstOnly);
-        secondOnly = Math.addExact(secondOnly, other.secondOnly);
-        both = Math.addExact(both, other.both);
+        add(other.firstOnly, other.secondOnly, other.both);
+    }
+
+    void add(long firstOnly, long secondOnly, long both) {
+        this.firstOnly = Math.addExact(this.firstOnly, firstOnly);
+        this.secondOnly = Math.addExact(this.secondOnly, secondOnly);
+        this.both = Math.addExact(this.both, both);
     }
 
     IndexRequestBuilder buildRequest() throws IOException {
         XContentBuilder xContentBuilder = XContentFactory.jsonBuilder()
                 .startObject()
                 .field("analysisId", analysisId)
+                .field("fingerprint", analysisConfig.fingerprint())
                 .field("hitMissOnly", analysisConfig.isHitMiss());
 
         analysisConfig.append(xContentBuilder);
 
+        if (confidenceIntervals != null) {
+            confidenceIntervals.appendTo(xContentBuilder);
+        }
+
         if (analysisConfig.isHitMiss()) {
             xContentBuilder.field("hits", both)
                     .field("misses", firstOnly)
@@ -108,6 +140,68 @@ class CoOccurrenceCounts {
                 .setSource(xContentBuilder);
     }
 
+    /**
+     * Builds the request for the counts of a single document, which are written when an analysis does not persist all of
+     * its true positives. The systems are stored so that the counts can be deleted with either system, including those
+     * of analyses which never finished.
+     *
+     * @param documentId             the document the counts are for
+     * @param persistedTruePositives the number of true positive match documents written for the document
+     * @return index request for the document counts
+     * @throws IOException if there is a failure building the document
+     */
+    IndexRequestBuilder buildDocumentRequest(String documentId, long persistedTruePositives) throws IOException {
+        XContentBuilder xContentBuilder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field("analysisId", analysisId)
+                .field("documentId", documentId)
+                .field("hypothesisSystem", analysisConfig.getHypothesis().getSystemIndex())
+                .field("referenceSystem", analysisConfig.getReference().getSystemIndex())
+                .field("truePositives", both)
+                .field("persistedTruePositives", persistedTruePositives)
+                .field("falsePositives", firstOnly)
+                .field("falseNegatives", secondOnly)
+                .endObject();
+
+        return client.prepareIndex(index, DOCUMENT_ELASTIC_SEARCH_TYPE, analysisId + "_" + documentId)
+                .setSource(xContentBuilder);
+    }
+
+    /**
+     * Builds the request for the partial counts of a single document, keyed by the fingerprint of the analysis
+     * configuration so that any later analysis with the same fingerprint can reuse them instead of evaluating the
+     * document again. The views of the document are stored so that the counts are not reused once the document has been
+     * indexed into either system again, and the systems so that the partial counts can be deleted with either system.
+     *
+     * @param fingerprint the fingerprint of the analysis configuration
+     * @param documentId  the document the counts are for
+     * @param views       the views of the document in both systems
+     * @return index request for the partial counts
+     * @throws IOException if there is a failure building the document
+     * @see AnalysisConfig#fingerprint()
+     * @see DocumentViews
+     */
+    IndexRequestBuilder buildPartialRequest(String fingerprint, String documentId, String views) throws IOException {
+        XContentBuilder xContentBuilder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field("fingerprint", fingerprint)
+                .field("documentId", documentId)
+                .field("hypothesisSystem", analysisConfig.getHypothesis().getSystemIndex())
+                .field("referenceSystem", analysisConfig.getReference().getSystemIndex())
+                .field("views", views)
+                .field("firstOnly", firstOnly)
+                .field("secondOnly", secondOnly)
+                .field("both", both)
+                .endObject();
+
+        return client.prepareIndex(index, PARTIAL_ELASTIC_SEARCH_TYPE, partialId(fingerprint, documentId))
+                .setSource(xContentBuilder);
+    }
+
+    static String partialId(String fingerprint, String documentId) {
+        return fingerprint + "_" + documentId;
+    }
+
     public void setAnalysisConfig(AnalysisConfig analysisConfig) {
         this.analysisConfig = analysisConfig;
     }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Action which evaluates an analysis on every shard of the hypothesis system index, each shard evaluating the shared
+ * documents routed to it, and reduces the co-occurrence counts of the shards.
+ *
+ * @since 1.2.0
+ */
+public class DistributedAnalysisAction extends Action<DistributedAnalysisRequest, DistributedAnalysisResponse,
+        DistributedAnalysisRequestBuilder> {
+    public static final DistributedAnalysisAction INSTANCE = new DistributedAnalysisAction();
+
+    public static final String NAME = "indices:data/write/nlptab/analysis";
+
+    private DistributedAnalysisAction() {
+        super(NAME);
+    }
+
+    @Override
+    public DistributedAnalysisRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new DistributedAnalysisRequestBuilder(client, this);
+    }
+
+    @Override
+    public DistributedAnalysisResponse newResponse() {
+        return new DistributedAnalysisResponse();
+    }
+}
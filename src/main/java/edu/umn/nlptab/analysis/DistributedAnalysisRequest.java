@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Request to evaluate an analysis on the shards of the hypothesis system index. The configuration is sent as its json
+ * map and parsed on each shard.
+ *
+ * @since 1.2.0
+ */
+// BroadcastRequest declares the final indices(String...) which implements indices(String[]) of Replaceable
+@SuppressWarnings("overrides")
+public class DistributedAnalysisRequest extends BroadcastRequest<DistributedAnalysisRequest> {
+    @Nullable private String analysisId;
+
+    @Nullable private Map<String, Object> analysisConfig;
+
+    private boolean refresh = false;
+
+    public DistributedAnalysisRequest() {
+    }
+
+    @Nullable
+    public String getAnalysisId() {
+        return analysisId;
+    }
+
+    public void setAnalysisId(String analysisId) {
+        this.analysisId = analysisId;
+    }
+
+    @Nullable
+    public Map<String, Object> getAnalysisConfig() {
+        return analysisConfig;
+    }
+
+    public void setAnalysisConfig(Map<String, Object> analysisConfig) {
+        this.analysisConfig = analysisConfig;
+    }
+
+    public boolean isRefresh() {
+        return refresh;
+    }
+
+    public void setRefresh(boolean refresh) {
+        this.refresh = refresh;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (analysisId == null) {
+            validationException = addValidationError("analysisId is missing", validationException);
+        }
+        if (analysisConfig == null) {
+            validationException = addValidationError("analysisConfig is missing", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        analysisId = in.readString();
+        analysisConfig = in.readMap();
+        refresh = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(analysisId);
+        out.writeMap(analysisConfig);
+        out.writeBoolean(refresh);
+    }
+}
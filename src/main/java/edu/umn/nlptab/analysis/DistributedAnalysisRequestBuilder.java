@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+import java.util.Map;
+
+/**
+ * Builder for {@link DistributedAnalysisRequest}.
+ *
+ * @since 1.2.0
+ */
+public class DistributedAnalysisRequestBuilder extends ActionRequestBuilder<DistributedAnalysisRequest,
+        DistributedAnalysisResponse, DistributedAnalysisRequestBuilder> {
+    DistributedAnalysisRequestBuilder(ElasticsearchClient client, DistributedAnalysisAction action) {
+        super(client, action, new DistributedAnalysisRequest());
+    }
+
+    public DistributedAnalysisRequestBuilder setIndices(String... indices) {
+        request.indices(indices);
+        return this;
+    }
+
+    public DistributedAnalysisRequestBuilder setAnalysisId(String analysisId) {
+        request.setAnalysisId(analysisId);
+        return this;
+    }
+
+    public DistributedAnalysisRequestBuilder setAnalysisConfig(Map<String, Object> analysisConfig) {
+        request.setAnalysisConfig(analysisConfig);
+        return this;
+    }
+
+    public DistributedAnalysisRequestBuilder setRefresh(boolean refresh) {
+        request.setRefresh(refresh);
+        return this;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The co-occurrence counts of a distributed analysis, summed over the shards.
+ *
+ * @since 1.2.0
+ */
+public class DistributedAnalysisResponse extends BroadcastResponse {
+    private long firstOnly;
+
+    private long secondOnly;
+
+    private long both;
+
+    private long completed;
+
+    private long skipped;
+
+    DistributedAnalysisResponse() {
+    }
+
+    DistributedAnalysisResponse(int totalShards, int successfulShards, int failedShards,
+                                List<ShardOperationFailedException> shardFailures, long firstOnly, long secondOnly,
+                                long both, long completed, long skipped) {
+        super(totalShards, successfulShards, failedShards, shardFailures);
+        this.firstOnly = firstOnly;
+        this.secondOnly = secondOnly;
+        this.both = both;
+        this.completed = completed;
+        this.skipped = skipped;
+    }
+
+    public long getFirstOnly() {
+        return firstOnly;
+    }
+
+    public long getSecondOnly() {
+        return secondOnly;
+    }
+
+    public long getBoth() {
+        return both;
+    }
+
+    /**
+     * The number of shared documents evaluated or skipped by the shards.
+     *
+     * @return number of documents
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * The number of shared documents skipped by a refresh because they had already been evaluated.
+     *
+     * @return number of documents
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        firstOnly = in.readVLong();
+        secondOnly = in.readVLong();
+        both = in.readVLong();
+        completed = in.readVLong();
+        skipped = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVLong(firstOnly);
+        out.writeVLong(secondOnly);
+        out.writeVLong(both);
+        out.writeVLong(completed);
+        out.writeVLong(skipped);
+    }
+}
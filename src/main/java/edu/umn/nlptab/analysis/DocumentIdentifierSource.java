@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.sort.SortOrder;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the distinct identifiers of the documents in a system in ascending order, reading only the document
+ * identifier field of the {@code DocumentInSystem} documents.
+ * <p>Pages are read by searching for the identifiers after the last identifier of the previous page rather than with a
+ * scroll, so no search context is held open while the documents of a page are analyzed, however long that takes. The
+ * next page is requested as soon as a page arrives, so it is read while the current page is analyzed, and at most two
+ * pages are held at once.</p>
+ *
+ * @since 1.2.0
+ */
+class DocumentIdentifierSource implements Iterator<String>, Closeable {
+    private static final String FIELD = "documentIdentifier";
+
+    /**
+     * The number of identifiers in each page.
+     */
+    private static final int PAGE_SIZE = 5000;
+
+    private final Client client;
+
+    private final String searchIndex;
+
+    private final String systemIndex;
+
+    @Nullable
+    private final String preference;
+
+    @Nullable
+    private ListenableActionFuture<SearchResponse> nextPage;
+
+    @Nullable
+    private SearchHit[] hits;
+
+    private int index;
+
+    @Nullable
+    private String previous;
+
+    @Nullable
+    private String next;
+
+    private boolean exhausted;
+
+    DocumentIdentifierSource(Client client, String searchIndex, String systemIndex) {
+        this(client, searchIndex, systemIndex, null);
+    }
+
+    /**
+     * Creates a source for the documents of a system on one shard of the search index. {@code DocumentInSystem} is
+     * routed by document identifier, so these are the documents routed to the same shard number of any index with the
+     * same number of shards.
+     *
+     * @param client      elasticsearch client
+     * @param searchIndex the search index
+     * @param systemIndex the system index
+     * @param shard       the shard of the search index, or null for every shard
+     */
+    DocumentIdentifierSource(Client client, String searchIndex, String systemIndex, @Nullable Integer shard) {
+        this.client = client;
+        this.searchIndex = searchIndex;
+        this.systemIndex = systemIndex;
+        this.preference = shard == null ? null : "_shards:" + shard;
+    }
+
+    /**
+     * Compares document identifiers in the order elasticsearch sorts them, which is by unicode code point rather than
+     * by the UTF-16 chars compared by {@link String#compareTo(String)}.
+     *
+     * @param first  the first identifier
+     * @param second the second identifier
+     * @return a negative integer, zero, or a positive integer as the first identifier is less than, equal to, or
+     * greater than the second
+     */
+    static int compare(String first, String second) {
+        int i = 0;
+        int j = 0;
+        while (i < first.length() && j < second.length()) {
+            int firstCodePoint = first.codePointAt(i);
+            int secondCodePoint = second.codePointAt(j);
+            if (firstCodePoint != secondCodePoint) {
+                return Integer.compare(firstCodePoint, secondCodePoint);
+            }
+            i += Character.charCount(firstCodePoint);
+            j += Character.charCount(secondCodePoint);
+        }
+        return Integer.compare(first.length() - i, second.length() - j);
+    }
+
+    private ListenableActionFuture<SearchResponse> requestPage(@Nullable String after) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery("systemIndex", systemIndex));
+        if (after != null) {
+            query.filter(QueryBuilders.rangeQuery(FIELD).gt(after));
+        }
+        return client.prepareSearch(searchIndex)
+                .setTypes("DocumentInSystem")
+                .setQuery(QueryBuilders.constantScoreQuery(query))
+                .setFetchSource(false)
+                .addFieldDataField(FIELD)
+                .addSort(FIELD, SortOrder.ASC)
+                .setSize(PAGE_SIZE)
+                .setPreference(preference)
+                .execute();
+    }
+
+    private boolean advance() {
+        if (hits == null) {
+            nextPage = requestPage(null);
+        }
+        if (nextPage == null) {
+            return false;
+        }
+        hits = nextPage.actionGet().getHits().getHits();
+        index = 0;
+        nextPage = null;
+        if (hits.length == PAGE_SIZE) {
+            SearchHitField last = hits[hits.length - 1].field(FIELD);
+            if (last != null && last.getValue() != null) {
+                nextPage = requestPage(last.getValue());
+            }
+        }
+        return hits.length > 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !exhausted) {
+            if (hits == null || index == hits.length) {
+                if (!advance()) {
+                    exhausted = true;
+                    break;
+                }
+            }
+
+            SearchHitField field = hits[index++].field(FIELD);
+            if (field == null) {
+                continue;
+            }
+            String documentIdentifier = field.getValue();
+            if (documentIdentifier != null && !documentIdentifier.equals(previous)) {
+                next = documentIdentifier;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        previous = next;
+        next = null;
+        return previous;
+    }
+
+    @Override
+    public void close() {
+        nextPage = null;
+        hits = null;
+        exhausted = true;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Asynchronously loads the hypothesis and reference feature structures of the documents following the one being
+ * evaluated, so that the searches and scrolls for the next documents overlap with the evaluation of the current one.
+ * <p>At most {@code maxDocuments} documents are loaded ahead, and no further documents are started while the feature
+ * structures loaded but not yet taken exceed the memory budget. Since the size of a document is not known until it
+ * has been loaded, the budget can be exceeded by the documents already being loaded when it is reached.</p>
+ *
+ * @since 1.2.0
+ */
+class DocumentPrefetcher implements Closeable {
+    private static final ESLogger logger = Loggers.getLogger(DocumentPrefetcher.class);
+
+    private final Client client;
+
+    private final Iterator<String> documentIdentifiers;
+
+    private final UnitOfAnalysis hypothesis;
+
+    @Nullable private final UnitOfAnalysis reference;
+
+    private final Predicate<String> needsEvaluation;
+
+    private final int maxDocuments;
+
+    private final long memoryBudget;
+
+    private final int pageSize;
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    private final Deque<PrefetchedDocument> prefetched = new ArrayDeque<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a prefetcher for the documents.
+     *
+     * @param client              elasticsearch client
+     * @param documentIdentifiers the documents to load, in the order they are evaluated
+     * @param hypothesis          the hypothesis unit of analysis
+     * @param reference           the reference unit of analysis, or null if reference feature structures are not needed
+     * @param needsEvaluation     whether a document needs to be evaluated, documents which don't are not loaded
+     * @param maxDocuments        the maximum number of documents to load ahead
+     * @param memoryBudget        the number of bytes of source loaded ahead at which no further documents are started
+     * @param pageSize            the number of feature structures in each scroll page
+     */
+    DocumentPrefetcher(Client client,
+                       Iterator<String> documentIdentifiers,
+                       UnitOfAnalysis hypothesis,
+                       @Nullable UnitOfAnalysis reference,
+                       Predicate<String> needsEvaluation,
+                       int maxDocuments,
+                       long memoryBudget,
+                       int pageSize) {
+        this.client = client;
+        this.documentIdentifiers = documentIdentifiers;
+        this.hypothesis = hypothesis;
+        this.reference = reference;
+        this.needsEvaluation = needsEvaluation;
+        this.maxDocuments = maxDocuments;
+        this.memoryBudget = memoryBudget;
+        this.pageSize = pageSize;
+    }
+
+    boolean hasNext() {
+        fill();
+        return !prefetched.isEmpty();
+    }
+
+    /**
+     * Takes the next document, waiting for its feature structures to finish loading. Loading of the documents after
+     * it is started before waiting.
+     *
+     * @return the next document
+     * @throws InterruptedException if interrupted while waiting
+     * @throws NlpTabException      if loading the feature structures failed
+     */
+    PrefetchedDocument next() throws InterruptedException, NlpTabException {
+        fill();
+        PrefetchedDocument prefetchedDocument = prefetched.pollFirst();
+        if (prefetchedDocument == null) {
+            throw new NoSuchElementException();
+        }
+        fill();
+
+        prefetchedDocument.await();
+        bufferedBytes.addAndGet(-prefetchedDocument.bytes());
+        return prefetchedDocument;
+    }
+
+    private void fill() {
+        while (!closed && prefetched.size() < maxDocuments && documentIdentifiers.hasNext()
+                && (prefetched.isEmpty() || bufferedBytes.get() < memoryBudget)) {
+            String documentIdentifier = documentIdentifiers.next();
+            PrefetchedDocument prefetchedDocument;
+            if (needsEvaluation.test(documentIdentifier)) {
+                logger.trace("Prefetching document: {}", documentIdentifier);
+                prefetchedDocument = new PrefetchedDocument(documentIdentifier, new HitsFetch(hypothesis,
+                        documentIdentifier), reference == null ? null : new HitsFetch(reference, documentIdentifier));
+            } else {
+                prefetchedDocument = new PrefetchedDocument(documentIdentifier, null, null);
+            }
+            prefetched.addLast(prefetchedDocument);
+        }
+    }
+
+    /**
+     * Stops loading documents, clearing the scrolls of any which are still being loaded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        prefetched.clear();
+    }
+
+    /**
+     * A document and its loaded feature structures.
+     */
+    static class PrefetchedDocument {
+        private final String documentIdentifier;
+
+        @Nullable private final HitsFetch hypothesisFetch;
+
+        @Nullable private final HitsFetch referenceFetch;
+
+        private PrefetchedDocument(String documentIdentifier,
+                                   @Nullable HitsFetch hypothesisFetch,
+                                   @Nullable HitsFetch referenceFetch) {
+            this.documentIdentifier = documentIdentifier;
+            this.hypothesisFetch = hypothesisFetch;
+            this.referenceFetch = referenceFetch;
+        }
+
+        String getDocumentIdentifier() {
+            return documentIdentifier;
+        }
+
+        /**
+         * Whether the document was not loaded because it does not need to be evaluated.
+         *
+         * @return true if the document was skipped
+         */
+        boolean isSkipped() {
+            return hypothesisFetch == null;
+        }
+
+        List<SearchHit> getHypothesisHits() {
+            if (hypothesisFetch == null) {
+                throw new IllegalStateException("Skipped document has no hits");
+            }
+            return hypothesisFetch.hits;
+        }
+
+        @Nullable
+        List<SearchHit> getReferenceHits() {
+            return referenceFetch == null ? null : referenceFetch.hits;
+        }
+
+        private void await() throws InterruptedException, NlpTabException {
+            if (hypothesisFetch != null) {
+                hypothesisFetch.await();
+            }
+            if (referenceFetch != null) {
+                referenceFetch.await();
+            }
+        }
+
+        private long bytes() {
+            return (hypothesisFetch == null ? 0 : hypothesisFetch.bytes)
+                    + (referenceFetch == null ? 0 : referenceFetch.bytes);
+        }
+    }
+
+    /**
+     * Scrolls the feature structures of one unit of analysis in one document, issuing each scroll request from the
+     * response listener of the previous one.
+     */
+    private class HitsFetch implements ActionListener<SearchResponse> {
+        private final List<SearchHit> hits = new ArrayList<>();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private long bytes = 0;
+
+        @Nullable private String scrollId;
+
+        @Nullable private volatile Throwable failure;
+
+        HitsFetch(UnitOfAnalysis unitOfAnalysis, String documentIdentifier) {
+            client.prepareSearch(unitOfAnalysis.getSystemIndex())
+                    .setTypes("FeatureStructure")
+                    .setRouting(unitOfAnalysis.routing(documentIdentifier))
+                    .setQuery(unitOfAnalysis.queryInDocument(documentIdentifier))
+                    .setFetchSource(unitOfAnalysis.getSourceFields(), null)
+                    .addSort("_doc", SortOrder.ASC)
+                    .setScroll(TimeValue.timeValueMinutes(2))
+                    .setSize(pageSize)
+                    .execute(this);
+        }
+
+        @Override
+        public void onResponse(SearchResponse searchResponse) {
+            scrollId = searchResponse.getScrollId();
+            SearchHit[] page = searchResponse.getHits().getHits();
+            long pageBytes = 0;
+            for (SearchHit hit : page) {
+                hits.add(hit);
+                BytesReference source = hit.sourceRef();
+                if (source != null) {
+                    pageBytes += source.length();
+                }
+            }
+            bytes += pageBytes;
+            bufferedBytes.addAndGet(pageBytes);
+
+            if (page.length == 0 || closed) {
+                finish();
+            } else {
+                client.prepareSearchScroll(scrollId)
+                        .setScroll(TimeValue.timeValueMinutes(2))
+                        .execute(this);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            failure = e;
+            finish();
+        }
+
+        private void finish() {
+            if (scrollId != null) {
+                client.prepareClearScroll().addScrollId(scrollId).execute(new ActionListener<ClearScrollResponse>() {
+                    @Override
+                    public void onResponse(ClearScrollResponse clearScrollResponse) {
+                        if (!clearScrollResponse.isSucceeded()) {
+                            logger.debug("Failed to clear scroll: {}", clearScrollResponse.status());
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        logger.debug("Failed to clear scroll", e);
+                    }
+                });
+            }
+            done.countDown();
+        }
+
+        void await() throws InterruptedException, NlpTabException {
+            done.await();
+            Throwable failure = this.failure;
+            if (failure != null) {
+                throw new NlpTabException("Failed to load feature structures", failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Configuration and state of an approximate analysis, which evaluates a uniform random sample of the shared documents
+ * and reports bootstrap confidence intervals for its metrics alongside the point estimates.
+ * <p>Each document is given a pseudo-random priority in [0, 1) by hashing its identifier with the seed, and the
+ * documents with a priority below the sample rate are evaluated. When a target interval width is set and the
+ * intervals are wider, the sample rate is doubled and only the newly included documents are evaluated, repeating until
+ * the intervals are narrow enough or every document has been evaluated.</p>
+ *
+ * @since 1.2.0
+ */
+class DocumentSampling {
+    private final double rate;
+
+    @Nullable private final Double targetWidth;
+
+    private final int iterations;
+
+    private final long seed;
+
+    private final HashFunction hashFunction;
+
+    private double lowerPriority = 0;
+
+    private double upperPriority;
+
+    private long[] firstOnly = new long[1024];
+
+    private long[] secondOnly = new long[1024];
+
+    private long[] both = new long[1024];
+
+    private int size = 0;
+
+    private DocumentSampling(double rate, @Nullable Double targetWidth, int iterations, long seed) {
+        this.rate = rate;
+        this.targetWidth = targetWidth;
+        this.iterations = iterations;
+        this.seed = seed;
+        hashFunction = Hashing.murmur3_128();
+        upperPriority = rate;
+    }
+
+    @Nullable
+    static DocumentSampling fromJson(@Nullable Map<String, Object> json) throws AnalysisConfigurationException {
+        if (json == null) {
+            return null;
+        }
+
+        Number rate = (Number) json.get("rate");
+        if (rate == null || rate.doubleValue() <= 0 || rate.doubleValue() > 1) {
+            throw new AnalysisConfigurationException("sampling rate must be greater than 0 and at most 1");
+        }
+
+        Number targetWidth = (Number) json.get("targetWidth");
+        if (targetWidth != null && targetWidth.doubleValue() <= 0) {
+            throw new AnalysisConfigurationException("sampling targetWidth must be greater than 0");
+        }
+
+        Number iterations = (Number) json.get("bootstrapIterations");
+        if (iterations != null && iterations.intValue() < 1) {
+            throw new AnalysisConfigurationException("sampling bootstrapIterations must be at least 1");
+        }
+
+        Number seed = (Number) json.get("seed");
+
+        return new DocumentSampling(rate.doubleValue(),
+                targetWidth == null ? null : targetWidth.doubleValue(),
+                iterations == null ? 1000 : iterations.intValue(),
+                seed == null ? 0 : seed.longValue());
+    }
+
+    void appendTo(XContentBuilder xContentBuilder) throws IOException {
+        xContentBuilder.field("rate", rate)
+                .field("targetWidth", targetWidth)
+                .field("bootstrapIterations", iterations)
+                .field("seed", seed);
+    }
+
+    boolean isNarrowEnough(Intervals intervals) {
+        return targetWidth == null || intervals.maxWidth() <= targetWidth;
+    }
+
+    /**
+     * Returns whether a document is in the current round of the sample.
+     *
+     * @param documentIdentifier the document identifier
+     * @return true if the document should be evaluated in this round
+     */
+    boolean includes(String documentIdentifier) {
+        double priority = priority(documentIdentifier);
+        return priority >= lowerPriority && priority < upperPriority;
+    }
+
+    /**
+     * Doubles the sample rate for another round, which includes only the documents not in any earlier round.
+     *
+     * @return false if every document has already been sampled
+     */
+    boolean expand() {
+        if (upperPriority >= 1) {
+            return false;
+        }
+        lowerPriority = upperPriority;
+        upperPriority = Math.min(1, upperPriority * 2);
+        return true;
+    }
+
+    /**
+     * Returns the priority of a document, which is uniformly distributed over documents and fixed for a seed. All 64
+     * bits of the seed are hashed ahead of the identifier, so different seeds give independent priorities.
+     *
+     * @param documentIdentifier the document identifier
+     * @return priority in [0, 1)
+     */
+    private double priority(String documentIdentifier) {
+        long hash = hashFunction.newHasher()
+                .putLong(seed)
+                .putString(documentIdentifier, StandardCharsets.UTF_8)
+                .hash()
+                .asLong();
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Records the counts of a sampled document.
+     *
+     * @param counts the counts of the document
+     */
+    void addDocument(CoOccurrenceCounts counts) {
+        if (size == both.length) {
+            firstOnly = Arrays.copyOf(firstOnly, size * 2);
+            secondOnly = Arrays.copyOf(secondOnly, size * 2);
+            both = Arrays.copyOf(both, size * 2);
+        }
+        firstOnly[size] = counts.getFirstOnly();
+        secondOnly[size] = counts.getSecondOnly();
+        both[size] = counts.getBoth();
+        size++;
+    }
+
+    /**
+     * Computes 95% percentile bootstrap confidence intervals by resampling the sampled documents with replacement.
+     *
+     * @param hitMiss whether the analysis is hit/miss only, reporting accuracy instead of precision, recall and
+     *                f-measure
+     * @return the intervals of each metric
+     */
+    Intervals bootstrap(boolean hitMiss) {
+        Random random = new Random(seed);
+        int metricCount = hitMiss ? 1 : 3;
+        double[][] estimates = new double[metricCount][iterations];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            long firstOnlySum = 0;
+            long secondOnlySum = 0;
+            long bothSum = 0;
+            for (int i = 0; i < size; i++) {
+                int document = random.nextInt(size);
+                firstOnlySum += firstOnly[document];
+                secondOnlySum += secondOnly[document];
+                bothSum += both[document];
+            }
+
+            if (hitMiss) {
+                estimates[0][iteration] = bothSum / (double) (firstOnlySum + bothSum);
+            } else {
+                estimates[0][iteration] = bothSum / (double) (bothSum + firstOnlySum);
+                estimates[1][iteration] = bothSum / (double) (bothSum + secondOnlySum);
+                estimates[2][iteration] = 2.0 * bothSum / (2.0 * bothSum + firstOnlySum + secondOnlySum);
+            }
+        }
+
+        String[] metrics = hitMiss ? new String[]{"accuracy"} : new String[]{"precision", "recall", "fMeasure"};
+        double[] lower = new double[metricCount];
+        double[] upper = new double[metricCount];
+        for (int metric = 0; metric < metricCount; metric++) {
+            double[] values = Arrays.stream(estimates[metric]).filter(value -> !Double.isNaN(value)).sorted().toArray();
+            if (values.length == 0) {
+                lower[metric] = Double.NaN;
+                upper[metric] = Double.NaN;
+            } else {
+                lower[metric] = values[(int) Math.floor(0.025 * (values.length - 1))];
+                upper[metric] = values[(int) Math.ceil(0.975 * (values.length - 1))];
+            }
+        }
+        return new Intervals(metrics, lower, upper, size, upperPriority);
+    }
+
+    /**
+     * Bootstrap confidence intervals of the metrics of an analysis.
+     */
+    static class Intervals {
+        private final String[] metrics;
+
+        private final double[] lower;
+
+        private final double[] upper;
+
+        private final int sampledDocuments;
+
+        private final double samplingRate;
+
+        Intervals(String[] metrics, double[] lower, double[] upper, int sampledDocuments, double samplingRate) {
+            this.metrics = metrics;
+            this.lower = lower;
+            this.upper = upper;
+            this.sampledDocuments = sampledDocuments;
+            this.samplingRate = samplingRate;
+        }
+
+        double maxWidth() {
+            double maxWidth = 0;
+            for (int i = 0; i < metrics.length; i++) {
+                double width = upper[i] - lower[i];
+                if (Double.isNaN(width)) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                maxWidth = Math.max(maxWidth, width);
+            }
+            return maxWidth;
+        }
+
+        void appendTo(XContentBuilder xContentBuilder) throws IOException {
+            xContentBuilder.field("samplingRate", samplingRate)
+                    .field("sampledDocuments", sampledDocuments);
+            xContentBuilder.startObject("confidenceIntervals");
+            for (int i = 0; i < metrics.length; i++) {
+                xContentBuilder.startObject(metrics[i])
+                        .field("lower", lower[i])
+                        .field("upper", upper[i])
+                        .endObject();
+            }
+            xContentBuilder.endObject();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.*;
+
+/**
+ * Looks up the views of documents in the two systems of an analysis, which are the ids of their
+ * {@code DocumentInSystem} documents. Indexing a document into a system again adds a view with a new id, so partial
+ * counts stored with the views of a document are only reused while neither system has indexed the document again,
+ * and documents appended to a system leave the views of the other documents unchanged.
+ *
+ * @since 1.2.0
+ */
+class DocumentViews {
+    /**
+     * The number of views requested per document, the rest are requested in a second search.
+     */
+    private static final int VIEWS_PER_DOCUMENT = 4;
+
+    private final Client client;
+
+    private final String searchIndex;
+
+    private final String hypothesisSystem;
+
+    private final String referenceSystem;
+
+    DocumentViews(Client client, AnalysisConfig analysisConfig) {
+        this.client = client;
+        this.searchIndex = analysisConfig.getInstanceIndexes().searchIndex();
+        this.hypothesisSystem = analysisConfig.getHypothesis().getSystemIndex();
+        this.referenceSystem = analysisConfig.getReference().getSystemIndex();
+    }
+
+    /**
+     * Starts looking up the views of documents.
+     *
+     * @param documentIdentifiers the documents
+     * @return the pending lookup, to pass to {@link #get(ListenableActionFuture, Collection)}
+     */
+    ListenableActionFuture<SearchResponse> request(Collection<String> documentIdentifiers) {
+        return search(documentIdentifiers, documentIdentifiers.size() * VIEWS_PER_DOCUMENT).execute();
+    }
+
+    /**
+     * Waits for a lookup of the views of documents.
+     *
+     * @param lookup              the pending lookup
+     * @param documentIdentifiers the documents which were looked up
+     * @return map from document identifier to the sorted views of the document in both systems, joined into a string
+     */
+    Map<String, String> get(ListenableActionFuture<SearchResponse> lookup, Collection<String> documentIdentifiers) {
+        SearchResponse response = lookup.actionGet();
+        long totalHits = response.getHits().getTotalHits();
+        if (totalHits > response.getHits().getHits().length) {
+            response = search(documentIdentifiers, (int) totalHits).get();
+        }
+
+        Map<String, SortedSet<String>> views = new HashMap<>();
+        for (SearchHit hit : response.getHits().getHits()) {
+            Map<String, Object> source = hit.getSource();
+            views.computeIfAbsent((String) source.get("documentIdentifier"), documentIdentifier -> new TreeSet<>())
+                    .add(source.get("systemIndex") + "/" + hit.getId());
+        }
+
+        Map<String, String> joined = new HashMap<>();
+        for (Map.Entry<String, SortedSet<String>> entry : views.entrySet()) {
+            joined.put(entry.getKey(), String.join(",", entry.getValue()));
+        }
+        return joined;
+    }
+
+    private SearchRequestBuilder search(Collection<String> documentIdentifiers, int size) {
+        return client.prepareSearch(searchIndex)
+                .setTypes("DocumentInSystem")
+                .setRouting(documentIdentifiers.toArray(new String[documentIdentifiers.size()]))
+                .setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termsQuery("systemIndex", hypothesisSystem, referenceSystem))
+                        .filter(QueryBuilders.termsQuery("documentIdentifier", documentIdentifiers))))
+                .setFetchSource(new String[]{"documentIdentifier", "systemIndex"}, null)
+                .setSize(size);
+    }
+}
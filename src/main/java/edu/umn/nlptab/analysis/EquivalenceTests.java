@@ -21,7 +21,9 @@ import com.google.common.collect.ImmutableMap;
 
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 
 import static edu.umn.nlptab.analysis.EquivalenceTest.*;
 
@@ -74,4 +76,19 @@ final class EquivalenceTests {
     public static EquivalenceTest getConverse(EquivalenceTest equivalenceTest) {
         return CONVERSES.get(equivalenceTest);
     }
+
+    private static final Set<EquivalenceTest> EXACT_CONVERSES = Collections.unmodifiableSet(EnumSet.of(EQUALS,
+            DOES_NOT_EQUAL, ANY_ARE_EQUAL_TO, IS_IN, NONE_ARE_EQUAL_TO, IS_NOT_IN));
+
+    /**
+     * Returns whether the converse of the equivalence test always gives the same result with the values swapped, for
+     * collection and scalar values alike. The collection membership tests only agree with their converses when both
+     * values are collections, and so are not exact.
+     *
+     * @param equivalenceTest the equivalence test
+     * @return true if the converse of the test is exact
+     */
+    public static boolean hasExactConverse(EquivalenceTest equivalenceTest) {
+        return EXACT_CONVERSES.contains(equivalenceTest);
+    }
 }
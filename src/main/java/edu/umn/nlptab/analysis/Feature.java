@@ -16,6 +16,7 @@
 
 package edu.umn.nlptab.analysis;
 
+import edu.umn.nlptab.systemindex.MaterializedPaths;
 import edu.umn.nlptab.uimatyping.ValueType;
 import edu.umn.nlptab.uimatyping.ValueTypes;
 import org.elasticsearch.common.inject.Inject;
@@ -24,6 +25,7 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -55,6 +57,9 @@ class Feature {
     @Nullable
     private ValueType valueType;
 
+    @Nullable
+    private String materializedKey;
+
     @Inject
     Feature(Provider<NestedPathSearch> nestedPathSearchProvider) {
         this.nestedPathSearchProvider = nestedPathSearchProvider;
@@ -76,8 +81,13 @@ class Feature {
             @SuppressWarnings("unchecked")
             List<String> nestedStructure = (List<String>) map.get("nestedStructure");
             this.nestedStructure = nestedStructure;
+            materializedKey = nestedStructure.stream()
+                    .map(referenceFeature -> referenceFeature.replace('.', '_').replace(':', ';'))
+                    .collect(Collectors.joining(MaterializedPaths.KEY_SEPARATOR, "", MaterializedPaths.KEY_SEPARATOR))
+                    + luceneFeatureName;
         } else {
             this.nestedStructure = Collections.emptyList();
+            materializedKey = null;
         }
     }
 
@@ -97,15 +107,26 @@ class Feature {
         }
     }
 
-    Object getValueFromFeatureStructure(Map<String, Object> featureStructure) {
+    Object getValueFromFeatureStructure(Map<String, Object> featureStructure, FsCache fsCache) {
         if (systemIndex == null) {
             throw new IllegalStateException("systemIndex not initialized");
         }
 
         if (nestedStructure != null && nestedStructure.size() > 0) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> materialized = (Map<String, Object>) featureStructure.get(MaterializedPaths.FIELD);
+            if (materialized != null && materialized.containsKey(materializedKey)) {
+                Object materializedValue = materialized.get(materializedKey);
+                if (materializedValue instanceof List && ((List) materializedValue).size() == 1) {
+                    return ((List) materializedValue).get(0);
+                }
+                return materializedValue;
+            }
+
             List collection = nestedPathSearchProvider.get()
                     .withSystem(systemIndex)
                     .withPath(nestedStructure)
+                    .withFsCache(fsCache)
                     .sources(featureStructure)
                     .map(this::value)
                     .flatMap(value -> value instanceof Collection ? ((Collection<?>)value).stream() : Stream.of(value))
@@ -120,6 +141,21 @@ class Feature {
         }
     }
 
+    /**
+     * The source fields needed to read the value of this feature from a feature structure. Values of nested features
+     * are read from the materialized values if present and otherwise by following the references.
+     *
+     * @return source field paths
+     */
+    Collection<String> getSourceFields() {
+        if (nestedStructure != null && nestedStructure.size() > 0) {
+            return Arrays.asList(MaterializedPaths.FIELD + "." + materializedKey, "references", "arrayItems",
+                    "listItems");
+        } else {
+            return Collections.singletonList(fullLucenePath());
+        }
+    }
+
     void addToXContent(XContentBuilder xContentBuilder) throws IOException {
         xContentBuilder.field("featureName", featureName);
         if (nestedStructure != null) {
@@ -23,6 +23,7 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -39,6 +40,10 @@ class FeatureValueMapping {
 
     @Nullable private EquivalenceTest equivalenceTest;
 
+    @Nullable private Function<Object, ValueMatcher> valueMatcherFactory;
+
+    @Nullable private Function<Object, ValueMatcher> converseValueMatcherFactory;
+
     @Nullable private Map<Object, Set<Object>> valueMappings;
 
     @Nullable private Map<Object, Set<Object>> converseValueMappings;
@@ -67,6 +72,8 @@ class FeatureValueMapping {
             throw new AnalysisConfigurationException("equivalence was null");
         }
         equivalenceTest = EquivalenceTests.getEquivalenceTest(equivalence);
+        valueMatcherFactory = ValueMatchers.getFactory(equivalenceTest);
+        converseValueMatcherFactory = ValueMatchers.getFactory(EquivalenceTests.getConverse(equivalenceTest));
 
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> valueMappingsJson = (List<Map<String, Object>>) jsonMap.get("valueMappings");
@@ -110,27 +117,61 @@ class FeatureValueMapping {
         return this;
     }
 
-    FeatureValueTester createTester(Map<String, Object> hypothesisFeatureStructure) {
-        Object value = hypothesisFeature.getValueFromFeatureStructure(hypothesisFeatureStructure);
+    /**
+     * Returns whether the converse tester matches exactly when the normal tester matches with the feature structures
+     * swapped, which requires an exact converse equivalence test and no value mappings, since a value mapping and its
+     * inverse do not necessarily agree.
+     *
+     * @return true if the converse tester agrees with the normal tester
+     */
+    boolean isConverseExact() {
+        if (equivalenceTest == null || valueMappings == null) {
+            throw new IllegalStateException("mapping not initialized");
+        }
+        return valueMappings.isEmpty() && EquivalenceTests.hasExactConverse(equivalenceTest);
+    }
+
+    Collection<String> getHypothesisSourceFields() {
+        if (hypothesisFeature == null) {
+            throw new IllegalStateException("hypothesisFeature not initialized");
+        }
+        return hypothesisFeature.getSourceFields();
+    }
+
+    Collection<String> getReferenceSourceFields() {
+        if (referenceFeature == null) {
+            throw new IllegalStateException("referenceFeature not initialized");
+        }
+        return referenceFeature.getSourceFields();
+    }
+
+    FeatureValueTester createTester(Map<String, Object> hypothesisFeatureStructure, FsCache fsCache) {
+        Object value = hypothesisFeature.getValueFromFeatureStructure(hypothesisFeatureStructure, fsCache);
         Set<Object> mappedValue = valueMappings.containsKey(value) ? valueMappings.get(value) : Collections.singleton(value);
         return featureValueTesterProvider.get()
-                .withEquivalenceTest(equivalenceTest)
-                .withHypothesisValues(mappedValue)
-                .withReferenceFeature(referenceFeature);
+                .withHypothesisValues(mappedValue, valueMatcherFactory)
+                .withReferenceFeature(referenceFeature)
+                .withFsCache(fsCache);
     }
 
-    FeatureValueTester createConverseTester(Map<String, Object> referenceFeatureStructure) {
-        Object value = referenceFeature.getValueFromFeatureStructure(referenceFeatureStructure);
+    FeatureValueTester createConverseTester(Map<String, Object> referenceFeatureStructure, FsCache fsCache) {
+        Object value = referenceFeature.getValueFromFeatureStructure(referenceFeatureStructure, fsCache);
         Set<Object> mappedValue = converseValueMappings.containsKey(value) ? converseValueMappings.get(value) : Collections.singleton(value);
         return featureValueTesterProvider.get()
-                .withEquivalenceTest(EquivalenceTests.getConverse(equivalenceTest))
-                .withHypothesisValues(mappedValue)
-                .withReferenceFeature(hypothesisFeature);
+                .withHypothesisValues(mappedValue, converseValueMatcherFactory)
+                .withReferenceFeature(hypothesisFeature)
+                .withFsCache(fsCache);
     }
 
     public void addToXContent(XContentBuilder xContentBuilder) throws IOException {
         xContentBuilder.startObject();
 
+        addFeaturesToXContent(xContentBuilder);
+
+        xContentBuilder.endObject();
+    }
+
+    private void addFeaturesToXContent(XContentBuilder xContentBuilder) throws IOException {
         xContentBuilder.startObject("hypothesisFeature");
 
         hypothesisFeature.addToXContent(xContentBuilder);
@@ -142,6 +183,38 @@ class FeatureValueMapping {
         referenceFeature.addToXContent(xContentBuilder);
 
         xContentBuilder.endObject();
+    }
+
+    /**
+     * Adds everything which determines the results of the mapping, including the equivalence test and the value
+     * mappings in a canonical order.
+     *
+     * @param xContentBuilder the builder to add to
+     * @throws IOException if there is a failure writing to the builder
+     */
+    void addFingerprintToXContent(XContentBuilder xContentBuilder) throws IOException {
+        if (equivalenceTest == null || valueMappings == null) {
+            throw new IllegalStateException("mapping not initialized");
+        }
+
+        xContentBuilder.startObject();
+
+        addFeaturesToXContent(xContentBuilder);
+
+        xContentBuilder.field("equivalence", equivalenceTest.name());
+
+        xContentBuilder.startArray("valueMappings");
+        List<String> sortedValueMappings = valueMappings.entrySet()
+                .stream()
+                .flatMap(entry -> entry.getValue()
+                        .stream()
+                        .map(to -> String.valueOf(entry.getKey()) + "\u0000" + String.valueOf(to)))
+                .sorted()
+                .collect(Collectors.toList());
+        for (String valueMapping : sortedValueMappings) {
+            xContentBuilder.value(valueMapping);
+        }
+        xContentBuilder.endArray();
 
         xContentBuilder.endObject();
     }
@@ -18,6 +18,7 @@ package edu.umn.nlptab.analysis;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  *
@@ -25,32 +26,45 @@ import java.util.Set;
 class FeatureValueTester {
     private Set<Object> mappedValues;
 
-    private EquivalenceTest equivalenceTest;
+    private ValueMatcher[] valueMatchers;
 
     private Feature referenceFeature;
 
-    FeatureValueTester withHypothesisValues(Set<Object> hypothesisValues) {
+    private FsCache fsCache;
+
+    FeatureValueTester withHypothesisValues(Set<Object> hypothesisValues,
+                                            Function<Object, ValueMatcher> valueMatcherFactory) {
         this.mappedValues = hypothesisValues;
+        valueMatchers = new ValueMatcher[hypothesisValues.size()];
+        int i = 0;
+        for (Object hypothesisValue : hypothesisValues) {
+            valueMatchers[i++] = valueMatcherFactory.apply(hypothesisValue);
+        }
         return this;
     }
 
-    FeatureValueTester withEquivalenceTest(EquivalenceTest equivalenceTest) {
-        this.equivalenceTest = equivalenceTest;
+    FeatureValueTester withReferenceFeature(Feature referenceFeature) {
+        this.referenceFeature = referenceFeature;
         return this;
     }
 
-    FeatureValueTester withReferenceFeature(Feature referenceFeature) {
-        this.referenceFeature = referenceFeature;
+    FeatureValueTester withFsCache(FsCache fsCache) {
+        this.fsCache = fsCache;
         return this;
     }
 
     public boolean test(Map<String, Object> featureStructure) {
         Object value = getReferenceValue(featureStructure);
-        return mappedValues.stream().anyMatch(mappedValue -> equivalenceTest.test(mappedValue, value));
+        for (ValueMatcher valueMatcher : valueMatchers) {
+            if (valueMatcher.matches(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public Object getReferenceValue(Map<String, Object> featureStructure) {
-        return referenceFeature.getValueFromFeatureStructure(featureStructure);
+        return referenceFeature.getValueFromFeatureStructure(featureStructure, fsCache);
     }
 
     public Set<Object> getMappedValues() {
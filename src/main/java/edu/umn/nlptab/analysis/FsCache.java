@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.systemindex.FeatureStructureRouting;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Cache of feature structure sources fetched while evaluating a single document in an analysis. Shared by all of the
+ * feature value testers for the document so that each referenced feature structure is fetched at most once.
+ *
+ * @since 1.2.0
+ */
+class FsCache {
+    private final Client client;
+
+    private final FeatureStructureRouting featureStructureRouting;
+
+    private final Map<String, Map<String, Map<String, Object>>> sourcesForSystem = new HashMap<>();
+
+    private final Map<String, Set<String>> missingForSystem = new HashMap<>();
+
+    @Inject
+    FsCache(Client client, FeatureStructureRouting featureStructureRouting) {
+        this.client = client;
+        this.featureStructureRouting = featureStructureRouting;
+    }
+
+    /**
+     * Fetches the sources of feature structures, issuing a single multi-get for any that have not already been
+     * fetched.
+     *
+     * @param system             the system index containing the feature structures
+     * @param documentIdentifier the document containing the feature structures, used to route the gets
+     * @param ids                the identifiers of the feature structures
+     * @return map from identifier to source, not containing any feature structures which do not exist
+     */
+    Map<String, Map<String, Object>> getSources(String system,
+                                                @Nullable String documentIdentifier,
+                                                Collection<String> ids) {
+        Map<String, Map<String, Object>> sources = sourcesForSystem.computeIfAbsent(system, key -> new HashMap<>());
+        Set<String> missing = missingForSystem.computeIfAbsent(system, key -> new HashSet<>());
+
+        Set<String> toFetch = new LinkedHashSet<>();
+        for (String id : ids) {
+            if (!sources.containsKey(id) && !missing.contains(id)) {
+                toFetch.add(id);
+            }
+        }
+
+        if (!toFetch.isEmpty()) {
+            String routing = documentIdentifier == null ? null
+                    : featureStructureRouting.routing(system, documentIdentifier);
+            MultiGetRequestBuilder multiGetRequestBuilder = client.prepareMultiGet();
+            for (String id : toFetch) {
+                multiGetRequestBuilder.add(new MultiGetRequest.Item(system, "FeatureStructure", id).routing(routing));
+            }
+            MultiGetResponse multiGetResponse = multiGetRequestBuilder.execute().actionGet();
+
+            for (MultiGetItemResponse itemResponse : multiGetResponse) {
+                GetResponse getResponse = itemResponse.getResponse();
+                if (itemResponse.isFailed() || getResponse == null || !getResponse.isExists()) {
+                    missing.add(itemResponse.getId());
+                } else {
+                    sources.put(itemResponse.getId(), getResponse.getSource());
+                }
+            }
+        }
+
+        return sources;
+    }
+}
@@ -23,13 +23,15 @@ import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 
 /**
- *
+ * Scrolls the feature structures of a unit of analysis in a document. Only the source fields read by the analysis are
+ * fetched, and the scroll is sorted by {@code _doc}, which is the cheapest order to scroll in.
  */
 class FsDataSource implements Closeable {
 
@@ -41,29 +43,38 @@ class FsDataSource implements Closeable {
 
     private final UnitOfAnalysis unitOfAnalysis;
 
+    private final int pageSize;
+
     @Nullable
     private SearchResponse response;
 
     @Nullable
     private SearchHit[] hits;
 
-    FsDataSource(Client client, String documentIdentifier, UnitOfAnalysis unitOfAnalysis) {
+    FsDataSource(Client client, String documentIdentifier, UnitOfAnalysis unitOfAnalysis, int pageSize) {
         this.client = client;
         this.documentIdentifier = documentIdentifier;
         this.unitOfAnalysis = unitOfAnalysis;
+        this.pageSize = pageSize;
     }
 
     int advance() {
         if (response == null) {
+            // the initial search returns the first page
             response = client.prepareSearch(unitOfAnalysis.getSystemIndex())
+                    .setTypes("FeatureStructure")
+                    .setRouting(unitOfAnalysis.routing(documentIdentifier))
                     .setQuery(unitOfAnalysis.queryInDocument(documentIdentifier))
+                    .setFetchSource(unitOfAnalysis.getSourceFields(), null)
+                    .addSort("_doc", SortOrder.ASC)
+                    .setSize(pageSize)
+                    .setScroll(TimeValue.timeValueMinutes(2))
+                    .execute().actionGet();
+        } else {
+            response = client.prepareSearchScroll(response.getScrollId())
                     .setScroll(TimeValue.timeValueMinutes(2))
                     .execute().actionGet();
         }
-
-        response = client.prepareSearchScroll(response.getScrollId())
-                .setScroll(TimeValue.timeValueMinutes(2))
-                .execute().actionGet();
         hits = response.getHits().hits();
         return hits.length;
     }
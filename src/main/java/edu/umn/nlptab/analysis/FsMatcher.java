@@ -43,9 +43,11 @@ class FsMatcher {
     private final Client client;
     @Nullable private Map<String, Object> featureStructure;
     @Nullable private AnalysisConfig analysisConfig;
+    @Nullable private FsCache fsCache;
     @Nullable private UnitOfAnalysis target;
     @Nullable private Collection<FeatureValueTester> featureStructureTesters;
     @Nullable private BoolQueryBuilder boolQueryBuilder;
+    @Nullable private String routing;
     private long totalHits;
     @Nullable private SearchHit[] hits;
     private int from;
@@ -68,6 +70,11 @@ class FsMatcher {
         return this;
     }
 
+    FsMatcher withFsCache(FsCache fsCache) {
+        this.fsCache = fsCache;
+        return this;
+    }
+
     private void prepare(UnitOfAnalysis target) throws NlpTabException {
         Preconditions.checkNotNull(featureStructure, "featureStructure should be set before calling normal or converse");
 
@@ -86,20 +93,22 @@ class FsMatcher {
             throw new NlpTabException("feature structure did not have document identifier");
         }
 
+        routing = target.routing(documentId);
+
         int begin = (Integer) primaryLocation.get("begin");
         int end = (Integer) primaryLocation.get("end");
         int fuzzDistance = analysisConfig.getFuzzDistance();
 
         if (fuzzDistance == 0) {
             boolQueryBuilder = target.queryInDocument(documentId)
-                    .must(QueryBuilders.termQuery("primaryLocation.begin", begin))
-                    .must(QueryBuilders.termQuery("primaryLocation.end", end));
+                    .filter(QueryBuilders.termQuery("primaryLocation.begin", begin))
+                    .filter(QueryBuilders.termQuery("primaryLocation.end", end));
         } else {
             boolQueryBuilder = target.queryInDocument(documentId)
-                    .must(QueryBuilders.rangeQuery("primaryLocation.begin")
+                    .filter(QueryBuilders.rangeQuery("primaryLocation.begin")
                             .gte(begin - fuzzDistance)
                             .lte(begin + fuzzDistance))
-                    .must(QueryBuilders.rangeQuery("primaryLocation.end")
+                    .filter(QueryBuilders.rangeQuery("primaryLocation.end")
                             .gte(end - fuzzDistance)
                             .lte(end + fuzzDistance));
         }
@@ -109,10 +118,11 @@ class FsMatcher {
     FsMatcher normal() throws NlpTabException {
         Preconditions.checkState(featureStructureTesters == null, "Normal or converse should only be called once");
         Preconditions.checkNotNull(analysisConfig, "analysisConfig should be set before calling normal");
+        Preconditions.checkNotNull(fsCache, "fsCache should be set before calling normal");
 
         prepare(analysisConfig.getReference());
 
-        featureStructureTesters = analysisConfig.createFeatureStructureTesters(featureStructure);
+        featureStructureTesters = analysisConfig.createFeatureStructureTesters(featureStructure, fsCache);
 
         hypothesisValues = featureStructureTesters.stream()
                 .map(FeatureValueTester::getMappedValues)
@@ -127,10 +137,11 @@ class FsMatcher {
     FsMatcher converse() throws NlpTabException {
         Preconditions.checkState(featureStructureTesters == null, "Normal or converse should only be called once");
         Preconditions.checkNotNull(analysisConfig, "analysisConfig should be set before calling converse");
+        Preconditions.checkNotNull(fsCache, "fsCache should be set before calling converse");
 
         prepare(analysisConfig.getHypothesis());
 
-        featureStructureTesters = analysisConfig.createConverseFeatureStructureTesters(featureStructure);
+        featureStructureTesters = analysisConfig.createConverseFeatureStructureTesters(featureStructure, fsCache);
 
         hypothesisValues = featureStructureTesters.stream()
                 .map(FeatureValueTester::getMappedValues)
@@ -145,7 +156,9 @@ class FsMatcher {
     private void getResults() {
         SearchResponse searchResponse = client.prepareSearch(target.getSystemIndex())
                 .setTypes("FeatureStructure")
+                .setRouting(routing)
                 .setQuery(boolQueryBuilder)
+                .setFetchSource(target.getSourceFields(), null)
                 .setFrom(from)
                 .setSize(SIZE)
                 .execute().actionGet();
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.AggregationStreams;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.metrics.InternalMetricsAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of the span co-occurrence aggregation, which counts the co-occurrences of the primary types of two systems
+ * from the {@link PackedAnnotations} of their {@code DocumentInSystem} documents in the search index.
+ * <p>Every document in a system is on the shard its document identifier is routed to, so each shard sweeps the
+ * documents it holds in both systems and returns only a {@link TypeCoOccurrenceMatrix} of their counts, and the reduce
+ * adds the matrices of the shards. Documents in either system without packed annotations are not counted, and their
+ * number is reported so that the analysis can fail instead of returning partial counts.</p>
+ *
+ * @since 1.2.0
+ */
+public class InternalSpanCoOccurrence extends InternalMetricsAggregation {
+    public static final Type TYPE = new Type("nlptab_span_cooccurrence");
+
+    private static final AggregationStreams.Stream STREAM = in -> {
+        InternalSpanCoOccurrence result = new InternalSpanCoOccurrence();
+        result.readFrom(in);
+        return result;
+    };
+
+    public static void registerStreams() {
+        AggregationStreams.registerStream(STREAM, TYPE.stream());
+    }
+
+    private int fuzzDistance;
+
+    private boolean reduced;
+
+    private TypeCoOccurrenceMatrix matrix;
+
+    private long sharedDocuments;
+
+    private long unpackedDocuments;
+
+    private List<TypeCoOccurrenceMatrix.TypePairCounts> pairCounts;
+
+    InternalSpanCoOccurrence() {
+    }
+
+    InternalSpanCoOccurrence(String name,
+                             List<PipelineAggregator> pipelineAggregators,
+                             Map<String, Object> metaData,
+                             int fuzzDistance,
+                             TypeCoOccurrenceMatrix matrix,
+                             long sharedDocuments,
+                             long unpackedDocuments) {
+        super(name, pipelineAggregators, metaData);
+        this.fuzzDistance = fuzzDistance;
+        reduced = false;
+        this.matrix = matrix;
+        this.sharedDocuments = sharedDocuments;
+        this.unpackedDocuments = unpackedDocuments;
+    }
+
+    private InternalSpanCoOccurrence(String name,
+                                     List<PipelineAggregator> pipelineAggregators,
+                                     Map<String, Object> metaData,
+                                     int fuzzDistance,
+                                     long sharedDocuments,
+                                     long unpackedDocuments,
+                                     List<TypeCoOccurrenceMatrix.TypePairCounts> pairCounts) {
+        super(name, pipelineAggregators, metaData);
+        this.fuzzDistance = fuzzDistance;
+        reduced = true;
+        this.sharedDocuments = sharedDocuments;
+        this.unpackedDocuments = unpackedDocuments;
+        this.pairCounts = pairCounts;
+    }
+
+    @Override
+    public Type type() {
+        return TYPE;
+    }
+
+    public long getSharedDocuments() {
+        if (!reduced) {
+            throw new IllegalStateException("Shard result not reduced");
+        }
+        return sharedDocuments;
+    }
+
+    /**
+     * The number of documents in both systems which were not counted because a view of the document in either system
+     * has no packed annotations.
+     *
+     * @return number of documents without packed annotations
+     */
+    public long getUnpackedDocuments() {
+        if (!reduced) {
+            throw new IllegalStateException("Shard result not reduced");
+        }
+        return unpackedDocuments;
+    }
+
+    List<TypeCoOccurrenceMatrix.TypePairCounts> getPairCounts() {
+        if (!reduced) {
+            throw new IllegalStateException("Shard result not reduced");
+        }
+        return pairCounts;
+    }
+
+    @Override
+    public InternalAggregation doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        TypeCoOccurrenceMatrix matrix = new TypeCoOccurrenceMatrix(fuzzDistance);
+        long sharedDocuments = 0;
+        long unpackedDocuments = 0;
+        for (InternalAggregation aggregation : aggregations) {
+            InternalSpanCoOccurrence shardResult = (InternalSpanCoOccurrence) aggregation;
+            if (shardResult.reduced) {
+                throw new IllegalStateException("Span co-occurrence can only reduce shard results");
+            }
+
+            matrix.add(shardResult.matrix);
+            sharedDocuments += shardResult.sharedDocuments;
+            unpackedDocuments += shardResult.unpackedDocuments;
+        }
+
+        return new InternalSpanCoOccurrence(name, pipelineAggregators(), getMetaData(), fuzzDistance, sharedDocuments,
+                unpackedDocuments, matrix.getPairCounts());
+    }
+
+    @Override
+    public Object getProperty(List<String> path) {
+        if (path.isEmpty()) {
+            return this;
+        }
+        throw new IllegalArgumentException("path not supported for [" + getName() + "]: " + path);
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        if (!reduced) {
+            return builder;
+        }
+        builder.field("sharedDocuments", sharedDocuments);
+        builder.field("unpackedDocuments", unpackedDocuments);
+        builder.startArray("typePairs");
+        for (TypeCoOccurrenceMatrix.TypePairCounts typePairCounts : pairCounts) {
+            builder.startObject()
+                    .field("hypothesisType", typePairCounts.getHypothesisType())
+                    .field("referenceType", typePairCounts.getReferenceType())
+                    .field("both", typePairCounts.getBoth())
+                    .field("firstOnly", typePairCounts.getFirstOnly())
+                    .field("secondOnly", typePairCounts.getSecondOnly())
+                    .field("neither", typePairCounts.getNeither())
+                    .field("fMeasure", typePairCounts.getFMeasure())
+                    .field("jaccard", typePairCounts.getJaccard())
+                    .field("matthews", typePairCounts.getMatthews())
+                    .endObject();
+        }
+        builder.endArray();
+        return builder;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeVInt(fuzzDistance);
+        out.writeBoolean(reduced);
+        out.writeVLong(sharedDocuments);
+        out.writeVLong(unpackedDocuments);
+        if (reduced) {
+            out.writeVInt(pairCounts.size());
+            for (TypeCoOccurrenceMatrix.TypePairCounts typePairCounts : pairCounts) {
+                out.writeString(typePairCounts.getHypothesisType());
+                out.writeString(typePairCounts.getReferenceType());
+                out.writeVLong(typePairCounts.getBoth());
+                out.writeVLong(typePairCounts.getFirstOnly());
+                out.writeVLong(typePairCounts.getSecondOnly());
+                out.writeVLong(typePairCounts.getNeither());
+            }
+        } else {
+            matrix.writeTo(out);
+        }
+    }
+
+    @Override
+    protected void doReadFrom(StreamInput in) throws IOException {
+        fuzzDistance = in.readVInt();
+        reduced = in.readBoolean();
+        sharedDocuments = in.readVLong();
+        unpackedDocuments = in.readVLong();
+        if (reduced) {
+            int size = in.readVInt();
+            pairCounts = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String hypothesisType = in.readString();
+                String referenceType = in.readString();
+                long both = in.readVLong();
+                long firstOnly = in.readVLong();
+                long secondOnly = in.readVLong();
+                long neither = in.readVLong();
+                pairCounts.add(new TypeCoOccurrenceMatrix.TypePairCounts(hypothesisType, referenceType, both,
+                        firstOnly, secondOnly, neither + both + firstOnly + secondOnly));
+            }
+        } else {
+            matrix = TypeCoOccurrenceMatrix.readFrom(in, fuzzDistance);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.systemindex.PackedLocations;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Matches the feature structures which have a location, either their own or that of an ancestor at most a distance
+ * away, covering a span. Each match has a constant score.
+ * <p>The approximation query should already require some begin, end and distance in the parallel
+ * {@code ancestorLocations} arrays to be in range, which they may be for different locations. The pairing of the
+ * begin, end and distance of each location is checked in the second phase of a {@link TwoPhaseIterator} from the
+ * {@link PackedLocations} doc values.</p>
+ *
+ * @since 1.2.0
+ */
+class LocationCoveringQuery extends Query {
+    private final Query approximation;
+
+    private final String packedLocationsField;
+
+    private final int begin;
+
+    private final int end;
+
+    private final int maxDistance;
+
+    LocationCoveringQuery(Query approximation, String packedLocationsField, int begin, int end, int maxDistance) {
+        this.approximation = approximation;
+        this.packedLocationsField = packedLocationsField;
+        this.begin = begin;
+        this.end = end;
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = approximation.rewrite(reader);
+        if (rewritten != approximation) {
+            LocationCoveringQuery query = new LocationCoveringQuery(rewritten, packedLocationsField, begin, end,
+                    maxDistance);
+            query.setBoost(getBoost());
+            return query;
+        }
+        return super.rewrite(reader);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        Weight approximationWeight = searcher.createWeight(approximation, false);
+        return new Weight(this) {
+            private float boost = 1.0f;
+
+            @Override
+            public void extractTerms(Set<Term> terms) {
+                approximationWeight.extractTerms(terms);
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+                Scorer scorer = scorer(context);
+                if (scorer != null && scorer.advance(doc) == doc) {
+                    return Explanation.match(scorer.score(), "location covering [" + begin + ", " + end + "]");
+                }
+                return Explanation.noMatch("no location within " + maxDistance + " covering [" + begin + ", " + end
+                        + "]");
+            }
+
+            @Override
+            public float getValueForNormalization() throws IOException {
+                return 0;
+            }
+
+            @Override
+            public void normalize(float norm, float topLevelBoost) {
+                boost = getBoost() * topLevelBoost;
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                Scorer approximationScorer = approximationWeight.scorer(context);
+                if (approximationScorer == null) {
+                    return null;
+                }
+                BinaryDocValues packedLocations = DocValues.getBinary(context.reader(), packedLocationsField);
+                return new LocationCoveringScorer(this, approximationScorer, packedLocations, boost);
+            }
+        };
+    }
+
+    private class LocationCoveringScorer extends Scorer {
+        private final TwoPhaseIterator twoPhaseIterator;
+
+        private final DocIdSetIterator iterator;
+
+        private final float boost;
+
+        LocationCoveringScorer(Weight weight,
+                               Scorer approximationScorer,
+                               BinaryDocValues packedLocations,
+                               float boost) {
+            super(weight);
+            this.boost = boost;
+            TwoPhaseIterator approximationTwoPhase = approximationScorer.asTwoPhaseIterator();
+            DocIdSetIterator candidates = approximationTwoPhase == null ? approximationScorer
+                    : approximationTwoPhase.approximation();
+            PackedLocations.Reader reader = new PackedLocations.Reader();
+            twoPhaseIterator = new TwoPhaseIterator(candidates) {
+                @Override
+                public boolean matches() throws IOException {
+                    if (approximationTwoPhase != null && !approximationTwoPhase.matches()) {
+                        return false;
+                    }
+                    reader.reset(packedLocations.get(approximation.docID()));
+                    // the locations are in order of distance
+                    while (reader.next() && reader.getDistance() <= maxDistance) {
+                        if (reader.getBegin() <= begin && reader.getEnd() >= end) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            };
+            iterator = TwoPhaseIterator.asDocIdSetIterator(twoPhaseIterator);
+        }
+
+        @Override
+        public float score() throws IOException {
+            return boost;
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return 1;
+        }
+
+        @Override
+        public TwoPhaseIterator asTwoPhaseIterator() {
+            return twoPhaseIterator;
+        }
+
+        @Override
+        public int docID() {
+            return iterator.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return iterator.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return iterator.advance(target);
+        }
+
+        @Override
+        public long cost() {
+            return iterator.cost();
+        }
+    }
+
+    @Override
+    public String toString(String field) {
+        return "location_covering(" + approximation.toString(field) + ", " + packedLocationsField + ":[" + begin
+                + ", " + end + "], max_distance:" + maxDistance + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        LocationCoveringQuery that = (LocationCoveringQuery) o;
+        return begin == that.begin && end == that.end && maxDistance == that.maxDistance
+                && approximation.equals(that.approximation) && packedLocationsField.equals(that.packedLocationsField);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), approximation, packedLocationsField, begin, end, maxDistance);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Builder for the {@code nlptab_location_covering} query.
+ *
+ * @see LocationCoveringQueryParser
+ * @since 1.2.0
+ */
+public class LocationCoveringQueryBuilder extends QueryBuilder {
+    @Nullable private final QueryBuilder queryBuilder;
+
+    private final int begin;
+
+    private final int end;
+
+    @Nullable private Integer maxDistance;
+
+    public LocationCoveringQueryBuilder(@Nullable QueryBuilder queryBuilder, int begin, int end) {
+        this.queryBuilder = queryBuilder;
+        this.begin = begin;
+        this.end = end;
+    }
+
+    public LocationCoveringQueryBuilder maxDistance(int maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+    @Override
+    protected void doXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(LocationCoveringQueryParser.NAME);
+        if (queryBuilder != null) {
+            builder.field("query");
+            queryBuilder.toXContent(builder, params);
+        }
+        builder.field("begin", begin)
+                .field("end", end);
+        if (maxDistance != null) {
+            builder.field("max_distance", maxDistance);
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.systemindex.PackedLocations;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryParser;
+import org.elasticsearch.index.query.QueryParsingException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Parser for the {@code nlptab_location_covering} query, which finds the feature structures matching a query that
+ * have a location, their own at distance 0 or an ancestor's, at most {@code max_distance} away covering a span.
+ * <p>The query reads the flat span encoding. The begin, end and distance ranges are added to the query as filters on
+ * the {@code ancestorLocations} arrays, so they are answered from the index before the packed locations are read.
+ * System indexes with the nested span encoding have no packed locations and match nothing, the same query on them is
+ * a nested query on {@code documentLocations}.</p>
+ *
+ * @see LocationCoveringQueryBuilder
+ * @since 1.2.0
+ */
+public class LocationCoveringQueryParser implements QueryParser {
+    static final String NAME = "nlptab_location_covering";
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Nullable
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+
+        Query query = null;
+        Integer begin = null;
+        Integer end = null;
+        int maxDistance = Integer.MAX_VALUE;
+        float boost = 1.0f;
+
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_OBJECT && "query".equals(currentFieldName)) {
+                query = parseContext.parseInnerQuery();
+            } else if (token.isValue() && "begin".equals(currentFieldName)) {
+                begin = parser.intValue();
+            } else if (token.isValue() && "end".equals(currentFieldName)) {
+                end = parser.intValue();
+            } else if (token.isValue() && "max_distance".equals(currentFieldName)) {
+                maxDistance = parser.intValue();
+            } else if (token.isValue() && "boost".equals(currentFieldName)) {
+                boost = parser.floatValue();
+            } else {
+                throw new QueryParsingException(parseContext, "[" + NAME + "] unexpected field [" + currentFieldName
+                        + "]");
+            }
+        }
+
+        if (begin == null || end == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] requires begin and end");
+        }
+        if (maxDistance < 0) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] max_distance must not be negative");
+        }
+
+        MappedFieldType beginFieldType = parseContext.fieldMapper("ancestorLocations.begin");
+        MappedFieldType endFieldType = parseContext.fieldMapper("ancestorLocations.end");
+        MappedFieldType distanceFieldType = parseContext.fieldMapper("ancestorLocations.distance");
+        MappedFieldType packedLocationsFieldType = parseContext.fieldMapper(PackedLocations.FIELD);
+        if (beginFieldType == null || endFieldType == null || distanceFieldType == null
+                || packedLocationsFieldType == null) {
+            return Queries.newMatchNoDocsQuery();
+        }
+
+        BooleanQuery.Builder approximation = new BooleanQuery.Builder();
+        if (query != null) {
+            approximation.add(query, BooleanClause.Occur.FILTER);
+        }
+        approximation.add(beginFieldType.rangeQuery(null, begin, true, true), BooleanClause.Occur.FILTER);
+        approximation.add(endFieldType.rangeQuery(end, null, true, true), BooleanClause.Occur.FILTER);
+        if (maxDistance < Integer.MAX_VALUE) {
+            approximation.add(distanceFieldType.rangeQuery(null, maxDistance, true, true), BooleanClause.Occur.FILTER);
+        }
+
+        LocationCoveringQuery locationCoveringQuery = new LocationCoveringQuery(approximation.build(),
+                packedLocationsFieldType.names().indexName(), begin, end, maxDistance);
+        locationCoveringQuery.setBoost(boost);
+        return locationCoveringQuery;
+    }
+}
@@ -136,10 +136,20 @@ class MatchUploadable {
         this.secondMatches = secondMatches;
     }
 
+    /**
+     * Returns the id of the match document, which is the analysis id and the id of the feature structure the match is
+     * for: the hypothesis feature structure of true and false positives, and the reference feature structure of false
+     * negatives. Evaluating a document again, such as when a shard of a distributed analysis is retried, overwrites
+     * its matches instead of duplicating them.
+     */
+    private String matchId() {
+        return analysisId + "_" + (matchType == MatchType.FALSE_NEGATIVE ? secondId : firstId);
+    }
+
     IndexRequestBuilder buildRequest() throws IOException {
         Preconditions.checkNotNull(firstPath);
         Preconditions.checkNotNull(secondPath);
-        return client.prepareIndex(index, getElasticSearchType())
+        return client.prepareIndex(index, getElasticSearchType(), matchId())
                 .setSource(XContentFactory.jsonBuilder()
                         .startObject()
                         .field("analysisId", analysisId)
@@ -17,29 +17,34 @@
 package edu.umn.nlptab.analysis;
 
 import com.google.common.collect.ImmutableMap;
-import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
 /**
- *
+ * Resolves the feature structures at the end of a path of reference features. The path is resolved breadth-first,
+ * fetching every feature structure needed for a level of the path in one multi-get through the document's
+ * {@link FsCache}.
  */
 class NestedPathSearch {
-    private final Client client;
-
     private String system;
 
     @Nullable
     private List<String> path;
 
+    @Nullable
+    private FsCache fsCache;
+
+    @Nullable
+    private String documentIdentifier;
+
     @Inject
-    NestedPathSearch(Client client) {
-        this.client = client;
+    NestedPathSearch() {
     }
 
     NestedPathSearch withSystem(String system) {
@@ -52,45 +57,112 @@ class NestedPathSearch {
         return this;
     }
 
-    private Map<String, Object> getSource(String id) {
-        if (id == null) {
-            return ImmutableMap.of();
-        } else {
-            GetResponse getResponse = client.prepareGet(system, "FeatureStructure", id)
-                    .execute().actionGet();
-            return getResponse.getSource();
+    NestedPathSearch withFsCache(FsCache fsCache) {
+        this.fsCache = fsCache;
+        return this;
+    }
+
+    private Map<String, Map<String, Object>> fetch(List<String> ids) {
+        if (fsCache == null) {
+            throw new IllegalStateException("fsCache not initialized");
         }
+        return fsCache.getSources(system, documentIdentifier, ids);
     }
 
+    private List<Map<String, Object>> getSources(List<String> ids) {
+        List<String> nonNullIds = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            if (id != null) {
+                nonNullIds.add(id);
+            }
+        }
+
+        Map<String, Map<String, Object>> fetched = fetch(nonNullIds);
 
-    private Stream<Map<String, Object>> sources(Map<String, Object> source, int level) {
-        if (source.containsKey("arrayItems")) {
-            @SuppressWarnings("unchecked")
-            List<String> ids = (List<String>) source.get("arrayItems");
-            return ids.stream().map(this::getSource).flatMap(s -> sources(s, level));
-        } else if (source.containsKey("listItems")) {
-            @SuppressWarnings("unchecked")
-            List<String> ids = (List<String>) source.get("listItems");
-            return ids.stream().map(this::getSource).flatMap(s -> sources(s, level));
-        } else {
-            if (level == path.size()) {
-                return Stream.of(source);
+        List<Map<String, Object>> sources = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            if (id == null) {
+                sources.add(ImmutableMap.of());
             } else {
+                Map<String, Object> source = fetched.get(id);
+                if (source != null) {
+                    sources.add(source);
+                }
+            }
+        }
+        return sources;
+    }
+
+    private List<Map<String, Object>> expandCollections(List<Map<String, Object>> level) {
+        while (true) {
+            boolean hasCollection = false;
+            List<String> itemIds = new ArrayList<>();
+            List<Integer> itemCounts = new ArrayList<>(level.size());
+            for (Map<String, Object> source : level) {
                 @SuppressWarnings("unchecked")
-                Map<String, Object> references = (Map<String, Object>) source.get("references");
-                String refFeature = path.get(level);
-                String id = (String) references.get(refFeature.replace('.', '_').replace(':', ';'));
-                Map<String, Object> childSource = getSource(id);
-                if (childSource == null) {
-                    return Stream.empty();
+                List<String> ids = source.containsKey("arrayItems") ? (List<String>) source.get("arrayItems")
+                        : (List<String>) source.get("listItems");
+                if (ids != null) {
+                    hasCollection = true;
+                    itemIds.addAll(ids);
+                    itemCounts.add(ids.size());
                 } else {
-                    return sources(childSource, level + 1);
+                    itemCounts.add(-1);
                 }
             }
+
+            if (!hasCollection) {
+                return level;
+            }
+
+            Map<String, Map<String, Object>> fetched = fetch(itemIds);
+
+            List<Map<String, Object>> expanded = new ArrayList<>();
+            int itemIndex = 0;
+            for (int i = 0; i < level.size(); i++) {
+                int count = itemCounts.get(i);
+                if (count == -1) {
+                    expanded.add(level.get(i));
+                } else {
+                    for (int j = 0; j < count; j++) {
+                        Map<String, Object> item = fetched.get(itemIds.get(itemIndex++));
+                        if (item != null) {
+                            expanded.add(item);
+                        }
+                    }
+                }
+            }
+            level = expanded;
         }
     }
 
     Stream<Map<String, Object>> sources(Map<String, Object> original) {
-        return sources(original, 0);
+        if (path == null) {
+            throw new IllegalStateException("path not initialized");
+        }
+
+        // referenced feature structures are in the same document, so they are routed to the same shard
+        documentIdentifier = (String) original.get("documentIdentifier");
+
+        List<Map<String, Object>> level = Collections.singletonList(original);
+        int depth = 0;
+        while (true) {
+            level = expandCollections(level);
+
+            if (depth == path.size() || level.isEmpty()) {
+                return level.stream();
+            }
+
+            String refFeature = path.get(depth).replace('.', '_').replace(':', ';');
+            List<String> ids = new ArrayList<>(level.size());
+            for (Map<String, Object> source : level) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> references = (Map<String, Object>) source.get("references");
+                ids.add(references == null ? null : (String) references.get(refFeature));
+            }
+
+            level = getSources(ids);
+            depth++;
+        }
     }
 }
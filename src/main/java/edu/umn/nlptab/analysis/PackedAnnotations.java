@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.systemindex.PackedAnnotationsEncoder;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * The primary locations, primary types and identifiers of all of the feature structures of one system in a document,
+ * decoded from the {@code DocumentInSystem} field written by {@link PackedAnnotationsEncoder}, in order of begin and
+ * then end.
+ *
+ * @since 1.2.0
+ */
+public class PackedAnnotations {
+    private final String[] typeNames;
+
+    private final int[] begins;
+
+    private final int[] ends;
+
+    private final int[] typeCodes;
+
+    private final String[] identifiers;
+
+    private PackedAnnotations(String[] typeNames, int[] begins, int[] ends, int[] typeCodes, String[] identifiers) {
+        this.typeNames = typeNames;
+        this.begins = begins;
+        this.ends = ends;
+        this.typeCodes = typeCodes;
+        this.identifiers = identifiers;
+    }
+
+    /**
+     * Decodes packed annotations.
+     *
+     * @param bytes the encoded bytes
+     * @return the decoded annotations
+     * @throws IOException if the bytes are not valid packed annotations
+     */
+    public static PackedAnnotations decode(byte[] bytes) throws IOException {
+        StreamInput in = StreamInput.wrap(bytes);
+        int version = in.readVInt();
+        if (version != PackedAnnotationsEncoder.VERSION) {
+            throw new IOException("Unsupported packed annotations version: " + version);
+        }
+
+        String[] typeNames = in.readStringArray();
+        int size = in.readVInt();
+        int[] begins = new int[size];
+        int[] ends = new int[size];
+        int[] typeCodes = new int[size];
+        String[] identifiers = new String[size];
+        int begin = 0;
+        for (int i = 0; i < size; i++) {
+            begin += in.readVInt();
+            int zigZagLength = in.readVInt();
+            begins[i] = begin;
+            ends[i] = begin + ((zigZagLength >>> 1) ^ -(zigZagLength & 1));
+            typeCodes[i] = in.readVInt();
+            if (typeCodes[i] >= typeNames.length) {
+                throw new IOException("Invalid type code: " + typeCodes[i]);
+            }
+            identifiers[i] = in.readString();
+        }
+        return new PackedAnnotations(typeNames, begins, ends, typeCodes, identifiers);
+    }
+
+    /**
+     * Combines the packed annotations of several views of the same document into one, keeping the spans sorted by
+     * begin and then end.
+     *
+     * @param packedAnnotations the annotations to combine
+     * @return the combined annotations
+     */
+    public static PackedAnnotations combine(List<PackedAnnotations> packedAnnotations) {
+        if (packedAnnotations.size() == 1) {
+            return packedAnnotations.get(0);
+        }
+
+        Map<String, Integer> typeCodes = new HashMap<>();
+        List<String> typeNames = new ArrayList<>();
+        List<int[]> spans = new ArrayList<>();
+        List<String> spanIdentifiers = new ArrayList<>();
+        for (PackedAnnotations annotations : packedAnnotations) {
+            for (int i = 0; i < annotations.size(); i++) {
+                Integer typeCode = typeCodes.get(annotations.getTypeName(i));
+                if (typeCode == null) {
+                    typeCode = typeNames.size();
+                    typeCodes.put(annotations.getTypeName(i), typeCode);
+                    typeNames.add(annotations.getTypeName(i));
+                }
+                spans.add(new int[]{annotations.begins[i], annotations.ends[i], typeCode, spans.size()});
+                spanIdentifiers.add(annotations.identifiers[i]);
+            }
+        }
+
+        spans.sort(Comparator.comparingInt((int[] span) -> span[0]).thenComparingInt(span -> span[1]));
+        int size = spans.size();
+        int[] begins = new int[size];
+        int[] ends = new int[size];
+        int[] spanTypeCodes = new int[size];
+        String[] identifiers = new String[size];
+        for (int i = 0; i < size; i++) {
+            int[] span = spans.get(i);
+            begins[i] = span[0];
+            ends[i] = span[1];
+            spanTypeCodes[i] = span[2];
+            identifiers[i] = spanIdentifiers.get(span[3]);
+        }
+        return new PackedAnnotations(typeNames.toArray(new String[typeNames.size()]), begins, ends, spanTypeCodes,
+                identifiers);
+    }
+
+    public int size() {
+        return begins.length;
+    }
+
+    public int getBegin(int index) {
+        return begins[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    public String getTypeName(int index) {
+        return typeNames[typeCodes[index]];
+    }
+
+    public String getIdentifier(int index) {
+        return identifiers[index];
+    }
+
+    /**
+     * Fills annotation spans with the spans of these annotations, which are already in order of begin.
+     *
+     * @param spans     the spans to fill, which are cleared first
+     * @param typeCodes the type code of each type name in the spans
+     */
+    void fill(AnnotationSpans spans, ToIntFunction<String> typeCodes) {
+        int[] spanTypeCodes = new int[typeNames.length];
+        for (int i = 0; i < typeNames.length; i++) {
+            spanTypeCodes[i] = typeCodes.applyAsInt(typeNames[i]);
+        }
+        spans.clear();
+        for (int i = 0; i < begins.length; i++) {
+            spans.add(begins[i], ends[i], spanTypeCodes[this.typeCodes[i]]);
+        }
+    }
+}
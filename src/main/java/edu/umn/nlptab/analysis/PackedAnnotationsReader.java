@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.NlpTabException;
+import edu.umn.nlptab.systemindex.PackedAnnotationsEncoder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Reads the {@link PackedAnnotations} of a document in a system from the {@code DocumentInSystem} documents in the
+ * search index, without touching the system index. A document has one {@code DocumentInSystem} per CAS view with the
+ * same document text, and the annotations of all of them are combined, the same as searching the system index by
+ * document identifier.
+ *
+ * @since 1.2.0
+ */
+public class PackedAnnotationsReader {
+    private static final int VIEWS_PAGE_SIZE = 10;
+
+    private final Client client;
+
+    @Inject
+    PackedAnnotationsReader(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Reads the packed annotations of a document.
+     *
+     * @param searchIndex        the search index of the instance
+     * @param systemIndex        the system index
+     * @param documentIdentifier the document identifier
+     * @return the combined annotations of the views of the document, or null if any view of the document in the
+     * system has no packed annotations, which is the case for systems indexed before they were stored
+     * @throws NlpTabException if the packed annotations fail to be decoded
+     */
+    @Nullable
+    public PackedAnnotations read(String searchIndex, String systemIndex, String documentIdentifier)
+            throws NlpTabException {
+        SearchResponse searchResponse = search(searchIndex, systemIndex, documentIdentifier, VIEWS_PAGE_SIZE);
+        long totalHits = searchResponse.getHits().getTotalHits();
+        if (totalHits > VIEWS_PAGE_SIZE) {
+            searchResponse = search(searchIndex, systemIndex, documentIdentifier, (int) totalHits);
+        }
+
+        SearchHit[] hits = searchResponse.getHits().getHits();
+        if (hits.length == 0) {
+            return null;
+        }
+        List<PackedAnnotations> packedAnnotations = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            Object encoded = hit.getSource() == null ? null : hit.getSource().get(PackedAnnotationsEncoder.FIELD);
+            if (encoded == null) {
+                return null;
+            }
+            try {
+                packedAnnotations.add(PackedAnnotations.decode(Base64.getDecoder().decode((String) encoded)));
+            } catch (IOException | IllegalArgumentException e) {
+                throw new NlpTabException("Failed to decode packed annotations of " + documentIdentifier, e);
+            }
+        }
+        return PackedAnnotations.combine(packedAnnotations);
+    }
+
+    private SearchResponse search(String searchIndex, String systemIndex, String documentIdentifier, int size) {
+        return client.prepareSearch(searchIndex)
+                .setTypes("DocumentInSystem")
+                .setRouting(documentIdentifier)
+                .setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery("systemIndex", systemIndex))
+                        .filter(QueryBuilders.termQuery("documentIdentifier", documentIdentifier))))
+                .setFetchSource(PackedAnnotationsEncoder.FIELD, null)
+                .setSize(size)
+                .get();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import javax.annotation.Nullable;
+import java.util.Locale;
+
+/**
+ * Which match documents an analysis writes to the analysis index. The counts of an analysis are always computed from
+ * every match, regardless of which match documents are written.
+ *
+ * @since 1.2.0
+ */
+enum ResultPersistence {
+    /**
+     * Writes a document for every true positive, false positive and false negative.
+     */
+    ALL,
+    /**
+     * Writes documents only for false positives and false negatives, with the true positives counted per document.
+     */
+    ERRORS,
+    /**
+     * Writes documents for false positives, false negatives and a sampled fraction of the true positives, with the true
+     * positives counted per document.
+     */
+    SAMPLED;
+
+    static ResultPersistence fromJson(@Nullable String persistence) throws AnalysisConfigurationException {
+        if (persistence == null) {
+            return ALL;
+        }
+        try {
+            return valueOf(persistence.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new AnalysisConfigurationException("Invalid persistence: " + persistence);
+        }
+    }
+
+    String toJson() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
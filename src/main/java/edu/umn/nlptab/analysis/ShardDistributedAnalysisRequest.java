@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Request to evaluate an analysis on a single shard of the hypothesis system index.
+ *
+ * @since 1.2.0
+ */
+public class ShardDistributedAnalysisRequest extends BroadcastShardRequest {
+    private String analysisId;
+
+    private Map<String, Object> analysisConfig;
+
+    private boolean refresh;
+
+    public ShardDistributedAnalysisRequest() {
+    }
+
+    ShardDistributedAnalysisRequest(ShardId shardId, DistributedAnalysisRequest request) {
+        super(shardId, request);
+        analysisId = request.getAnalysisId();
+        analysisConfig = request.getAnalysisConfig();
+        refresh = request.isRefresh();
+    }
+
+    String getAnalysisId() {
+        return analysisId;
+    }
+
+    Map<String, Object> getAnalysisConfig() {
+        return analysisConfig;
+    }
+
+    boolean isRefresh() {
+        return refresh;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        analysisId = in.readString();
+        analysisConfig = in.readMap();
+        refresh = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(analysisId);
+        out.writeMap(analysisConfig);
+        out.writeBoolean(refresh);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+
+import java.io.IOException;
+
+/**
+ * The co-occurrence counts of the documents evaluated on a single shard.
+ *
+ * @since 1.2.0
+ */
+class ShardDistributedAnalysisResponse extends BroadcastShardResponse {
+    private long firstOnly;
+
+    private long secondOnly;
+
+    private long both;
+
+    private long completed;
+
+    private long skipped;
+
+    ShardDistributedAnalysisResponse() {
+    }
+
+    ShardDistributedAnalysisResponse(ShardId shardId, CoOccurrenceCounts coOccurrenceCounts, long completed,
+                                     long skipped) {
+        super(shardId);
+        firstOnly = coOccurrenceCounts.getFirstOnly();
+        secondOnly = coOccurrenceCounts.getSecondOnly();
+        both = coOccurrenceCounts.getBoth();
+        this.completed = completed;
+        this.skipped = skipped;
+    }
+
+    long getFirstOnly() {
+        return firstOnly;
+    }
+
+    long getSecondOnly() {
+        return secondOnly;
+    }
+
+    long getBoth() {
+        return both;
+    }
+
+    long getCompleted() {
+        return completed;
+    }
+
+    long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        firstOnly = in.readVLong();
+        secondOnly = in.readVLong();
+        both = in.readVLong();
+        completed = in.readVLong();
+        skipped = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVLong(firstOnly);
+        out.writeVLong(secondOnly);
+        out.writeVLong(both);
+        out.writeVLong(completed);
+        out.writeVLong(skipped);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the identifiers of the documents present in both of two systems by merging their sorted identifier
+ * streams, holding only the current identifier of each.
+ *
+ * @since 1.2.0
+ */
+class SharedDocumentIdentifiers implements Iterator<String> {
+    private final Iterator<String> first;
+
+    private final Iterator<String> second;
+
+    @Nullable
+    private String next;
+
+    SharedDocumentIdentifiers(DocumentIdentifierSource first, DocumentIdentifierSource second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+
+        if (!first.hasNext() || !second.hasNext()) {
+            return false;
+        }
+
+        String firstIdentifier = first.next();
+        String secondIdentifier = second.next();
+        while (true) {
+            int comparison = DocumentIdentifierSource.compare(firstIdentifier, secondIdentifier);
+            if (comparison == 0) {
+                next = firstIdentifier;
+                return true;
+            } else if (comparison < 0) {
+                if (!first.hasNext()) {
+                    return false;
+                }
+                firstIdentifier = first.next();
+            } else {
+                if (!second.hasNext()) {
+                    return false;
+                }
+                secondIdentifier = second.next();
+            }
+        }
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String documentIdentifier = next;
+        next = null;
+        return documentIdentifier;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.systemindex.PackedAnnotationsEncoder;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.index.fielddata.IndexFieldData;
+import org.elasticsearch.index.fielddata.SortedBinaryDocValues;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.aggregations.support.AggregationContext;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.lookup.LeafSearchLookup;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Shard level collector of the {@link InternalSpanCoOccurrence} aggregation, which runs over the
+ * {@code DocumentInSystem} documents of the search index. Reads the system index, document identifier and
+ * {@link PackedAnnotations} of each document in a system, from doc values when the annotations have them and from the
+ * source otherwise.
+ * <p>The {@code DocumentInSystem} documents are children of their {@code Document} and routed by document identifier,
+ * so the documents of every system for the same document are on the same shard. Each shard holds the encoded
+ * annotations of its documents until it has collected them, sweeps the documents with annotations in both systems,
+ * and returns only the {@link TypeCoOccurrenceMatrix} of their counts.</p>
+ *
+ * @since 1.2.0
+ */
+class SpanCoOccurrenceAggregator extends MetricsAggregator {
+    private final BytesRef hypothesisSystem;
+
+    private final BytesRef referenceSystem;
+
+    private final int fuzzDistance;
+
+    /**
+     * The encoded annotations of each view of each document in the hypothesis system.
+     */
+    private final Map<String, List<byte[]>> hypothesisAnnotations = new HashMap<>();
+
+    /**
+     * The encoded annotations of each view of each document in the reference system.
+     */
+    private final Map<String, List<byte[]>> referenceAnnotations = new HashMap<>();
+
+    /**
+     * Documents which have a view without packed annotations, which were indexed before they were stored.
+     */
+    private final Set<String> unpackedDocuments = new HashSet<>();
+
+    SpanCoOccurrenceAggregator(String name,
+                               AggregationContext context,
+                               Aggregator parent,
+                               List<PipelineAggregator> pipelineAggregators,
+                               Map<String, Object> metaData,
+                               String hypothesisSystem,
+                               String referenceSystem,
+                               int fuzzDistance) throws IOException {
+        super(name, context, parent, pipelineAggregators, metaData);
+        this.hypothesisSystem = new BytesRef(hypothesisSystem);
+        this.referenceSystem = new BytesRef(referenceSystem);
+        this.fuzzDistance = fuzzDistance;
+    }
+
+    @Override
+    protected LeafBucketCollector getLeafCollector(LeafReaderContext ctx, LeafBucketCollector sub) throws IOException {
+        SearchContext searchContext = context.searchContext();
+        MappedFieldType systemFieldType = searchContext.smartNameFieldType("systemIndex");
+        MappedFieldType documentFieldType = searchContext.smartNameFieldType("documentIdentifier");
+        MappedFieldType annotationsFieldType = searchContext.smartNameFieldType(PackedAnnotationsEncoder.FIELD);
+        if (systemFieldType == null || documentFieldType == null) {
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+
+        SortedBinaryDocValues systems = searchContext.fieldData().<IndexFieldData<?>>getForField(systemFieldType)
+                .load(ctx).getBytesValues();
+        SortedBinaryDocValues documentIdentifiers = searchContext.fieldData()
+                .<IndexFieldData<?>>getForField(documentFieldType).load(ctx).getBytesValues();
+        SortedBinaryDocValues packedAnnotations = null;
+        LeafSearchLookup leafSearchLookup = null;
+        if (annotationsFieldType != null && annotationsFieldType.hasDocValues()) {
+            packedAnnotations = searchContext.fieldData().<IndexFieldData<?>>getForField(annotationsFieldType)
+                    .load(ctx).getBytesValues();
+        } else {
+            // search indexes whose annotations were mapped without doc values
+            leafSearchLookup = searchContext.lookup().getLeafSearchLookup(ctx);
+        }
+        SortedBinaryDocValues annotationsDocValues = packedAnnotations;
+        LeafSearchLookup annotationsSourceLookup = leafSearchLookup;
+
+        return new LeafBucketCollector() {
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                systems.setDocument(doc);
+                documentIdentifiers.setDocument(doc);
+                if (systems.count() == 0 || documentIdentifiers.count() == 0) {
+                    return;
+                }
+
+                BytesRef system = systems.valueAt(0);
+                boolean hypothesis = hypothesisSystem.bytesEquals(system);
+                boolean reference = referenceSystem.bytesEquals(system);
+                if (!hypothesis && !reference) {
+                    return;
+                }
+
+                String documentIdentifier = documentIdentifiers.valueAt(0).utf8ToString();
+                byte[] encoded = null;
+                if (annotationsDocValues != null) {
+                    annotationsDocValues.setDocument(doc);
+                    if (annotationsDocValues.count() > 0) {
+                        BytesRef bytesRef = annotationsDocValues.valueAt(0);
+                        encoded = Arrays.copyOfRange(bytesRef.bytes, bytesRef.offset,
+                                bytesRef.offset + bytesRef.length);
+                    }
+                } else if (annotationsSourceLookup != null) {
+                    annotationsSourceLookup.setDocument(doc);
+                    Object value = annotationsSourceLookup.source().extractValue(PackedAnnotationsEncoder.FIELD);
+                    if (value != null) {
+                        encoded = Base64.getDecoder().decode((String) value);
+                    }
+                }
+                if (encoded == null) {
+                    unpackedDocuments.add(documentIdentifier);
+                    return;
+                }
+
+                if (hypothesis) {
+                    annotationsOf(hypothesisAnnotations, documentIdentifier).add(encoded);
+                }
+                if (reference) {
+                    annotationsOf(referenceAnnotations, documentIdentifier).add(encoded);
+                }
+            }
+        };
+    }
+
+    private static List<byte[]> annotationsOf(Map<String, List<byte[]>> annotationsForDocument,
+                                              String documentIdentifier) {
+        List<byte[]> annotations = annotationsForDocument.get(documentIdentifier);
+        if (annotations == null) {
+            annotations = new ArrayList<>(1);
+            annotationsForDocument.put(documentIdentifier, annotations);
+        }
+        return annotations;
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long owningBucketOrdinal) throws IOException {
+        TypeCoOccurrenceMatrix matrix = new TypeCoOccurrenceMatrix(fuzzDistance);
+        long sharedDocuments = 0;
+        long unpacked = 0;
+        AnnotationSpans hypothesis = new AnnotationSpans();
+        AnnotationSpans reference = new AnnotationSpans();
+        for (Map.Entry<String, List<byte[]>> entry : hypothesisAnnotations.entrySet()) {
+            String documentIdentifier = entry.getKey();
+            List<byte[]> documentReferenceAnnotations = referenceAnnotations.get(documentIdentifier);
+            if (documentReferenceAnnotations == null) {
+                continue;
+            }
+            if (unpackedDocuments.contains(documentIdentifier)) {
+                unpacked++;
+                continue;
+            }
+            decode(documentIdentifier, entry.getValue()).fill(hypothesis, matrix::hypothesisTypeCode);
+            decode(documentIdentifier, documentReferenceAnnotations).fill(reference, matrix::referenceTypeCode);
+            matrix.addDocument(hypothesis, reference);
+            sharedDocuments++;
+        }
+
+        return new InternalSpanCoOccurrence(name, pipelineAggregators(), metaData(), fuzzDistance, matrix,
+                sharedDocuments, unpacked);
+    }
+
+    private static PackedAnnotations decode(String documentIdentifier, List<byte[]> encodedViews) {
+        List<PackedAnnotations> views = new ArrayList<>(encodedViews.size());
+        for (byte[] encoded : encodedViews) {
+            try {
+                views.add(PackedAnnotations.decode(encoded));
+            } catch (IOException e) {
+                throw new ElasticsearchException("Failed to decode packed annotations of " + documentIdentifier, e);
+            }
+        }
+        return PackedAnnotations.combine(views);
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalSpanCoOccurrence(name, pipelineAggregators(), metaData(), fuzzDistance,
+                new TypeCoOccurrenceMatrix(fuzzDistance), 0, 0);
+    }
+
+    static class Factory extends AggregatorFactory {
+        private final String hypothesisSystem;
+
+        private final String referenceSystem;
+
+        private final int fuzzDistance;
+
+        Factory(String name, String hypothesisSystem, String referenceSystem, int fuzzDistance) {
+            super(name, InternalSpanCoOccurrence.TYPE.name());
+            this.hypothesisSystem = hypothesisSystem;
+            this.referenceSystem = referenceSystem;
+            this.fuzzDistance = fuzzDistance;
+        }
+
+        @Override
+        protected Aggregator createInternal(AggregationContext context,
+                                            @Nullable Aggregator parent,
+                                            boolean collectsFromSingleBucket,
+                                            List<PipelineAggregator> pipelineAggregators,
+                                            Map<String, Object> metaData) throws IOException {
+            if (!collectsFromSingleBucket) {
+                return asMultiBucketAggregator(this, context, parent);
+            }
+            return new SpanCoOccurrenceAggregator(name, context, parent, pipelineAggregators, metaData,
+                    hypothesisSystem, referenceSystem, fuzzDistance);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.metrics.MetricsAggregationBuilder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Builder for the {@link InternalSpanCoOccurrence} aggregation.
+ *
+ * @since 1.2.0
+ */
+public class SpanCoOccurrenceBuilder extends MetricsAggregationBuilder<SpanCoOccurrenceBuilder> {
+    @Nullable private String hypothesisSystem;
+
+    @Nullable private String referenceSystem;
+
+    private int fuzzDistance = 0;
+
+    public SpanCoOccurrenceBuilder(String name) {
+        super(name, InternalSpanCoOccurrence.TYPE.name());
+    }
+
+    public SpanCoOccurrenceBuilder hypothesisSystem(String hypothesisSystem) {
+        this.hypothesisSystem = hypothesisSystem;
+        return this;
+    }
+
+    public SpanCoOccurrenceBuilder referenceSystem(String referenceSystem) {
+        this.referenceSystem = referenceSystem;
+        return this;
+    }
+
+    public SpanCoOccurrenceBuilder fuzzDistance(int fuzzDistance) {
+        this.fuzzDistance = fuzzDistance;
+        return this;
+    }
+
+    @Override
+    protected void internalXContent(XContentBuilder builder, Params params) throws IOException {
+        if (hypothesisSystem == null) {
+            throw new IllegalStateException("hypothesisSystem not initialized");
+        }
+        if (referenceSystem == null) {
+            throw new IllegalStateException("referenceSystem not initialized");
+        }
+        builder.field("hypothesis_system", hypothesisSystem)
+                .field("reference_system", referenceSystem)
+                .field("fuzz_distance", fuzzDistance);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.SearchParseException;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+
+/**
+ * Parser for the {@link InternalSpanCoOccurrence} aggregation, which takes the {@code systemIndex} of the hypothesis
+ * and reference {@code DocumentInSystem} documents as {@code hypothesis_system} and {@code reference_system}, and an
+ * optional {@code fuzz_distance}.
+ *
+ * @since 1.2.0
+ */
+public class SpanCoOccurrenceParser implements Aggregator.Parser {
+    @Override
+    public String type() {
+        return InternalSpanCoOccurrence.TYPE.name();
+    }
+
+    @Override
+    public AggregatorFactory parse(String aggregationName, XContentParser parser, SearchContext context)
+            throws IOException {
+        String hypothesisSystem = null;
+        String referenceSystem = null;
+        int fuzzDistance = 0;
+
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.VALUE_STRING && "hypothesis_system".equals(currentFieldName)) {
+                hypothesisSystem = parser.text();
+            } else if (token == XContentParser.Token.VALUE_STRING && "reference_system".equals(currentFieldName)) {
+                referenceSystem = parser.text();
+            } else if (token == XContentParser.Token.VALUE_NUMBER && "fuzz_distance".equals(currentFieldName)) {
+                fuzzDistance = parser.intValue();
+            } else {
+                throw new SearchParseException(context, "Unexpected token " + token + " in [" + aggregationName
+                        + "].", parser.getTokenLocation());
+            }
+        }
+
+        if (hypothesisSystem == null) {
+            throw new SearchParseException(context, "Missing [hypothesis_system] in [" + aggregationName + "].",
+                    parser.getTokenLocation());
+        }
+        if (referenceSystem == null) {
+            throw new SearchParseException(context, "Missing [reference_system] in [" + aggregationName + "].",
+                    parser.getTokenLocation());
+        }
+
+        return new SpanCoOccurrenceAggregator.Factory(aggregationName, hypothesisSystem, referenceSystem,
+                fuzzDistance);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Matches the feature structures whose primary location is within a euclidean distance of a span, scoring them by
+ * {@code 1 / (distance + 1)} so that the closest spans sort first.
+ * <p>The approximation query should already be restricted to the begin and end ranges which can be within the
+ * distance, so that only the feature structures in the window are visited. The distance itself is checked in the
+ * second phase of a {@link TwoPhaseIterator} from the begin and end doc values.</p>
+ *
+ * @since 1.2.0
+ */
+class SpanProximityQuery extends Query {
+    private final Query approximation;
+
+    private final String beginField;
+
+    private final String endField;
+
+    private final int begin;
+
+    private final int end;
+
+    private final int maxDistance;
+
+    SpanProximityQuery(Query approximation, String beginField, String endField, int begin, int end, int maxDistance) {
+        this.approximation = approximation;
+        this.beginField = beginField;
+        this.endField = endField;
+        this.begin = begin;
+        this.end = end;
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = approximation.rewrite(reader);
+        if (rewritten != approximation) {
+            SpanProximityQuery query = new SpanProximityQuery(rewritten, beginField, endField, begin, end, maxDistance);
+            query.setBoost(getBoost());
+            return query;
+        }
+        return super.rewrite(reader);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+        Weight approximationWeight = searcher.createWeight(approximation, false);
+        return new Weight(this) {
+            private float boost = 1.0f;
+
+            @Override
+            public void extractTerms(Set<Term> terms) {
+                approximationWeight.extractTerms(terms);
+            }
+
+            @Override
+            public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+                Scorer scorer = scorer(context);
+                if (scorer != null && scorer.advance(doc) == doc) {
+                    return Explanation.match(scorer.score(), "span proximity to [" + begin + ", " + end + "]");
+                }
+                return Explanation.noMatch("not within " + maxDistance + " of [" + begin + ", " + end + "]");
+            }
+
+            @Override
+            public float getValueForNormalization() throws IOException {
+                return 0;
+            }
+
+            @Override
+            public void normalize(float norm, float topLevelBoost) {
+                boost = getBoost() * topLevelBoost;
+            }
+
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                Scorer approximationScorer = approximationWeight.scorer(context);
+                if (approximationScorer == null) {
+                    return null;
+                }
+                SortedNumericDocValues begins = DocValues.getSortedNumeric(context.reader(), beginField);
+                SortedNumericDocValues ends = DocValues.getSortedNumeric(context.reader(), endField);
+                return new SpanProximityScorer(this, approximationScorer, begins, ends, boost);
+            }
+        };
+    }
+
+    private class SpanProximityScorer extends Scorer {
+        private final TwoPhaseIterator twoPhaseIterator;
+
+        private final DocIdSetIterator iterator;
+
+        private final float boost;
+
+        private long squaredDistance;
+
+        SpanProximityScorer(Weight weight,
+                            Scorer approximationScorer,
+                            SortedNumericDocValues begins,
+                            SortedNumericDocValues ends,
+                            float boost) {
+            super(weight);
+            this.boost = boost;
+            TwoPhaseIterator approximationTwoPhase = approximationScorer.asTwoPhaseIterator();
+            DocIdSetIterator candidates = approximationTwoPhase == null ? approximationScorer
+                    : approximationTwoPhase.approximation();
+            long maxSquaredDistance = (long) maxDistance * maxDistance;
+            twoPhaseIterator = new TwoPhaseIterator(candidates) {
+                @Override
+                public boolean matches() throws IOException {
+                    if (approximationTwoPhase != null && !approximationTwoPhase.matches()) {
+                        return false;
+                    }
+                    int doc = approximation.docID();
+                    begins.setDocument(doc);
+                    ends.setDocument(doc);
+                    if (begins.count() == 0 || ends.count() == 0) {
+                        return false;
+                    }
+                    long beginDistance = begins.valueAt(0) - begin;
+                    long endDistance = ends.valueAt(0) - end;
+                    squaredDistance = beginDistance * beginDistance + endDistance * endDistance;
+                    return squaredDistance <= maxSquaredDistance;
+                }
+            };
+            iterator = TwoPhaseIterator.asDocIdSetIterator(twoPhaseIterator);
+        }
+
+        @Override
+        public float score() throws IOException {
+            return boost / ((float) Math.sqrt(squaredDistance) + 1.0f);
+        }
+
+        @Override
+        public int freq() throws IOException {
+            return 1;
+        }
+
+        @Override
+        public TwoPhaseIterator asTwoPhaseIterator() {
+            return twoPhaseIterator;
+        }
+
+        @Override
+        public int docID() {
+            return iterator.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return iterator.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return iterator.advance(target);
+        }
+
+        @Override
+        public long cost() {
+            return iterator.cost();
+        }
+    }
+
+    @Override
+    public String toString(String field) {
+        return "span_proximity(" + approximation.toString(field) + ", " + beginField + ":" + begin + ", " + endField
+                + ":" + end + ", max_distance:" + maxDistance + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        SpanProximityQuery that = (SpanProximityQuery) o;
+        return begin == that.begin && end == that.end && maxDistance == that.maxDistance
+                && approximation.equals(that.approximation) && beginField.equals(that.beginField)
+                && endField.equals(that.endField);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), approximation, beginField, endField, begin, end, maxDistance);
+    }
+}
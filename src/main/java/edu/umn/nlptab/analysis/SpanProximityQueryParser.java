@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.query.QueryParseContext;
+import org.elasticsearch.index.query.QueryParser;
+import org.elasticsearch.index.query.QueryParsingException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Parser for the {@code nlptab_span_proximity} query, which finds the feature structures matching a query whose primary
+ * locations are closest to a span.
+ * <p>The begin and end ranges which can be within {@code max_distance} are added to the query as filters, so they are
+ * answered from the index before any doc values are read.</p>
+ *
+ * @see SpanProximityQueryBuilder
+ * @since 1.2.0
+ */
+public class SpanProximityQueryParser implements QueryParser {
+    static final String NAME = "nlptab_span_proximity";
+
+    @Override
+    public String[] names() {
+        return new String[]{NAME};
+    }
+
+    @Nullable
+    @Override
+    public Query parse(QueryParseContext parseContext) throws IOException, QueryParsingException {
+        XContentParser parser = parseContext.parser();
+
+        Query query = null;
+        Integer begin = null;
+        Integer end = null;
+        int maxDistance = 0;
+        float boost = 1.0f;
+
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_OBJECT && "query".equals(currentFieldName)) {
+                query = parseContext.parseInnerQuery();
+            } else if (token.isValue() && "begin".equals(currentFieldName)) {
+                begin = parser.intValue();
+            } else if (token.isValue() && "end".equals(currentFieldName)) {
+                end = parser.intValue();
+            } else if (token.isValue() && "max_distance".equals(currentFieldName)) {
+                maxDistance = parser.intValue();
+            } else if (token.isValue() && "boost".equals(currentFieldName)) {
+                boost = parser.floatValue();
+            } else {
+                throw new QueryParsingException(parseContext, "[" + NAME + "] unexpected field [" + currentFieldName
+                        + "]");
+            }
+        }
+
+        if (begin == null || end == null) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] requires begin and end");
+        }
+        if (maxDistance < 0) {
+            throw new QueryParsingException(parseContext, "[" + NAME + "] max_distance must not be negative");
+        }
+
+        MappedFieldType beginFieldType = parseContext.fieldMapper("primaryLocation.begin");
+        MappedFieldType endFieldType = parseContext.fieldMapper("primaryLocation.end");
+        if (beginFieldType == null || endFieldType == null) {
+            return Queries.newMatchNoDocsQuery();
+        }
+
+        BooleanQuery.Builder approximation = new BooleanQuery.Builder();
+        if (query != null) {
+            approximation.add(query, BooleanClause.Occur.FILTER);
+        }
+        approximation.add(beginFieldType.rangeQuery(begin - maxDistance, begin + maxDistance, true, true),
+                BooleanClause.Occur.FILTER);
+        approximation.add(endFieldType.rangeQuery(end - maxDistance, end + maxDistance, true, true),
+                BooleanClause.Occur.FILTER);
+
+        SpanProximityQuery spanProximityQuery = new SpanProximityQuery(approximation.build(),
+                beginFieldType.names().indexName(), endFieldType.names().indexName(), begin, end, maxDistance);
+        spanProximityQuery.setBoost(boost);
+        return spanProximityQuery;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Iterates over the documents of an analysis being refreshed, looking up the partial counts stored for them with one
+ * multi-get per batch of documents ahead of the documents being evaluated. As a predicate it is true for documents
+ * which need to be evaluated, and adds the stored counts of the documents which do not to the totals instead. Stored
+ * counts are only used if the views of the document are the same as when the counts were stored, so documents indexed
+ * into either system again are evaluated again.
+ *
+ * @since 1.2.0
+ */
+class StoredPartials implements Iterator<String>, Predicate<String> {
+    private static final ESLogger logger = Loggers.getLogger(StoredPartials.class);
+
+    /**
+     * The number of documents looked up in each multi-get.
+     */
+    private static final int BATCH_SIZE = 250;
+
+    private final Client client;
+
+    private final String index;
+
+    private final String fingerprint;
+
+    private final DocumentViews documentViews;
+
+    private final Iterator<String> documentIdentifiers;
+
+    private final CoOccurrenceCounts totals;
+
+    private final Deque<String> batch = new ArrayDeque<>();
+
+    private final Map<String, Map<String, Object>> partials = new HashMap<>();
+
+    /**
+     * Creates the lookup.
+     *
+     * @param client              elasticsearch client
+     * @param index               the analysis index holding the partial counts
+     * @param fingerprint         the fingerprint of the analysis configuration
+     * @param documentViews       the lookup of the current views of the documents
+     * @param documentIdentifiers the documents of the analysis
+     * @param totals              the counts which the stored counts of skipped documents are added to
+     */
+    StoredPartials(Client client,
+                   String index,
+                   String fingerprint,
+                   DocumentViews documentViews,
+                   Iterator<String> documentIdentifiers,
+                   CoOccurrenceCounts totals) {
+        this.client = client;
+        this.index = index;
+        this.fingerprint = fingerprint;
+        this.documentViews = documentViews;
+        this.documentIdentifiers = documentIdentifiers;
+        this.totals = totals;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (batch.isEmpty() && documentIdentifiers.hasNext()) {
+            MultiGetRequestBuilder multiGetRequestBuilder = client.prepareMultiGet();
+            while (batch.size() < BATCH_SIZE && documentIdentifiers.hasNext()) {
+                String documentIdentifier = documentIdentifiers.next();
+                batch.addLast(documentIdentifier);
+                multiGetRequestBuilder.add(index, CoOccurrenceCounts.PARTIAL_ELASTIC_SEARCH_TYPE,
+                        CoOccurrenceCounts.partialId(fingerprint, documentIdentifier));
+            }
+
+            ListenableActionFuture<SearchResponse> viewsLookup = documentViews.request(batch);
+            Iterator<String> batchIdentifiers = batch.iterator();
+            for (MultiGetItemResponse itemResponse : multiGetRequestBuilder.get()) {
+                String documentIdentifier = batchIdentifiers.next();
+                if (itemResponse.isFailed()) {
+                    logger.warn("Failed to look up partial counts of {}, evaluating it again: {}", documentIdentifier,
+                            itemResponse.getFailure().getMessage());
+                } else if (itemResponse.getResponse().isExists()) {
+                    partials.put(documentIdentifier, itemResponse.getResponse().getSource());
+                }
+            }
+
+            Map<String, String> views = documentViews.get(viewsLookup, batch);
+            partials.entrySet().removeIf(partial -> !views.getOrDefault(partial.getKey(), "")
+                    .equals(partial.getValue().get("views")));
+        }
+        return !batch.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.pollFirst();
+    }
+
+    @Override
+    public boolean test(String documentIdentifier) {
+        Map<String, Object> partial = partials.remove(documentIdentifier);
+        if (partial == null) {
+            return true;
+        }
+        totals.add(((Number) partial.get("firstOnly")).longValue(), ((Number) partial.get("secondOnly")).longValue(),
+                ((Number) partial.get("both")).longValue());
+        return false;
+    }
+}
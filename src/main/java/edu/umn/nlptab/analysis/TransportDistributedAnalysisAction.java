@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import com.google.common.collect.Iterators;
+import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.math.MathUtils;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Transport action for {@link DistributedAnalysisAction}. The request is broadcast to one copy of every shard of the
+ * hypothesis system index, and each shard evaluates the shared documents whose identifier is routed to it on the node
+ * holding the shard, uploading the matches and per-document partial counts and returning its co-occurrence counts,
+ * which are summed in the response.
+ * <p>Documents are assigned to shards with the same hash as elasticsearch routing, so when feature structures are
+ * routed by document identifier each shard evaluates the documents it holds. Match documents have deterministic ids,
+ * so a shard which is retried on another copy overwrites the matches of the failed attempt. Each shard reports its
+ * progress as the number of documents it has evaluated in {@code shardCompleted.<shard>}, which the retry overwrites as
+ * well, and the {@code completed} count of the analysis task is the sum of those fields.</p>
+ * <p>Shard operations run on the generic thread pool, which is unbounded, and block on the searches and bulk uploads
+ * of their documents without a timeout, so an analysis holds a generic thread per shard on each node for as long as
+ * evaluating the documents of the shard takes. The analysis fails if one of those requests fails.</p>
+ *
+ * @since 1.2.0
+ */
+public class TransportDistributedAnalysisAction extends TransportBroadcastAction<DistributedAnalysisRequest,
+        DistributedAnalysisResponse, ShardDistributedAnalysisRequest, ShardDistributedAnalysisResponse> {
+    private static final Murmur3HashFunction HASH_FUNCTION = new Murmur3HashFunction();
+
+    /**
+     * The number of documents a shard evaluates between reports of its progress to the analysis task.
+     */
+    private static final int PROGRESS_INTERVAL = 100;
+
+    private final Provider<AnalysisConfig> analysisConfigProvider;
+
+    private final Provider<CoOccurrenceCounts> coOccurrenceCountsProvider;
+
+    private final Provider<TypeCoOccurrenceEvaluation> typeCoOccurrenceEvaluationProvider;
+
+    private final Provider<Client> clientProvider;
+
+    @Inject
+    public TransportDistributedAnalysisAction(Settings settings,
+                                              ThreadPool threadPool,
+                                              ClusterService clusterService,
+                                              TransportService transportService,
+                                              ActionFilters actionFilters,
+                                              IndexNameExpressionResolver indexNameExpressionResolver,
+                                              Provider<AnalysisConfig> analysisConfigProvider,
+                                              Provider<CoOccurrenceCounts> coOccurrenceCountsProvider,
+                                              Provider<TypeCoOccurrenceEvaluation> typeCoOccurrenceEvaluationProvider,
+                                              Provider<Client> clientProvider) {
+        super(settings, DistributedAnalysisAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, DistributedAnalysisRequest.class, ShardDistributedAnalysisRequest.class,
+                ThreadPool.Names.GENERIC);
+        this.analysisConfigProvider = analysisConfigProvider;
+        this.coOccurrenceCountsProvider = coOccurrenceCountsProvider;
+        this.typeCoOccurrenceEvaluationProvider = typeCoOccurrenceEvaluationProvider;
+        this.clientProvider = clientProvider;
+    }
+
+    // the shard responses are declared as a raw array by TransportBroadcastAction
+    @SuppressWarnings("rawtypes")
+    @Override
+    protected DistributedAnalysisResponse newResponse(DistributedAnalysisRequest request,
+                                                      AtomicReferenceArray shardsResponses,
+                                                      ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = new ArrayList<>();
+        long firstOnly = 0;
+        long secondOnly = 0;
+        long both = 0;
+        long completed = 0;
+        long skipped = 0;
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                shardFailures.add(new DefaultShardOperationFailedException(
+                        (BroadcastShardOperationFailedException) shardResponse));
+            } else if (shardResponse instanceof ShardDistributedAnalysisResponse) {
+                successfulShards++;
+                ShardDistributedAnalysisResponse response = (ShardDistributedAnalysisResponse) shardResponse;
+                firstOnly += response.getFirstOnly();
+                secondOnly += response.getSecondOnly();
+                both += response.getBoth();
+                completed += response.getCompleted();
+                skipped += response.getSkipped();
+            } else {
+                // a shard without an active copy evaluated none of its documents
+                failedShards++;
+            }
+        }
+        return new DistributedAnalysisResponse(shardsResponses.length(), successfulShards, failedShards,
+                shardFailures, firstOnly, secondOnly, both, completed, skipped);
+    }
+
+    @Override
+    protected ShardDistributedAnalysisRequest newShardRequest(int numShards,
+                                                              ShardRouting shard,
+                                                              DistributedAnalysisRequest request) {
+        return new ShardDistributedAnalysisRequest(shard.shardId(), request);
+    }
+
+    @Override
+    protected ShardDistributedAnalysisResponse newShardResponse() {
+        return new ShardDistributedAnalysisResponse();
+    }
+
+    @Override
+    protected ShardDistributedAnalysisResponse shardOperation(ShardDistributedAnalysisRequest request) {
+        ShardId shardId = request.shardId();
+        try {
+            AnalysisConfig analysisConfig = analysisConfigProvider.get();
+            analysisConfig.initFromMap(request.getAnalysisConfig());
+            return analyzeShard(shardId, request.getAnalysisId(), request.isRefresh(), analysisConfig);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("Interrupted while analyzing shard " + shardId, e);
+        } catch (AnalysisConfigurationException | IOException | NlpTabException e) {
+            throw new ElasticsearchException("Failed to analyze shard " + shardId, e);
+        }
+    }
+
+    private ShardDistributedAnalysisResponse analyzeShard(ShardId shardId,
+                                                          String analysisId,
+                                                          boolean refresh,
+                                                          AnalysisConfig analysisConfig)
+            throws IOException, InterruptedException, NlpTabException {
+        Client client = clientProvider.get();
+        MetaData metaData = clusterService.state().metaData();
+        int numberOfShards = metaData.index(shardId.getIndex()).getNumberOfShards();
+
+        String analysisIndex = analysisConfig.getInstanceIndexes().analysisIndex();
+        String searchIndex = analysisConfig.getInstanceIndexes().searchIndex();
+        String fingerprint = analysisConfig.fingerprint();
+
+        // when the search index has as many shards as the system index, the documents routed to this shard are exactly
+        // those on the same shard of the search index, so only that shard's identifiers are read
+        IndexMetaData searchIndexMetaData = metaData.index(searchIndex);
+        Integer searchShard = searchIndexMetaData != null && searchIndexMetaData.getNumberOfShards() == numberOfShards
+                ? shardId.id() : null;
+
+        CoOccurrenceCounts shardCounts = coOccurrenceCountsProvider.get();
+        shardCounts.setAnalysisConfig(analysisConfig);
+        shardCounts.setIndex(analysisIndex);
+        shardCounts.setAnalysisId(analysisId);
+
+        long completed = 0;
+        long skipped = 0;
+        long reported = 0;
+        try (DocumentIdentifierSource hypothesisIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                analysisConfig.getHypothesis().getSystemIndex(), searchShard);
+             DocumentIdentifierSource referenceIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                     analysisConfig.getReference().getSystemIndex(), searchShard)) {
+            Iterator<String> documentIdentifiers = new SharedDocumentIdentifiers(hypothesisIdentifiers,
+                    referenceIdentifiers);
+            if (searchShard == null) {
+                documentIdentifiers = Iterators.filter(documentIdentifiers,
+                        documentIdentifier -> isRoutedTo(documentIdentifier, numberOfShards, shardId.id()));
+            }
+            Predicate<String> needsEvaluation = documentIdentifier -> true;
+            if (refresh) {
+                StoredPartials storedPartials = new StoredPartials(client, analysisIndex, fingerprint,
+                        new DocumentViews(client, analysisConfig), documentIdentifiers, shardCounts);
+                documentIdentifiers = storedPartials;
+                needsEvaluation = storedPartials;
+            }
+
+            try (DocumentPrefetcher documentPrefetcher = new DocumentPrefetcher(client, documentIdentifiers,
+                    analysisConfig.getHypothesis(), analysisConfig.isHitMiss() ? null : analysisConfig.getReference(),
+                    needsEvaluation,
+                    analysisConfig.getPrefetchDocuments(), analysisConfig.getPrefetchMemoryBudget(),
+                    analysisConfig.getScrollPageSize())) {
+                while (documentPrefetcher.hasNext()) {
+                    DocumentPrefetcher.PrefetchedDocument prefetchedDocument = documentPrefetcher.next();
+                    completed++;
+                    if (completed - reported == PROGRESS_INTERVAL) {
+                        reportCompleted(client, analysisIndex, analysisId, shardId, completed);
+                        reported = completed;
+                    }
+                    if (prefetchedDocument.isSkipped()) {
+                        skipped++;
+                        continue;
+                    }
+
+                    TypeCoOccurrenceEvaluation typeCoOccurrenceEvaluation = typeCoOccurrenceEvaluationProvider.get();
+                    typeCoOccurrenceEvaluation.setPrefetchedDocument(prefetchedDocument);
+                    typeCoOccurrenceEvaluation.setAnalysisId(analysisId);
+                    typeCoOccurrenceEvaluation.setIndex(analysisIndex);
+                    typeCoOccurrenceEvaluation.setAnalysisConfig(analysisConfig);
+                    typeCoOccurrenceEvaluation.setFingerprint(fingerprint);
+
+                    shardCounts.add(typeCoOccurrenceEvaluation.computeCoOccurrenceCounts());
+                }
+            }
+        }
+
+        if (completed > reported) {
+            reportCompleted(client, analysisIndex, analysisId, shardId, completed);
+        }
+
+        logger.debug("Analyzed {} documents on shard {}", completed, shardId);
+        return new ShardDistributedAnalysisResponse(shardId, shardCounts, completed, skipped);
+    }
+
+    /**
+     * Overwrites the number of documents evaluated by this shard in the analysis task and sets the completed count of
+     * the task to the sum over the shards, retrying when another shard updated the task first. Since the shard's count
+     * is replaced rather than added to, the documents of a failed attempt are not counted again by its retry.
+     */
+    private void reportCompleted(Client client, String analysisIndex, String analysisId, ShardId shardId,
+                                 long count) throws IOException {
+        String shard = Integer.toString(shardId.id());
+        while (true) {
+            GetResponse getResponse = client.prepareGet(analysisIndex, "AnalysisTask", analysisId)
+                    .setFetchSource("shardCompleted", null)
+                    .get();
+            if (!getResponse.isExists()) {
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> shardCompleted = (Map<String, Object>) getResponse.getSource().get("shardCompleted");
+            long completed = count;
+            if (shardCompleted != null) {
+                for (Map.Entry<String, Object> entry : shardCompleted.entrySet()) {
+                    if (!shard.equals(entry.getKey())) {
+                        completed += ((Number) entry.getValue()).longValue();
+                    }
+                }
+            }
+            try {
+                client.prepareUpdate(analysisIndex, "AnalysisTask", analysisId)
+                        .setVersion(getResponse.getVersion())
+                        .setDoc(XContentFactory.jsonBuilder()
+                                .startObject()
+                                .startObject("shardCompleted")
+                                .field(shard, count)
+                                .endObject()
+                                .field("completed", completed)
+                                .endObject())
+                        .get();
+                return;
+            } catch (ElasticsearchException e) {
+                if (!(ExceptionsHelper.unwrapCause(e) instanceof VersionConflictEngineException)) {
+                    throw e;
+                }
+                logger.trace("Completed count of {} updated concurrently, retrying", analysisId);
+            }
+        }
+    }
+
+    private static boolean isRoutedTo(String documentIdentifier, int numberOfShards, int shardId) {
+        return MathUtils.mod(HASH_FUNCTION.hash(documentIdentifier), numberOfShards) == shardId;
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState,
+                                         DistributedAnalysisRequest request,
+                                         String[] concreteIndices) {
+        return clusterService.operationRouting().searchShards(clusterState, concreteIndices, null, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, DistributedAnalysisRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.WRITE);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state,
+                                                      DistributedAnalysisRequest request,
+                                                      String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+}
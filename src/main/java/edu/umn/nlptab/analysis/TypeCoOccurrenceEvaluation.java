@@ -17,8 +17,12 @@
 package edu.umn.nlptab.analysis;
 
 import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ListenableActionFuture;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Provider;
@@ -28,7 +32,12 @@ import org.elasticsearch.search.SearchHit;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Evaluates one type against another, determining if they exist at the same location.
@@ -43,22 +52,28 @@ class TypeCoOccurrenceEvaluation {
     private final CoOccurrenceCounts coOccurrenceCounts;
     private final Provider<MatchUploadable> matchUploadableProvider;
     private final Provider<ClosestFsFinder> closestFsFinderProvider;
+    private final FsCache fsCache;
     @Nullable private String documentId;
     @Nullable private AnalysisConfig analysisConfig;
     @Nullable private String index;
     @Nullable private String analysisId;
+    @Nullable private String fingerprint;
+    @Nullable private List<SearchHit> hypothesisHits;
+    @Nullable private List<SearchHit> referenceHits;
 
     @Inject
     TypeCoOccurrenceEvaluation(Client client,
                                Provider<FsMatcher> fsMatcherProvider,
                                CoOccurrenceCounts coOccurrenceCounts,
                                Provider<MatchUploadable> matchUploadableProvider,
-                               Provider<ClosestFsFinder> closestFsFinderProvider) {
+                               Provider<ClosestFsFinder> closestFsFinderProvider,
+                               FsCache fsCache) {
         this.client = client;
         this.fsMatcherProvider = fsMatcherProvider;
         this.coOccurrenceCounts = coOccurrenceCounts;
         this.matchUploadableProvider = matchUploadableProvider;
         this.closestFsFinderProvider = closestFsFinderProvider;
+        this.fsCache = fsCache;
     }
 
     void setDocumentId(String documentId) {
@@ -77,6 +92,49 @@ class TypeCoOccurrenceEvaluation {
         this.analysisConfig = analysisConfig;
     }
 
+    /**
+     * Sets the fingerprint of the analysis configuration, in which case the partial counts of the document are written
+     * in the same asynchronous bulk request as its matches, along with the views of the document looked up while it is
+     * evaluated.
+     *
+     * @param fingerprint the fingerprint of the analysis configuration
+     * @see AnalysisConfig#fingerprint()
+     */
+    void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Sets feature structures of the hypothesis unit of analysis in the document which have already been fetched, so
+     * that they are not searched for again.
+     *
+     * @param hypothesisHits the hypothesis feature structures
+     */
+    void setHypothesisHits(List<SearchHit> hypothesisHits) {
+        this.hypothesisHits = hypothesisHits;
+    }
+
+    /**
+     * Sets feature structures of the reference unit of analysis in the document which have already been fetched, so
+     * that they are not searched for again.
+     *
+     * @param referenceHits the reference feature structures
+     */
+    void setReferenceHits(List<SearchHit> referenceHits) {
+        this.referenceHits = referenceHits;
+    }
+
+    /**
+     * Sets the document and its feature structures loaded by a {@link DocumentPrefetcher}.
+     *
+     * @param prefetchedDocument the loaded document
+     */
+    void setPrefetchedDocument(DocumentPrefetcher.PrefetchedDocument prefetchedDocument) {
+        documentId = prefetchedDocument.getDocumentIdentifier();
+        hypothesisHits = prefetchedDocument.getHypothesisHits();
+        referenceHits = prefetchedDocument.getReferenceHits();
+    }
+
     CoOccurrenceCounts computeCoOccurrenceCounts() throws IOException, InterruptedException, NlpTabException {
         if (analysisConfig == null) {
             throw new IllegalStateException("analysisConfig not initialized");
@@ -94,13 +152,28 @@ class TypeCoOccurrenceEvaluation {
             throw new IllegalStateException("documentId not initialized");
         }
 
+        coOccurrenceCounts.setIndex(index);
+        coOccurrenceCounts.setAnalysisId(analysisId);
+        coOccurrenceCounts.setAnalysisConfig(analysisConfig);
+
+        DocumentViews documentViews = null;
+        ListenableActionFuture<SearchResponse> viewsLookup = null;
+        if (fingerprint != null) {
+            documentViews = new DocumentViews(client, analysisConfig);
+            viewsLookup = documentViews.request(Collections.singletonList(documentId));
+        }
+
         BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
 
         UnitOfAnalysis hypothesis = analysisConfig.getHypothesis();
         UnitOfAnalysis reference = analysisConfig.getReference();
-        try (FsDataSource firstSource = new FsDataSource(client, documentId, hypothesis)) {
+        Set<String> matchedReferenceIds = new HashSet<>();
+        long persistedTruePositives = 0;
+        try (FsDataSource firstSource = hypothesisHits == null ? new FsDataSource(client, documentId, hypothesis,
+                analysisConfig.getScrollPageSize()) : null) {
             logger.debug("Iterating hypothesis feature structures.");
-            FsDataSourceIterator firstIterator = new FsDataSourceIterator(firstSource);
+            Iterator<SearchHit> firstIterator = firstSource != null ? new FsDataSourceIterator(firstSource)
+                    : hypothesisHits.iterator();
             while (firstIterator.hasNext()) {
                 logger.trace("Found hypothesis feature structure.");
                 SearchHit searchHit = firstIterator.next();
@@ -109,6 +182,7 @@ class TypeCoOccurrenceEvaluation {
                 FsMatcher fsMatcher = fsMatcherProvider.get()
                         .withAnalysisConfig(analysisConfig)
                         .withFeatureStructure(featureStructure)
+                        .withFsCache(fsCache)
                         .normal();
 
                 String matchingId = fsMatcher.getMatchingId();
@@ -136,13 +210,17 @@ class TypeCoOccurrenceEvaluation {
                 if (matchingId != null) {
                     logger.trace("Found match.");
                     coOccurrenceCounts.incrementBoth();
+                    matchedReferenceIds.add(matchingId);
 
-                    matchUploadable.setSecondId(matchingId);
-                    matchUploadable.setMatchType(MatchUploadable.MatchType.TRUE_POSITIVE);
+                    if (analysisConfig.shouldPersistTruePositive(searchHit.getId())) {
+                        persistedTruePositives++;
+                        matchUploadable.setSecondId(matchingId);
+                        matchUploadable.setMatchType(MatchUploadable.MatchType.TRUE_POSITIVE);
 
-                    IndexRequestBuilder indexRequestBuilder = matchUploadable.buildRequest();
+                        IndexRequestBuilder indexRequestBuilder = matchUploadable.buildRequest();
 
-                    bulkRequestBuilder.add(indexRequestBuilder);
+                        bulkRequestBuilder.add(indexRequestBuilder);
+                    }
                 } else {
                     logger.trace("Couldn't find match, finding closest.");
                     String closestId = closestFsFinderProvider.get()
@@ -172,16 +250,27 @@ class TypeCoOccurrenceEvaluation {
         }
 
         if (!analysisConfig.isHitMiss()) {
-            try (FsDataSource secondSource = new FsDataSource(client, documentId, reference)) {
+            // reference feature structures matched in the hypothesis pass will have a converse match when the converse
+            // tests are exact, so only those that were never matched need to be searched
+            boolean skipMatched = analysisConfig.isConverseExact();
+            try (FsDataSource secondSource = referenceHits == null ? new FsDataSource(client, documentId, reference,
+                    analysisConfig.getScrollPageSize())
+                    : null) {
                 logger.debug("Iterating reference feature structures.");
-                FsDataSourceIterator secondIterator = new FsDataSourceIterator(secondSource);
+                Iterator<SearchHit> secondIterator = secondSource != null ? new FsDataSourceIterator(secondSource)
+                        : referenceHits.iterator();
 
                 while (secondIterator.hasNext()) {
                     SearchHit searchHit = secondIterator.next();
+                    if (skipMatched && matchedReferenceIds.contains(searchHit.getId())) {
+                        logger.trace("Reference feature structure already matched.");
+                        continue;
+                    }
                     Map<String, Object> featureStructure = searchHit.getSource();
                     FsMatcher fsMatcher = fsMatcherProvider.get()
                             .withFeatureStructure(featureStructure)
                             .withAnalysisConfig(analysisConfig)
+                            .withFsCache(fsCache)
                             .converse();
 
                     String matchingId = fsMatcher.getMatchingId();
@@ -229,8 +318,32 @@ class TypeCoOccurrenceEvaluation {
             }
         }
 
+        if (analysisConfig.getResultPersistence() != ResultPersistence.ALL) {
+            bulkRequestBuilder.add(coOccurrenceCounts.buildDocumentRequest(documentId, persistedTruePositives));
+        }
+
+        if (documentViews != null) {
+            String views = documentViews.get(viewsLookup, Collections.singletonList(documentId))
+                    .getOrDefault(documentId, "");
+            bulkRequestBuilder.add(coOccurrenceCounts.buildPartialRequest(fingerprint, documentId, views));
+        }
+
         if (bulkRequestBuilder.numberOfActions() > 0) {
-            bulkRequestBuilder.execute();
+            String evaluatedDocumentId = documentId;
+            bulkRequestBuilder.execute(new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse bulkResponse) {
+                    if (bulkResponse.hasFailures()) {
+                        logger.warn("Failed to write results of document {}: {}", evaluatedDocumentId,
+                                bulkResponse.buildFailureMessage());
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    logger.warn("Failed to write results of document {}", e, evaluatedDocumentId);
+                }
+            });
         }
 
         return coOccurrenceCounts;
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.carrotsearch.hppc.cursors.IntCursor;
+import com.carrotsearch.hppc.cursors.LongIntCursor;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sparse matrix of co-occurrence counts between every annotation type of a hypothesis system and every annotation
+ * type of a reference system.
+ * <p>For a pair of a hypothesis type and a reference type, both is the number of hypothesis annotations with a
+ * reference annotation of the reference type at the same location, first only is the number of the remaining
+ * hypothesis annotations, and second only is the number of reference annotations with no hypothesis annotation of the
+ * hypothesis type at the same location, the same counts that a single {@link TypeCoOccurrenceEvaluation} produces
+ * without feature value mappings. Only pairs which co-occur at least once are stored.</p>
+ *
+ * @since 1.2.0
+ */
+class TypeCoOccurrenceMatrix {
+    private final int fuzzDistance;
+
+    private final ObjectIntHashMap<String> hypothesisTypeCodes = new ObjectIntHashMap<>();
+
+    private final List<String> hypothesisTypeNames = new ArrayList<>();
+
+    private final ObjectIntHashMap<String> referenceTypeCodes = new ObjectIntHashMap<>();
+
+    private final List<String> referenceTypeNames = new ArrayList<>();
+
+    private long[] hypothesisCounts = new long[64];
+
+    private long[] referenceCounts = new long[64];
+
+    private final LongIntHashMap pairIndexes = new LongIntHashMap();
+
+    private long[] hypothesisMatched = new long[256];
+
+    private long[] referenceMatched = new long[256];
+
+    private long locations = 0;
+
+    private final IntHashSet matchedTypeCodes = new IntHashSet();
+
+    private final LongHashSet documentLocations = new LongHashSet();
+
+    TypeCoOccurrenceMatrix(int fuzzDistance) {
+        this.fuzzDistance = fuzzDistance;
+    }
+
+    int hypothesisTypeCode(String typeName) {
+        return typeCode(hypothesisTypeCodes, hypothesisTypeNames, typeName);
+    }
+
+    int referenceTypeCode(String typeName) {
+        return typeCode(referenceTypeCodes, referenceTypeNames, typeName);
+    }
+
+    private static int typeCode(ObjectIntHashMap<String> typeCodes, List<String> typeNames, String typeName) {
+        int index = typeCodes.indexOf(typeName);
+        if (typeCodes.indexExists(index)) {
+            return typeCodes.indexGet(index);
+        }
+        int typeCode = typeNames.size();
+        typeCodes.indexInsert(index, typeName, typeCode);
+        typeNames.add(typeName);
+        return typeCode;
+    }
+
+    /**
+     * Sweeps the annotations of both systems in a document, adding their co-occurrences to the matrix.
+     *
+     * @param hypothesis the hypothesis annotations, in order of begin
+     * @param reference  the reference annotations, in order of begin
+     */
+    void addDocument(AnnotationSpans hypothesis, AnnotationSpans reference) {
+        hypothesisCounts = count(hypothesisCounts, hypothesis, hypothesisTypeNames.size());
+        referenceCounts = count(referenceCounts, reference, referenceTypeNames.size());
+
+        sweep(hypothesis, reference, false);
+        sweep(reference, hypothesis, true);
+
+        documentLocations.clear();
+        addLocations(hypothesis);
+        addLocations(reference);
+        locations += documentLocations.size();
+    }
+
+    private static long[] count(long[] counts, AnnotationSpans spans, int typeCount) {
+        counts = grow(counts, typeCount);
+        for (int i = 0; i < spans.size(); i++) {
+            counts[spans.getTypeCode(i)]++;
+        }
+        return counts;
+    }
+
+    private static long[] grow(long[] counts, int typeCount) {
+        if (counts.length < typeCount) {
+            return Arrays.copyOf(counts, Math.max(typeCount, counts.length * 2));
+        }
+        return counts;
+    }
+
+    /**
+     * Adds the counts of another matrix, such as one swept on another shard, to this matrix.
+     *
+     * @param other the matrix to add
+     */
+    void add(TypeCoOccurrenceMatrix other) {
+        int[] hypothesisCodes = new int[other.hypothesisTypeNames.size()];
+        for (int i = 0; i < hypothesisCodes.length; i++) {
+            hypothesisCodes[i] = hypothesisTypeCode(other.hypothesisTypeNames.get(i));
+        }
+        int[] referenceCodes = new int[other.referenceTypeNames.size()];
+        for (int i = 0; i < referenceCodes.length; i++) {
+            referenceCodes[i] = referenceTypeCode(other.referenceTypeNames.get(i));
+        }
+
+        hypothesisCounts = grow(hypothesisCounts, hypothesisTypeNames.size());
+        for (int i = 0; i < hypothesisCodes.length && i < other.hypothesisCounts.length; i++) {
+            hypothesisCounts[hypothesisCodes[i]] += other.hypothesisCounts[i];
+        }
+        referenceCounts = grow(referenceCounts, referenceTypeNames.size());
+        for (int i = 0; i < referenceCodes.length && i < other.referenceCounts.length; i++) {
+            referenceCounts[referenceCodes[i]] += other.referenceCounts[i];
+        }
+
+        for (LongIntCursor cursor : other.pairIndexes) {
+            int pairIndex = pairIndex(hypothesisCodes[(int) (cursor.key >>> 32)], referenceCodes[(int) cursor.key]);
+            hypothesisMatched[pairIndex] += other.hypothesisMatched[cursor.value];
+            referenceMatched[pairIndex] += other.referenceMatched[cursor.value];
+        }
+        locations += other.locations;
+    }
+
+    /**
+     * Writes the counts of the matrix, which are read with {@link #readFrom(StreamInput, int)}.
+     *
+     * @param out the stream to write to
+     * @throws IOException if there is a failure writing
+     */
+    void writeTo(StreamOutput out) throws IOException {
+        writeCounts(out, hypothesisTypeNames, hypothesisCounts);
+        writeCounts(out, referenceTypeNames, referenceCounts);
+        out.writeVInt(pairIndexes.size());
+        for (LongIntCursor cursor : pairIndexes) {
+            out.writeVInt((int) (cursor.key >>> 32));
+            out.writeVInt((int) cursor.key);
+            out.writeVLong(hypothesisMatched[cursor.value]);
+            out.writeVLong(referenceMatched[cursor.value]);
+        }
+        out.writeVLong(locations);
+    }
+
+    private static void writeCounts(StreamOutput out, List<String> typeNames, long[] counts) throws IOException {
+        out.writeVInt(typeNames.size());
+        for (int i = 0; i < typeNames.size(); i++) {
+            out.writeString(typeNames.get(i));
+            out.writeVLong(i < counts.length ? counts[i] : 0);
+        }
+    }
+
+    /**
+     * Reads the counts of a matrix written with {@link #writeTo(StreamOutput)}.
+     *
+     * @param in           the stream to read from
+     * @param fuzzDistance the fuzz distance of the matrix
+     * @return the matrix
+     * @throws IOException if there is a failure reading
+     */
+    static TypeCoOccurrenceMatrix readFrom(StreamInput in, int fuzzDistance) throws IOException {
+        TypeCoOccurrenceMatrix matrix = new TypeCoOccurrenceMatrix(fuzzDistance);
+        matrix.hypothesisCounts = readCounts(in, matrix::hypothesisTypeCode, matrix.hypothesisCounts);
+        matrix.referenceCounts = readCounts(in, matrix::referenceTypeCode, matrix.referenceCounts);
+        int pairs = in.readVInt();
+        for (int i = 0; i < pairs; i++) {
+            int pairIndex = matrix.pairIndex(in.readVInt(), in.readVInt());
+            matrix.hypothesisMatched[pairIndex] = in.readVLong();
+            matrix.referenceMatched[pairIndex] = in.readVLong();
+        }
+        matrix.locations = in.readVLong();
+        return matrix;
+    }
+
+    private static long[] readCounts(StreamInput in, ToIntFunction<String> typeCodes, long[] counts)
+            throws IOException {
+        int size = in.readVInt();
+        counts = grow(counts, size);
+        for (int i = 0; i < size; i++) {
+            counts[typeCodes.applyAsInt(in.readString())] = in.readVLong();
+        }
+        return counts;
+    }
+
+    private void addLocations(AnnotationSpans spans) {
+        for (int i = 0; i < spans.size(); i++) {
+            documentLocations.add(((long) spans.getBegin(i) << 32) | (spans.getEnd(i) & 0xFFFFFFFFL));
+        }
+    }
+
+    private void sweep(AnnotationSpans first, AnnotationSpans second, boolean converse) {
+        int windowStart = 0;
+        for (int i = 0; i < first.size(); i++) {
+            int begin = first.getBegin(i);
+            int end = first.getEnd(i);
+            while (windowStart < second.size() && second.getBegin(windowStart) < begin - fuzzDistance) {
+                windowStart++;
+            }
+
+            matchedTypeCodes.clear();
+            for (int j = windowStart; j < second.size() && second.getBegin(j) <= begin + fuzzDistance; j++) {
+                if (Math.abs(second.getEnd(j) - end) <= fuzzDistance) {
+                    matchedTypeCodes.add(second.getTypeCode(j));
+                }
+            }
+
+            int typeCode = first.getTypeCode(i);
+            for (IntCursor matched : matchedTypeCodes) {
+                if (converse) {
+                    referenceMatched[pairIndex(matched.value, typeCode)]++;
+                } else {
+                    hypothesisMatched[pairIndex(typeCode, matched.value)]++;
+                }
+            }
+        }
+    }
+
+    private int pairIndex(int hypothesisTypeCode, int referenceTypeCode) {
+        long key = ((long) hypothesisTypeCode << 32) | referenceTypeCode;
+        int index = pairIndexes.indexOf(key);
+        if (pairIndexes.indexExists(index)) {
+            return pairIndexes.indexGet(index);
+        }
+        int pairIndex = pairIndexes.size();
+        pairIndexes.indexInsert(index, key, pairIndex);
+        if (pairIndex == hypothesisMatched.length) {
+            hypothesisMatched = Arrays.copyOf(hypothesisMatched, pairIndex * 2);
+            referenceMatched = Arrays.copyOf(referenceMatched, pairIndex * 2);
+        }
+        return pairIndex;
+    }
+
+    int pairCount() {
+        return pairIndexes.size();
+    }
+
+    List<TypePairCounts> getPairCounts() {
+        List<TypePairCounts> pairCounts = new ArrayList<>(pairIndexes.size());
+        for (LongIntCursor cursor : pairIndexes) {
+            int hypothesisTypeCode = (int) (cursor.key >>> 32);
+            int referenceTypeCode = (int) cursor.key;
+            long both = hypothesisMatched[cursor.value];
+            long firstOnly = hypothesisCounts[hypothesisTypeCode] - both;
+            long secondOnly = referenceCounts[referenceTypeCode] - referenceMatched[cursor.value];
+            pairCounts.add(new TypePairCounts(hypothesisTypeNames.get(hypothesisTypeCode),
+                    referenceTypeNames.get(referenceTypeCode), both, firstOnly, secondOnly, locations));
+        }
+        return pairCounts;
+    }
+
+    /**
+     * The 2x2 table for a pair of types and the metrics computed from it. The true negatives are the distinct
+     * annotation locations in the shared documents covered by neither type.
+     */
+    static class TypePairCounts {
+        private final String hypothesisType;
+
+        private final String referenceType;
+
+        private final long both;
+
+        private final long firstOnly;
+
+        private final long secondOnly;
+
+        private final long neither;
+
+        TypePairCounts(String hypothesisType, String referenceType, long both, long firstOnly, long secondOnly,
+                       long locations) {
+            this.hypothesisType = hypothesisType;
+            this.referenceType = referenceType;
+            this.both = both;
+            this.firstOnly = firstOnly;
+            this.secondOnly = secondOnly;
+            neither = Math.max(0, locations - both - firstOnly - secondOnly);
+        }
+
+        String getHypothesisType() {
+            return hypothesisType;
+        }
+
+        String getReferenceType() {
+            return referenceType;
+        }
+
+        long getBoth() {
+            return both;
+        }
+
+        long getFirstOnly() {
+            return firstOnly;
+        }
+
+        long getSecondOnly() {
+            return secondOnly;
+        }
+
+        long getNeither() {
+            return neither;
+        }
+
+        double getFMeasure() {
+            return 2.0 * both / (2.0 * both + firstOnly + secondOnly);
+        }
+
+        double getJaccard() {
+            return both / ((double) both + firstOnly + secondOnly);
+        }
+
+        double getMatthews() {
+            double denominator = Math.sqrt(((double) both + firstOnly) * ((double) both + secondOnly)
+                    * ((double) neither + firstOnly) * ((double) neither + secondOnly));
+            if (denominator == 0) {
+                return 0;
+            }
+            return ((double) both * neither - (double) firstOnly * secondOnly) / denominator;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.core.InstanceIndexes;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Configuration for a type matrix analysis, which compares every annotation type of one system against every
+ * annotation type of another system.
+ *
+ * @since 1.2.0
+ */
+public class TypeMatrixConfig {
+    @Nullable
+    private String hypothesisSystemIndex;
+
+    @Nullable
+    private String referenceSystemIndex;
+
+    @Nullable
+    private InstanceIndexes instanceIndexes;
+
+    @Nullable
+    private String description;
+
+    private int fuzzDistance;
+
+    private boolean aggregate;
+
+    public void initFromMap(Map<String, Object> jsonMap) throws AnalysisConfigurationException {
+        String hypothesisSystemIndex = (String) jsonMap.get("hypothesisSystem");
+        if (hypothesisSystemIndex == null) {
+            throw new AnalysisConfigurationException("null hypothesis system");
+        }
+        this.hypothesisSystemIndex = hypothesisSystemIndex;
+
+        String referenceSystemIndex = (String) jsonMap.get("referenceSystem");
+        if (referenceSystemIndex == null) {
+            throw new AnalysisConfigurationException("null reference system");
+        }
+        this.referenceSystemIndex = referenceSystemIndex;
+
+        String instance = (String) jsonMap.get("instance");
+        if (instance == null) {
+            throw new AnalysisConfigurationException("null instance");
+        }
+        this.instanceIndexes = new InstanceIndexes(instance);
+
+        String description = (String) jsonMap.get("description");
+        if (description == null) {
+            throw new AnalysisConfigurationException("null description");
+        }
+        this.description = description;
+
+        Integer fuzzDistance = (Integer) jsonMap.get("fuzzDistance");
+        if (fuzzDistance == null) {
+            throw new AnalysisConfigurationException("fuzzDistance was null");
+        }
+        this.fuzzDistance = fuzzDistance;
+
+        Boolean aggregate = (Boolean) jsonMap.get("aggregate");
+        this.aggregate = aggregate != null && aggregate;
+    }
+
+    String getHypothesisSystemIndex() {
+        if (hypothesisSystemIndex == null) {
+            throw new IllegalStateException("hypothesisSystemIndex not initialized");
+        }
+        return hypothesisSystemIndex;
+    }
+
+    String getReferenceSystemIndex() {
+        if (referenceSystemIndex == null) {
+            throw new IllegalStateException("referenceSystemIndex not initialized");
+        }
+        return referenceSystemIndex;
+    }
+
+    InstanceIndexes getInstanceIndexes() {
+        if (instanceIndexes == null) {
+            throw new IllegalStateException("instanceIndexes not initialized");
+        }
+        return instanceIndexes;
+    }
+
+    int getFuzzDistance() {
+        return fuzzDistance;
+    }
+
+    /**
+     * Whether to count the co-occurrences with a single span co-occurrence aggregation over the packed annotations in
+     * the search index instead of loading the annotations of each shared document.
+     *
+     * @return true if the analysis should be aggregated on the shards
+     */
+    boolean isAggregate() {
+        return aggregate;
+    }
+
+    void append(XContentBuilder xContentBuilder) throws IOException {
+        xContentBuilder.field("hypothesisSystem", getHypothesisSystemIndex())
+                .field("referenceSystem", getReferenceSystemIndex())
+                .field("description", description)
+                .field("fuzzDistance", fuzzDistance);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.analysis;
+
+import edu.umn.nlptab.NlpTabException;
+import edu.umn.nlptab.systemindex.FeatureStructureRouting;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.ClearScrollResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Runs a type matrix analysis, loading all of the annotations of both systems once per shared document and counting
+ * the co-occurrences of every pair of types in a {@link TypeCoOccurrenceMatrix}.
+ *
+ * @since 1.2.0
+ */
+public class TypeMatrixRunner {
+    private static final ESLogger logger = Loggers.getLogger(TypeMatrixRunner.class);
+
+    static final String PAIR_COUNTS_TYPE = "TypePairCounts";
+
+    private static final int PAGE_SIZE = 1000;
+
+    private final Provider<AnalysisSetup> analysisSetupProvider;
+
+    private final Client client;
+
+    private final FeatureStructureRouting featureStructureRouting;
+
+    private final PackedAnnotationsReader packedAnnotationsReader;
+
+    private String id;
+
+    private TypeMatrixConfig typeMatrixConfig;
+
+    @Inject
+    TypeMatrixRunner(Provider<AnalysisSetup> analysisSetupProvider,
+                     Client client,
+                     FeatureStructureRouting featureStructureRouting,
+                     PackedAnnotationsReader packedAnnotationsReader) {
+        this.analysisSetupProvider = analysisSetupProvider;
+        this.client = client;
+        this.featureStructureRouting = featureStructureRouting;
+        this.packedAnnotationsReader = packedAnnotationsReader;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public void setTypeMatrixConfig(TypeMatrixConfig typeMatrixConfig) {
+        this.typeMatrixConfig = typeMatrixConfig;
+    }
+
+    /**
+     * Runs the type matrix analysis.
+     */
+    public void setupIndexAndPerformAnalysis() {
+        String analysisIndex = typeMatrixConfig.getInstanceIndexes().analysisIndex();
+
+        try {
+            analysisSetupProvider.get().setUpElasticSearch(typeMatrixConfig.getInstanceIndexes());
+
+            performAnalysis();
+            client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                    .setDoc(XContentFactory.jsonBuilder()
+                            .startObject()
+                            .field("finished", true)
+                            .endObject())
+                    .get();
+        } catch (IOException | NlpTabException e) {
+            logger.error("Failed type matrix analysis", e);
+            try {
+                client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                        .setDoc(XContentFactory.jsonBuilder()
+                                .startObject()
+                                .field("finished", true)
+                                .field("failed", true)
+                                .field("error", e.getLocalizedMessage())
+                                .endObject())
+                        .get();
+            } catch (IOException e1) {
+                logger.error("Failed to upload failure object", e1);
+            }
+        }
+    }
+
+    private void performAnalysis() throws IOException, NlpTabException {
+        String hypothesisSystemIndex = typeMatrixConfig.getHypothesisSystemIndex();
+        String referenceSystemIndex = typeMatrixConfig.getReferenceSystemIndex();
+        logger.info("Running type matrix of {} against {}.", hypothesisSystemIndex, referenceSystemIndex);
+
+        String analysisIndex = typeMatrixConfig.getInstanceIndexes().analysisIndex();
+        String searchIndex = typeMatrixConfig.getInstanceIndexes().searchIndex();
+
+        int completed = 0;
+
+        client.prepareIndex(analysisIndex, "AnalysisTask", id)
+                .setSource(XContentFactory.jsonBuilder()
+                        .startObject()
+                        .field("typeMatrix", true)
+                        .field("total", Math.min(countDocumentsInSystem(hypothesisSystemIndex),
+                                countDocumentsInSystem(referenceSystemIndex)))
+                        .field("completed", 0)
+                        .field("finished", false)
+                        .field("failed", false)
+                        .nullField("error")
+                        .endObject())
+                .get();
+
+        if (typeMatrixConfig.isAggregate()) {
+            aggregateAnalysis(analysisIndex, searchIndex, hypothesisSystemIndex, referenceSystemIndex);
+            return;
+        }
+
+        TypeCoOccurrenceMatrix matrix = new TypeCoOccurrenceMatrix(typeMatrixConfig.getFuzzDistance());
+        AnnotationSpans hypothesisSpans = new AnnotationSpans();
+        AnnotationSpans referenceSpans = new AnnotationSpans();
+
+        try (DocumentIdentifierSource hypothesisIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                hypothesisSystemIndex);
+             DocumentIdentifierSource referenceIdentifiers = new DocumentIdentifierSource(client, searchIndex,
+                     referenceSystemIndex)) {
+            SharedDocumentIdentifiers documentIdentifiers = new SharedDocumentIdentifiers(hypothesisIdentifiers,
+                    referenceIdentifiers);
+            while (documentIdentifiers.hasNext()) {
+                String documentIdentifier = documentIdentifiers.next();
+                logger.debug("Sweeping document: {}", documentIdentifier);
+
+                loadAnnotations(searchIndex, hypothesisSystemIndex, documentIdentifier, hypothesisSpans,
+                        matrix::hypothesisTypeCode);
+                loadAnnotations(searchIndex, referenceSystemIndex, documentIdentifier, referenceSpans,
+                        matrix::referenceTypeCode);
+                matrix.addDocument(hypothesisSpans, referenceSpans);
+
+                client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                        .setDoc(XContentFactory.jsonBuilder()
+                                .startObject()
+                                .field("completed", ++completed)
+                                .endObject())
+                        .get();
+            }
+        }
+
+        logger.info("Found {} co-occurring type pairs in {} shared documents", matrix.pairCount(), completed);
+
+        uploadPairCounts(analysisIndex, matrix.getPairCounts());
+
+        client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                .setDoc(XContentFactory.jsonBuilder()
+                        .startObject()
+                        .field("total", completed)
+                        .field("pairs", matrix.pairCount())
+                        .endObject())
+                .get();
+    }
+
+    private void aggregateAnalysis(String analysisIndex,
+                                   String searchIndex,
+                                   String hypothesisSystemIndex,
+                                   String referenceSystemIndex) throws IOException, NlpTabException {
+        SearchResponse response = client.prepareSearch(searchIndex)
+                .setTypes("DocumentInSystem")
+                .setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.termsQuery("systemIndex",
+                        hypothesisSystemIndex, referenceSystemIndex)))
+                .setSize(0)
+                .addAggregation(new SpanCoOccurrenceBuilder("spanCoOccurrence")
+                        .hypothesisSystem(hypothesisSystemIndex)
+                        .referenceSystem(referenceSystemIndex)
+                        .fuzzDistance(typeMatrixConfig.getFuzzDistance()))
+                .get();
+        if (response.getFailedShards() > 0) {
+            throw new NlpTabException("Span co-occurrence failed on " + response.getFailedShards() + " shards: "
+                    + Arrays.toString(response.getShardFailures()));
+        }
+
+        InternalSpanCoOccurrence spanCoOccurrence = response.getAggregations().get("spanCoOccurrence");
+        if (spanCoOccurrence.getUnpackedDocuments() > 0) {
+            throw new NlpTabException(spanCoOccurrence.getUnpackedDocuments() + " shared documents have no packed "
+                    + "annotations, re-index the systems or run the type matrix without aggregate");
+        }
+        List<TypeCoOccurrenceMatrix.TypePairCounts> pairCounts = spanCoOccurrence.getPairCounts();
+        logger.info("Found {} co-occurring type pairs in {} shared documents", pairCounts.size(),
+                spanCoOccurrence.getSharedDocuments());
+
+        uploadPairCounts(analysisIndex, pairCounts);
+
+        client.prepareUpdate(analysisIndex, "AnalysisTask", id)
+                .setDoc(XContentFactory.jsonBuilder()
+                        .startObject()
+                        .field("total", spanCoOccurrence.getSharedDocuments())
+                        .field("completed", spanCoOccurrence.getSharedDocuments())
+                        .field("pairs", pairCounts.size())
+                        .endObject())
+                .get();
+    }
+
+    private void loadAnnotations(String searchIndex,
+                                 String systemIndex,
+                                 String documentIdentifier,
+                                 AnnotationSpans spans,
+                                 ToIntFunction<String> typeCodes) throws NlpTabException {
+        PackedAnnotations packedAnnotations = packedAnnotationsReader.read(searchIndex, systemIndex,
+                documentIdentifier);
+        if (packedAnnotations != null) {
+            packedAnnotations.fill(spans, typeCodes);
+            return;
+        }
+        logger.debug("No packed annotations for {} in {}, loading from the system index", documentIdentifier,
+                systemIndex);
+
+        spans.clear();
+
+        SearchResponse response = client.prepareSearch(systemIndex)
+                .setTypes("FeatureStructure")
+                .setRouting(featureStructureRouting.routing(systemIndex, documentIdentifier))
+                .setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.termQuery("documentIdentifier", documentIdentifier))
+                        .must(QueryBuilders.existsQuery("primaryLocation.begin"))))
+                .setFetchSource(new String[]{"primaryType", "primaryLocation"}, null)
+                .addSort("primaryLocation.begin", SortOrder.ASC)
+                .setScroll(TimeValue.timeValueMinutes(2))
+                .setSize(PAGE_SIZE)
+                .get();
+
+        try {
+            SearchHit[] hits = response.getHits().getHits();
+            while (hits.length > 0) {
+                for (SearchHit hit : hits) {
+                    Map<String, Object> source = hit.getSource();
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> primaryLocation = (Map<String, Object>) source.get("primaryLocation");
+                    spans.add((Integer) primaryLocation.get("begin"), (Integer) primaryLocation.get("end"),
+                            typeCodes.applyAsInt((String) source.get("primaryType")));
+                }
+
+                response = client.prepareSearchScroll(response.getScrollId())
+                        .setScroll(TimeValue.timeValueMinutes(2))
+                        .get();
+                hits = response.getHits().getHits();
+            }
+        } finally {
+            ClearScrollResponse clearScrollResponse = client.prepareClearScroll()
+                    .addScrollId(response.getScrollId())
+                    .get();
+            if (!clearScrollResponse.isSucceeded()) {
+                logger.debug("Failed to clear scroll: {}", clearScrollResponse.status());
+            }
+        }
+    }
+
+    private void uploadPairCounts(String analysisIndex, List<TypeCoOccurrenceMatrix.TypePairCounts> typePairCounts)
+            throws IOException, NlpTabException {
+        BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (TypeCoOccurrenceMatrix.TypePairCounts pairCounts : typePairCounts) {
+            XContentBuilder xContentBuilder = XContentFactory.jsonBuilder()
+                    .startObject()
+                    .field("analysisId", id);
+            typeMatrixConfig.append(xContentBuilder);
+            xContentBuilder.field("hypothesisType", pairCounts.getHypothesisType())
+                    .field("referenceType", pairCounts.getReferenceType())
+                    .field("both", pairCounts.getBoth())
+                    .field("firstOnly", pairCounts.getFirstOnly())
+                    .field("secondOnly", pairCounts.getSecondOnly())
+                    .field("fMeasure", pairCounts.getFMeasure())
+                    .field("jaccard", pairCounts.getJaccard())
+                    .field("matthews", pairCounts.getMatthews())
+                    .endObject();
+
+            bulkRequestBuilder.add(client.prepareIndex(analysisIndex, PAIR_COUNTS_TYPE).setSource(xContentBuilder));
+
+            if (bulkRequestBuilder.numberOfActions() >= 2000) {
+                executeBulk(bulkRequestBuilder);
+                bulkRequestBuilder = client.prepareBulk();
+            }
+        }
+
+        if (bulkRequestBuilder.numberOfActions() > 0) {
+            executeBulk(bulkRequestBuilder);
+        }
+    }
+
+    private static void executeBulk(BulkRequestBuilder bulkRequestBuilder) throws NlpTabException {
+        BulkResponse bulkResponse = bulkRequestBuilder.get();
+        if (bulkResponse.hasFailures()) {
+            throw new NlpTabException("Failed to upload type pair counts: " + bulkResponse.buildFailureMessage());
+        }
+    }
+
+    private long countDocumentsInSystem(String systemIndex) {
+        return client.prepareSearch(typeMatrixConfig.getInstanceIndexes().searchIndex())
+                .setTypes("DocumentInSystem")
+                .setQuery(QueryBuilders.constantScoreQuery(QueryBuilders.termQuery("systemIndex", systemIndex)))
+                .setSize(0)
+                .get()
+                .getHits()
+                .getTotalHits();
+    }
+}
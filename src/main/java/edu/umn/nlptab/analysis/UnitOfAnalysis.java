@@ -16,17 +16,17 @@
 
 package edu.umn.nlptab.analysis;
 
+import edu.umn.nlptab.systemindex.FeatureStructureRouting;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Provider;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * The path of an analysis.
@@ -37,6 +37,8 @@ import java.util.Map;
 class UnitOfAnalysis {
     private final Provider<UnitOfAnalysisFilter> unitOfAnalysisFilterProvider;
 
+    private final FeatureStructureRouting featureStructureRouting;
+
     /**
      * The system index to run against.
      */
@@ -55,9 +57,16 @@ class UnitOfAnalysis {
     @Nullable
     private List<UnitOfAnalysisFilter> analysisFilters;
 
+    /**
+     * Source fields of the feature structures read by the analysis.
+     */
+    private final Set<String> sourceFields = new TreeSet<>(Arrays.asList("documentIdentifier", "primaryLocation"));
+
     @Inject
-    UnitOfAnalysis(Provider<UnitOfAnalysisFilter> unitOfAnalysisFilterProvider) {
+    UnitOfAnalysis(Provider<UnitOfAnalysisFilter> unitOfAnalysisFilterProvider,
+                   FeatureStructureRouting featureStructureRouting) {
         this.unitOfAnalysisFilterProvider = unitOfAnalysisFilterProvider;
+        this.featureStructureRouting = featureStructureRouting;
     }
 
     String getSystemIndex() {
@@ -74,6 +83,36 @@ class UnitOfAnalysis {
         return type;
     }
 
+    /**
+     * Adds source fields which are read from the feature structures in this unit of analysis.
+     *
+     * @param sourceFields the source field paths
+     */
+    void addSourceFields(Collection<String> sourceFields) {
+        this.sourceFields.addAll(sourceFields);
+    }
+
+    /**
+     * Returns the source fields to include when fetching feature structures in this unit of analysis, which are the
+     * document identifier, primary location and the fields read by the feature value mappings.
+     *
+     * @return source field paths for source filtering
+     */
+    String[] getSourceFields() {
+        return sourceFields.toArray(new String[sourceFields.size()]);
+    }
+
+    /**
+     * Returns the routing of the feature structures of a document in the system index.
+     *
+     * @param documentId the document identifier
+     * @return the routing, or null if the system index is not routed by document
+     */
+    @Nullable
+    String routing(String documentId) {
+        return featureStructureRouting.routing(getSystemIndex(), documentId);
+    }
+
     BoolQueryBuilder queryInDocument(String documentId) {
         if (type == null) {
             throw new IllegalStateException("type not initialized");
@@ -82,11 +121,12 @@ class UnitOfAnalysis {
             throw new IllegalStateException("analysisFilters not initialized");
         }
 
+        // every clause is a non-scoring filter so that the type and filter clauses are cached by elasticsearch
         BoolQueryBuilder boolQuery = QueryBuilders.boolQuery()
-                .must(QueryBuilders.termQuery("types", type))
-                .must(QueryBuilders.termQuery("documentIdentifier", documentId));
+                .filter(QueryBuilders.termQuery("types", type))
+                .filter(QueryBuilders.termQuery("documentIdentifier", documentId));
         for (UnitOfAnalysisFilter analysisFilter : analysisFilters) {
-            boolQuery.must(analysisFilter.buildQuery());
+            boolQuery.filter(analysisFilter.buildQuery());
         }
         return boolQuery;
     }
@@ -96,6 +136,23 @@ class UnitOfAnalysis {
                 .field("typeName", type);
     }
 
+    void appendFingerprintTo(XContentBuilder xContentBuilder) throws IOException {
+        if (analysisFilters == null) {
+            throw new IllegalStateException("analysisFilters not initialized");
+        }
+        appendTo(xContentBuilder);
+
+        // every filter must match, so their order does not matter
+        List<String> filters = new ArrayList<>(analysisFilters.size());
+        for (UnitOfAnalysisFilter analysisFilter : analysisFilters) {
+            XContentBuilder filterBuilder = XContentFactory.jsonBuilder().startObject();
+            analysisFilter.appendTo(filterBuilder);
+            filters.add(filterBuilder.endObject().string());
+        }
+        Collections.sort(filters);
+        xContentBuilder.array("filters", filters.toArray());
+    }
+
     void initFromJsonMap(Map<String, Object> jsonMap) throws AnalysisConfigurationException {
         systemIndex = (String) jsonMap.get("selectedSystem");
         type = (String) jsonMap.get("selectedType");
@@ -1,16 +1,27 @@
 package edu.umn.nlptab.analysis;
 
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  *
  */
 class UnitOfAnalysisFilter {
+    private static final String QUERY_SYNTAX = "*?~()[]{}:\\^!+-/&|";
+
+    private static final Set<String> QUERY_OPERATORS = new HashSet<>(Arrays.asList("AND", "NOT", "TO"));
+
     private final Feature feature;
 
     @Nullable
@@ -19,24 +30,121 @@ class UnitOfAnalysisFilter {
     @Nullable
     private String value;
 
+    @Nullable
+    private QueryBuilder query;
+
     @Inject
     UnitOfAnalysisFilter(Feature feature) {
         this.feature = feature;
     }
 
-    void initFromJsonMap(Map<String, Object> json) {
+    void initFromJsonMap(Map<String, Object> json) throws AnalysisConfigurationException {
         filterOption = (String) json.get("option");
         value = (String) json.get("value");
         feature.initFromJsonMap(json);
+        query = compileQuery();
     }
 
-    QueryBuilder buildQuery() {
+    /**
+     * Compiles the filter into a term query for "equals" or a terms query for "in", once per analysis, instead of a
+     * query string which would be re-parsed on every request. The values of "in" are separated by whitespace, may be
+     * double quoted to contain whitespace, and may be separated by {@code OR} as in the query string syntax. Values
+     * which use any other query string syntax, such as wildcards, ranges or boolean operators, are still matched with
+     * a query string.
+     */
+    private QueryBuilder compileQuery() throws AnalysisConfigurationException {
+        if (value == null) {
+            throw new AnalysisConfigurationException("null filter value");
+        }
         if ("in".equals(filterOption)) {
-            return QueryBuilders.queryStringQuery(feature.fullLucenePath() + ":(" + value + ")");
+            if (hasQuerySyntax(value)) {
+                return QueryBuilders.queryStringQuery(feature.fullLucenePath() + ":(" + value + ")");
+            }
+            return QueryBuilders.termsQuery(feature.fullLucenePath(), splitValues(value));
         } else if ("equals".equals(filterOption)) {
-            return QueryBuilders.queryStringQuery(feature.fullLucenePath() + ":" + value);
+            if (hasQuerySyntax(value)) {
+                return QueryBuilders.queryStringQuery(feature.fullLucenePath() + ":" + value);
+            }
+            return QueryBuilders.termQuery(feature.fullLucenePath(), unquote(value.trim()));
         } else {
-            throw new IllegalStateException("Unknown equivalence option");
+            throw new AnalysisConfigurationException("Unknown equivalence option: " + filterOption);
+        }
+    }
+
+    /**
+     * Returns whether the value uses query string syntax outside of double quotes other than {@code OR} between
+     * values.
+     */
+    private static boolean hasQuerySyntax(String value) {
+        boolean quoted = false;
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : ' ';
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted) {
+                if (QUERY_SYNTAX.indexOf(c) != -1) {
+                    return true;
+                }
+                if (Character.isWhitespace(c)) {
+                    if (QUERY_OPERATORS.contains(token.toString())) {
+                        return true;
+                    }
+                    token.setLength(0);
+                } else {
+                    token.append(c);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<String> splitValues(String value) {
+        List<String> values = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean hasCurrent = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                hasCurrent = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                addValue(values, current, hasCurrent);
+                hasCurrent = false;
+            } else {
+                current.append(c);
+                hasCurrent = true;
+            }
         }
+        addValue(values, current, hasCurrent);
+        return values;
+    }
+
+    private static void addValue(List<String> values, StringBuilder current, boolean hasCurrent) {
+        if (hasCurrent && !"OR".contentEquals(current)) {
+            values.add(current.toString());
+        }
+        current.setLength(0);
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    QueryBuilder buildQuery() {
+        if (query == null) {
+            throw new IllegalStateException("query not initialized");
+        }
+        return query;
+    }
+
+    void appendTo(XContentBuilder xContentBuilder) throws IOException {
+        xContentBuilder.field("feature", feature.fullLucenePath())
+                .field("option", filterOption)
+                .field("value", value);
     }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.analysis;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Function;
+
+import static edu.umn.nlptab.analysis.EquivalenceTest.*;
+
+/**
+ * Factories for the {@link ValueMatcher} implementation of each {@link EquivalenceTest}. The factory is looked up once
+ * when the analysis configuration is parsed, and it is applied once per hypothesis value, building any hash set of the
+ * hypothesis value up front so that each reference value is tested without copying or allocating.
+ * <p>Each matcher agrees with {@link EquivalenceTest#test(Object, Object)} for its equivalence test.</p>
+ *
+ * @since 1.2.0
+ */
+final class ValueMatchers {
+    private ValueMatchers() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static final Map<EquivalenceTest, Function<Object, ValueMatcher>> FACTORIES = buildFactories();
+
+    private static Map<EquivalenceTest, Function<Object, ValueMatcher>> buildFactories() {
+        Map<EquivalenceTest, Function<Object, ValueMatcher>> factories = new EnumMap<>(EquivalenceTest.class);
+        factories.put(ANY_ARE_IN, ValueMatchers::anyAreIn);
+        factories.put(NONE_ARE_IN, ValueMatchers::noneAreIn);
+        factories.put(ALL_ARE_IN, ValueMatchers::allAreIn);
+        factories.put(COVERS_ALL, ValueMatchers::coversAll);
+        factories.put(EQUALS, Equals::new);
+        factories.put(IS_EQUAL_TO_ALL, IsEqualToAll::new);
+        factories.put(ANY_ARE_EQUAL_TO, ValueMatchers::anyAreEqualTo);
+        factories.put(NONE_ARE_EQUAL_TO, ValueMatchers::noneAreEqualTo);
+        factories.put(IS_IN, IsIn::new);
+        factories.put(IS_NOT_IN, IsNotIn::new);
+        factories.put(DOES_NOT_EQUAL, DoesNotEqual::new);
+        return Collections.unmodifiableMap(factories);
+    }
+
+    static Function<Object, ValueMatcher> getFactory(EquivalenceTest equivalenceTest) {
+        return FACTORIES.get(equivalenceTest);
+    }
+
+    private static ValueMatcher anyAreIn(@Nullable Object hypothesisValue) {
+        if (hypothesisValue instanceof Collection) {
+            return new AnyAreIn((Collection<?>) hypothesisValue);
+        } else {
+            return new IsIn(hypothesisValue);
+        }
+    }
+
+    private static ValueMatcher noneAreIn(@Nullable Object hypothesisValue) {
+        if (hypothesisValue instanceof Collection) {
+            return new NoneAreIn((Collection<?>) hypothesisValue);
+        } else {
+            return new IsNotIn(hypothesisValue);
+        }
+    }
+
+    private static ValueMatcher allAreIn(@Nullable Object hypothesisValue) {
+        if (hypothesisValue instanceof Collection) {
+            return new AllAreIn((Collection<?>) hypothesisValue);
+        } else {
+            return new IsIn(hypothesisValue);
+        }
+    }
+
+    private static ValueMatcher coversAll(@Nullable Object hypothesisValue) {
+        if (hypothesisValue instanceof Collection) {
+            return new CoversAll((Collection<?>) hypothesisValue);
+        } else {
+            return new IsEqualToAll(hypothesisValue);
+        }
+    }
+
+    private static ValueMatcher anyAreEqualTo(@Nullable Object hypothesisValue) {
+        if (hypothesisValue instanceof Collection) {
+            Set<?> hypothesisSet = new HashSet<>((Collection<?>) hypothesisValue);
+            return hypothesisSet::contains;
+        } else {
+            return new Equals(hypothesisValue);
+        }
+    }
+
+    private static ValueMatcher noneAreEqualTo(@Nullable Object hypothesisValue) {
+        if (hypothesisValue instanceof Collection) {
+            Set<?> hypothesisSet = new HashSet<>((Collection<?>) hypothesisValue);
+            return referenceValue -> !hypothesisSet.contains(referenceValue);
+        } else {
+            return new DoesNotEqual(hypothesisValue);
+        }
+    }
+
+    private static class Equals implements ValueMatcher {
+        @Nullable private final Object hypothesisValue;
+
+        Equals(@Nullable Object hypothesisValue) {
+            this.hypothesisValue = hypothesisValue;
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            return Objects.equals(hypothesisValue, referenceValue);
+        }
+    }
+
+    private static class DoesNotEqual implements ValueMatcher {
+        @Nullable private final Object hypothesisValue;
+
+        DoesNotEqual(@Nullable Object hypothesisValue) {
+            this.hypothesisValue = hypothesisValue;
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            return !Objects.equals(hypothesisValue, referenceValue);
+        }
+    }
+
+    private static class IsIn implements ValueMatcher {
+        @Nullable private final Object hypothesisValue;
+
+        IsIn(@Nullable Object hypothesisValue) {
+            this.hypothesisValue = hypothesisValue;
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            if (referenceValue instanceof Collection) {
+                return ((Collection<?>) referenceValue).contains(hypothesisValue);
+            } else {
+                return Objects.equals(hypothesisValue, referenceValue);
+            }
+        }
+    }
+
+    private static class IsNotIn implements ValueMatcher {
+        @Nullable private final Object hypothesisValue;
+
+        IsNotIn(@Nullable Object hypothesisValue) {
+            this.hypothesisValue = hypothesisValue;
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            if (referenceValue instanceof Collection) {
+                return !((Collection<?>) referenceValue).contains(hypothesisValue);
+            } else {
+                return !Objects.equals(hypothesisValue, referenceValue);
+            }
+        }
+    }
+
+    private static class IsEqualToAll implements ValueMatcher {
+        @Nullable private final Object hypothesisValue;
+
+        IsEqualToAll(@Nullable Object hypothesisValue) {
+            this.hypothesisValue = hypothesisValue;
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            if (referenceValue instanceof Collection) {
+                for (Object reference : (Collection<?>) referenceValue) {
+                    if (!Objects.equals(hypothesisValue, reference)) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                return Objects.equals(hypothesisValue, referenceValue);
+            }
+        }
+    }
+
+    private static class AnyAreIn implements ValueMatcher {
+        private final Collection<?> hypothesisCollection;
+
+        private final Set<?> hypothesisSet;
+
+        AnyAreIn(Collection<?> hypothesisCollection) {
+            this.hypothesisCollection = hypothesisCollection;
+            hypothesisSet = new HashSet<>(hypothesisCollection);
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            if (referenceValue instanceof Collection) {
+                for (Object reference : (Collection<?>) referenceValue) {
+                    if (hypothesisSet.contains(reference)) {
+                        return true;
+                    }
+                }
+                return false;
+            } else {
+                return Objects.equals(hypothesisCollection, referenceValue);
+            }
+        }
+    }
+
+    private static class NoneAreIn implements ValueMatcher {
+        private final Collection<?> hypothesisCollection;
+
+        private final Set<?> hypothesisSet;
+
+        NoneAreIn(Collection<?> hypothesisCollection) {
+            this.hypothesisCollection = hypothesisCollection;
+            hypothesisSet = new HashSet<>(hypothesisCollection);
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            if (referenceValue instanceof Collection) {
+                for (Object reference : (Collection<?>) referenceValue) {
+                    if (hypothesisSet.contains(reference)) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                return !Objects.equals(hypothesisCollection, referenceValue);
+            }
+        }
+    }
+
+    /**
+     * Tests that every hypothesis value is in the reference collection by marking off the distinct hypothesis values
+     * seen while iterating the reference collection once.
+     */
+    private static class AllAreIn implements ValueMatcher {
+        private final Collection<?> hypothesisCollection;
+
+        private final Map<Object, Integer> hypothesisIndexes;
+
+        private final boolean[] seen;
+
+        AllAreIn(Collection<?> hypothesisCollection) {
+            this.hypothesisCollection = hypothesisCollection;
+            hypothesisIndexes = new HashMap<>();
+            for (Object hypothesis : hypothesisCollection) {
+                hypothesisIndexes.putIfAbsent(hypothesis, hypothesisIndexes.size());
+            }
+            seen = new boolean[hypothesisIndexes.size()];
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            if (referenceValue instanceof Collection) {
+                Arrays.fill(seen, false);
+                int remaining = seen.length;
+                for (Object reference : (Collection<?>) referenceValue) {
+                    if (remaining == 0) {
+                        break;
+                    }
+                    Integer index = hypothesisIndexes.get(reference);
+                    if (index != null && !seen[index]) {
+                        seen[index] = true;
+                        remaining--;
+                    }
+                }
+                return remaining == 0;
+            } else {
+                return Objects.equals(hypothesisCollection, referenceValue);
+            }
+        }
+    }
+
+    private static class CoversAll implements ValueMatcher {
+        private final Collection<?> hypothesisCollection;
+
+        private final Set<?> hypothesisSet;
+
+        CoversAll(Collection<?> hypothesisCollection) {
+            this.hypothesisCollection = hypothesisCollection;
+            hypothesisSet = new HashSet<>(hypothesisCollection);
+        }
+
+        @Override
+        public boolean matches(@Nullable Object referenceValue) {
+            if (referenceValue instanceof Collection) {
+                for (Object reference : (Collection<?>) referenceValue) {
+                    if (!hypothesisSet.contains(reference)) {
+                        return false;
+                    }
+                }
+                return true;
+            } else {
+                return Objects.equals(hypothesisCollection, referenceValue);
+            }
+        }
+    }
+}
@@ -55,6 +55,8 @@ public class SofaData {
 
     private final Map<String, FsDocumentLocation> documentLocationMap;
 
+    private final Map<String, String> typeNameForIdentifier;
+
     private final CAS cas;
 
     private final String casIdentifier;
@@ -75,6 +77,7 @@ public class SofaData {
         identifierForFsRef = new ConcurrentHashMap<>();
         childToParentMap = new ConcurrentHashMap<>();
         documentLocationMap = new ConcurrentHashMap<>();
+        typeNameForIdentifier = new ConcurrentHashMap<>();
 
         this.casIdentifier = casIdentifier;
         this.cas = cas;
@@ -135,6 +138,7 @@ public class SofaData {
                 if (identifier == null) {
                     identifier = Strings.base64UUID();
                     identifierForFsRef.put(fsRef, identifier);
+                    typeNameForIdentifier.put(identifier, typeName);
                 }
                 newlyCreated = true;
             }
@@ -170,6 +174,11 @@ public class SofaData {
         return documentLocationMap;
     }
 
+    @Nullable
+    public String getTypeNameForIdentifier(String featureStructureIdentifier) {
+        return typeNameForIdentifier.get(featureStructureIdentifier);
+    }
+
     public BlockingQueue<Integer> getFsRefQueue() {
         return fsRefQueue;
     }
@@ -13,25 +13,18 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+package edu.umn.nlptab.core;
 
-package edu.umn.nlptab.esplugin;
-
-import org.elasticsearch.script.ExecutableScript;
-import org.elasticsearch.script.NativeScriptFactory;
-
-import java.util.Map;
+import org.elasticsearch.common.inject.AbstractModule;
 
 /**
+ * Guice module for the node wide state of the core index setup.
  *
+ * @since 1.2.0
  */
-class AnnotationDistanceScriptFactory implements NativeScriptFactory {
-    @Override
-    public ExecutableScript newScript(Map<String, Object> params) {
-        return new AnnotationDistanceScript(params);
-    }
-
+public class CoreModule extends AbstractModule {
     @Override
-    public boolean needsScores() {
-        return false;
+    protected void configure() {
+        bind(InitializedIndexes.class).asEagerSingleton();
     }
 }
@@ -23,12 +23,14 @@ import org.elasticsearch.common.inject.Provider;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  *
  */
 public class ElasticSearchSetup {
     private final IndexInitializer indexInitializer;
+    private final Provider<IndexInitializer> indexInitializerProvider;
     private final Provider<EsTypeMapping> typeMappingProvider;
 
     @Nullable
@@ -38,9 +40,10 @@ public class ElasticSearchSetup {
     private String index;
 
     @Inject
-    public ElasticSearchSetup(IndexInitializer indexInitializer,
+    public ElasticSearchSetup(Provider<IndexInitializer> indexInitializerProvider,
                               Provider<EsTypeMapping> typeMappingProvider) {
-        this.indexInitializer = indexInitializer;
+        this.indexInitializer = indexInitializerProvider.get();
+        this.indexInitializerProvider = indexInitializerProvider;
         this.typeMappingProvider = typeMappingProvider;
     }
 
@@ -52,6 +55,35 @@ public class ElasticSearchSetup {
         this.index = index;
     }
 
+    /**
+     * Adds a type mapping which the next call to {@link #setUpPrimaryIndex(String)} creates the primary index with, so
+     * that the index and all of its mappings are created in a single request.
+     *
+     * @param typeName              the type name
+     * @param classpathResourceName the classpath resource containing the mapping
+     * @throws NlpTabException if the resource fails to read
+     */
+    public void addPrimaryIndexType(String typeName, String classpathResourceName) throws NlpTabException {
+        indexInitializer.addMapping(typeName, EsTypeMapping.readClasspathResource(classpathResourceName));
+    }
+
+    /**
+     * Adds a type mapping which the next call to {@link #setUpPrimaryIndex(String)} creates the primary index with.
+     *
+     * @param typeName the type name
+     * @param mapping  the mapping json
+     */
+    public void addPrimaryIndexTypeFromSource(String typeName, String mapping) {
+        indexInitializer.addMapping(typeName, mapping);
+    }
+
+    /**
+     * Creates the primary index with the settings and any type mappings added before, or brings the settings and
+     * mappings of the existing index up to date.
+     *
+     * @param settingsClasspathResourceName the classpath resource containing the index settings
+     * @throws NlpTabException if setting up the index fails
+     */
     public void setUpPrimaryIndex(String settingsClasspathResourceName) throws NlpTabException {
         Preconditions.checkNotNull(index);
 
@@ -79,13 +111,45 @@ public class ElasticSearchSetup {
         setUpEsType(index, typeName, classpathResourceName);
     }
 
-    public void setUpSearchIndexType(String typeName, String classpathResourceName) throws NlpTabException {
-        Preconditions.checkNotNull(instanceIndexes);
-        setUpEsType(instanceIndexes.searchIndex(), typeName, classpathResourceName);
+    public void setUpPrimaryIndexTypeFromSource(String typeName, String mapping) throws NlpTabException {
+        Preconditions.checkNotNull(index);
+
+        typeMappingProvider.get()
+                .setIndex(index)
+                .setType(typeName)
+                .setMapping(mapping)
+                .putTypeMapping();
     }
 
-    public void setUpMetadataIndexType(String typeName, String classpathResourceName) throws NlpTabException {
+    /**
+     * Creates the index of the instance with the instance index suffix, such as {@link InstanceIndexes#SEARCH_SUFFIX},
+     * with the settings and all of the type mappings in a single request, or brings the settings and mappings of the
+     * existing index up to date. The index and its mappings are recorded as initialized, so setting up the same
+     * instance index again on this node does not reach the master.
+     *
+     * @param suffix                        the instance index suffix
+     * @param settingsClasspathResourceName the classpath resource containing the index settings, or null for none
+     * @param classpathResourceNameForType  map from type name to the classpath resource containing its mapping
+     * @throws NlpTabException if a resource fails to read or setting up the index fails
+     */
+    public void setUpInstanceIndex(String suffix,
+                                   @Nullable String settingsClasspathResourceName,
+                                   Map<String, String> classpathResourceNameForType) throws NlpTabException {
         Preconditions.checkNotNull(instanceIndexes);
-        setUpEsType(instanceIndexes.metadataIndex(), typeName, classpathResourceName);
+
+        IndexInitializer instanceIndexInitializer = indexInitializerProvider.get();
+        instanceIndexInitializer.setIndex(instanceIndexes.getInstanceName() + suffix);
+        if (settingsClasspathResourceName != null) {
+            try {
+                instanceIndexInitializer.setSettingsFromClasspathResource(settingsClasspathResourceName);
+            } catch (IOException e) {
+                throw new NlpTabException(e);
+            }
+        }
+        for (Map.Entry<String, String> entry : classpathResourceNameForType.entrySet()) {
+            instanceIndexInitializer.addMapping(entry.getKey(),
+                    EsTypeMapping.readClasspathResource(entry.getValue()));
+        }
+        instanceIndexInitializer.initializeIndex();
     }
 }
@@ -18,7 +18,7 @@ package edu.umn.nlptab.core;
 
 import com.google.common.io.ByteStreams;
 import edu.umn.nlptab.NlpTabException;
-import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequestBuilder;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingResponse;
 import org.elasticsearch.client.Client;
@@ -26,6 +26,7 @@ import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -40,17 +41,20 @@ import java.util.concurrent.ExecutionException;
 class EsTypeMapping {
     private static final ESLogger LOGGER = Loggers.getLogger(EsTypeMapping.class);
     private final IndicesAdminClient indicesAdminClient;
+    private final InitializedIndexes initializedIndexes;
     private String index;
     private String type;
     private String mapping;
 
     /**
      * Default constructor, initializes the ElasticSearch Client where the type mapping will be put
-     * @param client ElasticSearch Client
+     * @param client             ElasticSearch Client
+     * @param initializedIndexes the mappings already put from this node
      */
     @Inject
-    EsTypeMapping(Client client) {
+    EsTypeMapping(Client client, InitializedIndexes initializedIndexes) {
         indicesAdminClient = client.admin().indices();
+        this.initializedIndexes = initializedIndexes;
     }
 
     /**
@@ -62,12 +66,47 @@ class EsTypeMapping {
      * @throws NlpTabException if the resource fails to read.
      */
     public EsTypeMapping setMappingFromClasspathResource(String resourcePath) throws NlpTabException {
-        try {
-            InputStream is = getClass().getClassLoader().getResourceAsStream(resourcePath);
-            mapping = new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
+        mapping = readClasspathResource(resourcePath);
+        return this;
+    }
+
+    /**
+     * Reads a mapping or settings resource from the classpath.
+     *
+     * @param resourcePath a path to load a resource from the classpath
+     * @return the resource text
+     * @throws NlpTabException if the resource fails to read.
+     */
+    static String readClasspathResource(String resourcePath) throws NlpTabException {
+        try (InputStream is = EsTypeMapping.class.getClassLoader().getResourceAsStream(resourcePath)) {
+            if (is == null) {
+                throw new NlpTabException("Missing classpath resource: " + resourcePath);
+            }
+            return new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
         } catch (IOException e) {
             throw new NlpTabException(e);
         }
+    }
+
+    /**
+     * The key under which a mapping put to an index is recorded in {@link InitializedIndexes}.
+     *
+     * @param type    ElasticSearch type
+     * @param mapping the mapping json
+     * @return initialized key
+     */
+    static String initializedKey(String type, String mapping) {
+        return type + "/" + mapping;
+    }
+
+    /**
+     * Fluent interface which sets the mapping data from a mapping source.
+     *
+     * @param mapping the mapping json
+     * @return this EsTypeMapping
+     */
+    public EsTypeMapping setMapping(String mapping) {
+        this.mapping = mapping;
         return this;
     }
 
@@ -92,23 +131,22 @@ class EsTypeMapping {
     }
 
     /**
-     * Puts the type mapping to the ElasticSearch server specified by the client in the constructor.
+     * Puts the type mapping to the ElasticSearch server specified by the client in the constructor. Does nothing if the
+     * same mapping has already been put to the index from this node. If the index does not exist it is created with
+     * the mapping in a single request.
      *
      * @throws NlpTabException
      */
     public void putTypeMapping() throws NlpTabException {
-        IndicesExistsResponse indicesExistsResponse;
-        try {
-            indicesExistsResponse = indicesAdminClient.prepareExists(index).execute().get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new NlpTabException(e);
+        String key = initializedKey(type, mapping);
+        if (initializedIndexes.isInitialized(index, key)) {
+            LOGGER.trace("Mapping with type: {} already added to index: {}", type, index);
+            return;
         }
-        if (!indicesExistsResponse.isExists()) {
-            try {
-                indicesAdminClient.prepareCreate(index).execute().get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw new NlpTabException(e);
-            }
+
+        if (initializedIndexes.indexMetaData(index) == null && createIndexWithMapping()) {
+            initializedIndexes.markInitialized(index, key);
+            return;
         }
 
         PutMappingRequestBuilder putMappingRequestBuilder = indicesAdminClient.preparePutMapping(index);
@@ -127,5 +165,23 @@ class EsTypeMapping {
             LOGGER.debug("Adding mapping with type: {} to index: {} failed", type, index);
             throw new NlpTabException("Failed to add mapping type");
         }
+        initializedIndexes.markInitialized(index, key);
+    }
+
+    private boolean createIndexWithMapping() throws NlpTabException {
+        LOGGER.debug("Creating index: {} with mapping type: {}", index, type);
+        try {
+            if (!indicesAdminClient.prepareCreate(index).addMapping(type, mapping).execute().get().isAcknowledged()) {
+                throw new NlpTabException("Failed to create index with mapping type");
+            }
+            return true;
+        } catch (ExecutionException e) {
+            if (ExceptionsHelper.unwrapCause(e.getCause()) instanceof IndexAlreadyExistsException) {
+                return false;
+            }
+            throw new NlpTabException(e);
+        } catch (InterruptedException e) {
+            throw new NlpTabException(e);
+        }
     }
 }
@@ -17,26 +17,57 @@
 package edu.umn.nlptab.core;
 
 import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.settings.DynamicSettings;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.settings.IndexDynamicSettings;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 
+/**
+ * Creates an index with settings and type mappings, or brings the settings and mappings of an existing index up to
+ * date. A missing index is created with all of its mappings in a single request, which is a single cluster state
+ * update.
+ * <p>The settings of an existing index are compared with the live index first, and only the settings which differ are
+ * updated. The index is only closed and re-opened when one of those is a static setting, so initializing an index
+ * which is already up to date does not interrupt readers. Initialized settings are recorded in
+ * {@link InitializedIndexes}, and initializing them again on this node is skipped. The mappings of an existing index
+ * are put with {@link EsTypeMapping}, which skips them in the same way. When another node creates the index first, its
+ * settings are read from the master rather than from the local cluster state, which may not contain the index yet.</p>
+ */
 class IndexInitializer {
     private static final ESLogger LOGGER = Loggers.getLogger(IndexInitializer.class);
     private final IndicesAdminClient client;
+    private final DynamicSettings dynamicSettings;
+    private final InitializedIndexes initializedIndexes;
+    private final Provider<EsTypeMapping> typeMappingProvider;
+    private final Map<String, String> mappings = new LinkedHashMap<>();
     private String index;
-    private Settings settings;
+    private Settings settings = Settings.EMPTY;
 
     @Inject
-    IndexInitializer(Client client) {
+    IndexInitializer(Client client,
+                     @IndexDynamicSettings DynamicSettings dynamicSettings,
+                     InitializedIndexes initializedIndexes,
+                     Provider<EsTypeMapping> typeMappingProvider) {
         this.client = client.admin().indices();
+        this.dynamicSettings = dynamicSettings;
+        this.initializedIndexes = initializedIndexes;
+        this.typeMappingProvider = typeMappingProvider;
     }
 
     void setIndex(String index) {
@@ -47,6 +78,10 @@ class IndexInitializer {
         this.settings = settings;
     }
 
+    void addMapping(String type, String mapping) {
+        mappings.put(type, mapping);
+    }
+
     void setSettingsFromClasspathResource(String resourcePath) throws IOException {
         try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(resourcePath)) {
             setSettings(Settings.settingsBuilder().loadFromStream(resourcePath, inputStream).build());
@@ -54,28 +89,117 @@ class IndexInitializer {
     }
 
     void initializeIndex() throws NlpTabException {
+        String key = "_settings" + settings.getAsMap();
+        if (!initializedIndexes.isInitialized(index, key)) {
+            initializeSettings(key);
+        } else {
+            LOGGER.trace("Settings of index: {} already initialized", index);
+        }
+
+        for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+            typeMappingProvider.get()
+                    .setIndex(index)
+                    .setType(mapping.getKey())
+                    .setMapping(mapping.getValue())
+                    .putTypeMapping();
+        }
+    }
+
+    private void initializeSettings(String key) throws NlpTabException {
         try {
-            if (!client.prepareExists(index).execute().get().isExists()) {
-                LOGGER.debug("Creating index: {} with settings: {}", index, settings.toString());
-                if (!client.prepareCreate(index).setSettings(settings).execute().get().isAcknowledged()) {
-                    LOGGER.error("Failed to create index: {} before updating settings", index);
+            IndexMetaData indexMetaData = initializedIndexes.indexMetaData(index);
+            Settings liveSettings;
+            if (indexMetaData != null) {
+                liveSettings = indexMetaData.getSettings();
+            } else if (createIndex()) {
+                initializedIndexes.markInitialized(index, key);
+                for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+                    initializedIndexes.markInitialized(index,
+                            EsTypeMapping.initializedKey(mapping.getKey(), mapping.getValue()));
                 }
+                return;
             } else {
-                if (!client.prepareClose(index).execute().get().isAcknowledged()) {
-                    LOGGER.error("Failed to close index: {} before updating settings", index);
+                // created concurrently, and the local cluster state may not have the index yet, so the settings are
+                // read from the master instead of treating every setting as changed
+                liveSettings = client.prepareGetSettings(index).execute().get().getIndexToSettings().get(index);
+                if (liveSettings == null) {
+                    throw new NlpTabException("Index: " + index + " was created concurrently but has no settings");
                 }
+            }
 
-                LOGGER.debug("Adding settings to index: {}", index);
-                if (!client.prepareUpdateSettings(index).setSettings(settings).execute().get().isAcknowledged()) {
+            Settings changed = changedSettings(liveSettings);
+            if (changed.getAsMap().isEmpty()) {
+                LOGGER.debug("Settings of index: {} are up to date", index);
+            } else if (isDynamic(changed)) {
+                LOGGER.debug("Updating dynamic settings: {} of index: {}", changed.getAsMap(), index);
+                if (!client.prepareUpdateSettings(index).setSettings(changed).execute().get().isAcknowledged()) {
                     LOGGER.error("Adding settings to index: {} failed", index);
                 }
+            } else {
+                if (!client.prepareClose(index).execute().get().isAcknowledged()) {
+                    LOGGER.error("Failed to close index: {} before updating settings", index);
+                }
 
-                if (!client.prepareOpen(index).execute().get().isAcknowledged()) {
-                    LOGGER.error("Failed to open index: {} after updating settings", index);
+                LOGGER.debug("Adding settings: {} to index: {}", changed.getAsMap(), index);
+                try {
+                    if (!client.prepareUpdateSettings(index).setSettings(changed).execute().get().isAcknowledged()) {
+                        LOGGER.error("Adding settings to index: {} failed", index);
+                    }
+                } finally {
+                    if (!client.prepareOpen(index).execute().get().isAcknowledged()) {
+                        LOGGER.error("Failed to open index: {} after updating settings", index);
+                    }
                 }
             }
+            initializedIndexes.markInitialized(index, key);
         } catch (InterruptedException | ExecutionException e) {
             throw new NlpTabException(e);
         }
     }
+
+    /**
+     * Creates the index with the settings.
+     *
+     * @return true if the index was created, false if another request created it first
+     */
+    private boolean createIndex() throws InterruptedException, ExecutionException {
+        LOGGER.debug("Creating index: {} with settings: {} and mapping types: {}", index, settings.toString(),
+                mappings.keySet());
+        CreateIndexRequestBuilder createIndexRequestBuilder = client.prepareCreate(index).setSettings(settings);
+        for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+            createIndexRequestBuilder.addMapping(mapping.getKey(), mapping.getValue());
+        }
+        try {
+            if (!createIndexRequestBuilder.execute().get().isAcknowledged()) {
+                LOGGER.error("Failed to create index: {} before updating settings", index);
+            }
+            return true;
+        } catch (ExecutionException e) {
+            if (ExceptionsHelper.unwrapCause(e.getCause()) instanceof IndexAlreadyExistsException) {
+                LOGGER.debug("Index: {} was created concurrently", index);
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private Settings changedSettings(Settings liveSettings) {
+        Settings.Builder changed = Settings.settingsBuilder();
+        for (Map.Entry<String, String> entry : settings.getAsMap().entrySet()) {
+            String setting = entry.getKey().startsWith("index.") ? entry.getKey() : "index." + entry.getKey();
+            if (!Objects.equals(liveSettings.get(setting), entry.getValue())) {
+                changed.put(setting, entry.getValue());
+            }
+        }
+        return changed.build();
+    }
+
+    private boolean isDynamic(Settings changed) {
+        for (String setting : changed.getAsMap().keySet()) {
+            if (!dynamicSettings.isDynamicOrLoggingSetting(setting)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.core;
+
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.inject.Inject;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node local record of the index settings and type mappings which have already been applied, so that
+ * repeated setup of the same index, such as the shared analysis index being set up for every analysis, does not reach
+ * the master.
+ * <p>Entries are keyed by the uuid of the index, so an index which is deleted and created again under the same name
+ * is initialized again.</p>
+ *
+ * @since 1.2.0
+ */
+class InitializedIndexes {
+    private final ClusterService clusterService;
+
+    private final Set<String> initialized = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    InitializedIndexes(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    /**
+     * Returns the metadata of the index in the cluster state of this node.
+     *
+     * @param index the index name
+     * @return the index metadata, or null if the index does not exist
+     */
+    @Nullable
+    IndexMetaData indexMetaData(String index) {
+        return clusterService.state().metaData().index(index);
+    }
+
+    /**
+     * Whether the setup described by the key has already been applied to the index.
+     *
+     * @param index the index name
+     * @param key   the settings or mapping applied
+     * @return true if the setup can be skipped
+     */
+    boolean isInitialized(String index, String key) {
+        IndexMetaData indexMetaData = indexMetaData(index);
+        return indexMetaData != null && initialized.contains(indexMetaData.getIndexUUID() + '/' + key);
+    }
+
+    /**
+     * Records that the setup described by the key has been applied to the index.
+     *
+     * @param index the index name
+     * @param key   the settings or mapping applied
+     */
+    void markInitialized(String index, String key) {
+        IndexMetaData indexMetaData = indexMetaData(index);
+        if (indexMetaData != null) {
+            initialized.add(indexMetaData.getIndexUUID() + '/' + key);
+        }
+    }
+}
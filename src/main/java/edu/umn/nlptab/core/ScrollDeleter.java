@@ -17,23 +17,63 @@
 package edu.umn.nlptab.core;
 
 import com.google.common.base.Preconditions;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.sort.SortOrder;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
 
 /**
- *
+ * Deletes every document matching a query by scrolling over the ids of the matches and streaming delete requests into
+ * a bulk processor as each page arrives. Only the ids and routing of the hits are fetched, and at most
+ * {@link #CONCURRENT_BULKS} bulks of {@link #BULK_ACTIONS} deletes are in flight at once, so the memory used does not
+ * grow with the number of documents deleted.
+ * <p>With more than one slice, a scroll is run over each shard of the indexes separately, and the shards are divided
+ * between that many scrolls running in parallel on the generic thread pool.</p>
  */
 public class ScrollDeleter implements Callable<Void> {
+    private static final ESLogger LOGGER = Loggers.getLogger(ScrollDeleter.class);
+
+    /**
+     * The number of hits in each scroll page.
+     */
+    static final int PAGE_SIZE = 500;
+
+    /**
+     * The number of delete requests in each bulk.
+     */
+    static final int BULK_ACTIONS = 1000;
+
+    /**
+     * The maximum number of bulks executing at once, adding deletes blocks while the limit is reached.
+     */
+    static final int CONCURRENT_BULKS = 2;
+
+    private static final TimeValue SCROLL_KEEP_ALIVE = new TimeValue(60, TimeUnit.SECONDS);
 
     private final Client client;
 
@@ -46,6 +86,11 @@ public class ScrollDeleter implements Callable<Void> {
     @Nullable
     private QueryBuilder queryBuilder;
 
+    private int slices = 1;
+
+    @Nullable
+    private LongConsumer progressListener;
+
     @Inject
     ScrollDeleter(Client client) {
         this.client = client;
@@ -66,49 +111,212 @@ public class ScrollDeleter implements Callable<Void> {
         return this;
     }
 
+    /**
+     * Sets the number of scrolls to run in parallel, each over a subset of the shards of the indexes.
+     *
+     * @param slices number of parallel scrolls, 1 to scroll all of the shards together
+     * @return this deleter
+     */
+    public ScrollDeleter withSlices(int slices) {
+        Preconditions.checkArgument(slices > 0, "slices must be positive");
+        this.slices = slices;
+        return this;
+    }
+
+    /**
+     * Sets a listener which is called with the total number of documents deleted after each bulk completes.
+     *
+     * @param progressListener called from the bulk response threads
+     * @return this deleter
+     */
+    public ScrollDeleter withProgressListener(LongConsumer progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
     @Override
     public Void call() throws Exception {
         executeDelete();
         return null;
     }
 
-    public void executeDelete() {
+    /**
+     * Deletes the documents matching the query, returning once all of the deletes have completed.
+     *
+     * @return the number of documents deleted
+     * @throws NlpTabException if any of the deletes fail or the thread is interrupted
+     */
+    public long executeDelete() throws NlpTabException {
         Preconditions.checkNotNull(indexes);
         Preconditions.checkNotNull(types);
         Preconditions.checkNotNull(queryBuilder);
 
-        SearchResponse searchResponse = client.prepareSearch(indexes)
+        DeleteListener deleteListener = new DeleteListener();
+        BulkProcessor bulkProcessor = BulkProcessor.builder(client, deleteListener)
+                .setName("nlptab-scroll-delete")
+                .setBulkActions(BULK_ACTIONS)
+                .setConcurrentRequests(CONCURRENT_BULKS)
+                .build();
+
+        try {
+            if (slices == 1) {
+                scroll(client.prepareSearch(indexes), bulkProcessor);
+            } else {
+                scrollSlices(bulkProcessor);
+            }
+            bulkProcessor.flush();
+        } finally {
+            try {
+                bulkProcessor.awaitClose(10, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NlpTabException(e);
+            }
+        }
+
+        Throwable failure = deleteListener.failure.get();
+        if (failure != null) {
+            throw new NlpTabException("Failed to delete documents", failure);
+        }
+        long failed = deleteListener.failed.get();
+        if (failed > 0) {
+            throw new NlpTabException("Failed to delete " + failed + " documents");
+        }
+
+        long deleted = deleteListener.deleted.get();
+        LOGGER.debug("Deleted {} documents from {}", deleted, indexes);
+        return deleted;
+    }
+
+    private void scrollSlices(BulkProcessor bulkProcessor) throws NlpTabException {
+        MetaData metaData = client.admin().cluster().prepareState()
+                .clear()
+                .setMetaData(true)
+                .setIndices(indexes)
+                .get()
+                .getState()
+                .metaData();
+
+        List<List<SearchRequestBuilder>> sliceSearches = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            sliceSearches.add(new ArrayList<>());
+        }
+        int shardCount = 0;
+        for (String index : metaData.concreteAllIndices()) {
+            int numberOfShards = metaData.index(index).getNumberOfShards();
+            for (int shard = 0; shard < numberOfShards; shard++) {
+                sliceSearches.get(shardCount++ % slices).add(client.prepareSearch(index)
+                        .setPreference("_shards:" + shard));
+            }
+        }
+
+        List<FutureTask<Void>> futures = new ArrayList<>(slices);
+        for (List<SearchRequestBuilder> searches : sliceSearches) {
+            if (searches.isEmpty()) {
+                continue;
+            }
+            FutureTask<Void> future = new FutureTask<>(() -> {
+                for (SearchRequestBuilder search : searches) {
+                    scroll(search, bulkProcessor);
+                }
+                return null;
+            });
+            client.threadPool().generic().execute(future);
+            futures.add(future);
+        }
+
+        try {
+            for (FutureTask<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new NlpTabException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new NlpTabException("Failed to scroll documents to delete", e.getCause());
+        }
+    }
+
+    private void scroll(SearchRequestBuilder searchRequestBuilder, BulkProcessor bulkProcessor) {
+        SearchResponse searchResponse = searchRequestBuilder
                 .setTypes(types)
-                .setScroll(new TimeValue(60, TimeUnit.SECONDS))
-                .setSize(500)
                 .setQuery(queryBuilder)
+                .setFetchSource(false)
+                .addField("_routing")
+                .addSort("_doc", SortOrder.ASC)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(PAGE_SIZE)
                 .get();
 
-        BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        try {
+            while (true) {
+                SearchHit[] hits = searchResponse.getHits().hits();
+                if (hits.length == 0) {
+                    break;
+                }
 
-        while (true) {
-            searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
-                    .setScroll(new TimeValue(60, TimeUnit.SECONDS))
-                    .get();
-            SearchHit[] hits = searchResponse.getHits().hits();
-            if (hits.length == 0) {
-                break;
+                for (SearchHit searchHit : hits) {
+                    DeleteRequest deleteRequest = new DeleteRequest(searchHit.index(), searchHit.type(),
+                            searchHit.id());
+                    SearchHitField routing = searchHit.field("_routing");
+                    if (routing != null) {
+                        deleteRequest.routing(routing.<String>getValue());
+                    }
+                    bulkProcessor.add(deleteRequest);
+                }
+
+                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+                        .setScroll(SCROLL_KEEP_ALIVE)
+                        .get();
+            }
+        } finally {
+            try {
+                client.prepareClearScroll()
+                        .addScrollId(searchResponse.getScrollId())
+                        .get();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to clear scroll {}", e, searchResponse.getScrollId());
             }
+        }
+    }
 
-            for (SearchHit searchHit : hits) {
-                DeleteRequestBuilder delete = client.prepareDelete(searchHit.index(), searchHit.type(),
-                        searchHit.id());
+    /**
+     * Counts the completed and failed deletes, reporting progress after each bulk.
+     */
+    private class DeleteListener implements BulkProcessor.Listener {
+        private final AtomicLong deleted = new AtomicLong();
 
-                bulkRequestBuilder.add(delete);
-            }
+        private final AtomicLong failed = new AtomicLong();
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
         }
 
-        client.prepareClearScroll()
-                .addScrollId(searchResponse.getScrollId())
-                .get();
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            long bulkFailed = 0;
+            for (BulkItemResponse itemResponse : response) {
+                if (itemResponse.isFailed()) {
+                    bulkFailed++;
+                    LOGGER.debug("Failed to delete {}: {}", itemResponse.getId(), itemResponse.getFailureMessage());
+                }
+            }
+            failed.addAndGet(bulkFailed);
+            long total = deleted.addAndGet(request.numberOfActions() - bulkFailed);
+            LOGGER.trace("Deleted {} documents from {}", total, indexes);
+            if (progressListener != null) {
+                progressListener.accept(total);
+            }
+        }
 
-        if (bulkRequestBuilder.numberOfActions() > 0) {
-            bulkRequestBuilder.get();
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            LOGGER.debug("Failed to execute bulk delete", failure);
+            this.failure.compareAndSet(null, failure);
         }
     }
 }
@@ -23,21 +23,33 @@ import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.rest.*;
+import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.IOException;
 import java.util.Map;
 
 /**
- * Rest handler which biomedicus analysis.
+ * Rest handler which biomedicus analysis. Posting the configuration of an earlier analysis to
+ * {@code /_nlptab-analysis/{id}/_refresh} refreshes that analysis, only evaluating documents which were not evaluated
+ * by an analysis with the same configuration. A configuration which differs from that of the analysis is rejected.
+ * <p>The response is {@code {"id": ..., "cached": ...}}. When {@code cached} is false the analysis was started with
+ * status 202 and {@code id} identifies it. When the configuration is identical to an analysis which is running or has
+ * finished against the same versions of the systems, no analysis is started, {@code cached} is true and {@code id}
+ * identifies the existing analysis, with status 200. Looking up existing analyses reads from the cluster, so it is done
+ * on the generic thread pool rather than the thread handling the request.</p>
  *
  * @author Ben Knoll
  * @since 1.0
  */
 class AnalysisRestHandler implements RestHandler {
+    private static final ESLogger logger = Loggers.getLogger(AnalysisRestHandler.class);
 
     private final Provider<AnalysisRunner> analysisRunnerProvider;
 
@@ -45,15 +57,20 @@ class AnalysisRestHandler implements RestHandler {
 
     private final NlptabService nlptabService;
 
+    private final ThreadPool threadPool;
+
     @Inject
     AnalysisRestHandler(RestController restController,
                         Provider<AnalysisRunner> analysisRunnerProvider,
                         Provider<AnalysisConfig> analysisConfigProvider,
-                        NlptabService nlptabService) {
+                        NlptabService nlptabService,
+                        ThreadPool threadPool) {
         this.analysisConfigProvider = analysisConfigProvider;
         restController.registerHandler(RestRequest.Method.POST, "/_nlptab-analysis", this);
+        restController.registerHandler(RestRequest.Method.POST, "/_nlptab-analysis/{id}/_refresh", this);
         this.analysisRunnerProvider = analysisRunnerProvider;
         this.nlptabService = nlptabService;
+        this.threadPool = threadPool;
     }
 
     @Override
@@ -76,14 +93,55 @@ class AnalysisRestHandler implements RestHandler {
             return;
         }
 
-        String id = Strings.base64UUID();
+        String id = request.param("id");
+        boolean refresh = id != null;
+        if (!refresh) {
+            id = Strings.base64UUID();
+        }
         analysisRunner.setId(id);
+        analysisRunner.setRefresh(refresh);
+
+        threadPool.generic().execute(() -> {
+            try {
+                startAnalysis(analysisRunner, refresh, channel);
+            } catch (Exception e) {
+                try {
+                    channel.sendResponse(new BytesRestResponse(channel, e));
+                } catch (IOException e1) {
+                    logger.error("Failed to send failure response", e1);
+                }
+            }
+        });
+    }
+
+    private void startAnalysis(AnalysisRunner analysisRunner, boolean refresh, RestChannel channel)
+            throws IOException {
+        if (refresh) {
+            try {
+                analysisRunner.checkRefreshedAnalysis();
+            } catch (AnalysisConfigurationException e) {
+                channel.sendResponse(new BytesRestResponse(RestStatus.BAD_REQUEST, e.getLocalizedMessage()));
+                return;
+            }
+        }
+
+        String existingId = analysisRunner.claimResults();
+        if (existingId != null) {
+            XContentBuilder responseBuilder = XContentFactory.jsonBuilder()
+                    .startObject()
+                    .field("id", existingId)
+                    .field("cached", true)
+                    .endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, responseBuilder));
+            return;
+        }
 
         nlptabService.submit(analysisRunner::setupIndexAndPerformAnalysis);
 
         XContentBuilder responseBuilder = XContentFactory.jsonBuilder()
                 .startObject()
-                .field("id", id)
+                .field("id", analysisRunner.getId())
+                .field("cached", false)
                 .endObject();
         channel.sendResponse(new BytesRestResponse(RestStatus.ACCEPTED, responseBuilder));
     }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.esplugin;
+
+import edu.umn.nlptab.analysis.AnalysisConfig;
+import edu.umn.nlptab.analysis.AnalysisConfigurationException;
+import edu.umn.nlptab.analysis.BatchAnalysisRunner;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.rest.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rest handler which runs a batch of analyses between the same two systems, sharing the document scans between them.
+ * Takes an object with an {@code analyses} array of the same configurations accepted by {@link AnalysisRestHandler},
+ * and responds with the ids of the analyses in the same order. Sampled and distributed configurations are rejected,
+ * and batches cannot be refreshed.
+ *
+ * @since 1.2.0
+ */
+class BatchAnalysisRestHandler implements RestHandler {
+
+    private final Provider<BatchAnalysisRunner> batchAnalysisRunnerProvider;
+
+    private final Provider<AnalysisConfig> analysisConfigProvider;
+
+    private final NlptabService nlptabService;
+
+    @Inject
+    BatchAnalysisRestHandler(RestController restController,
+                             Provider<BatchAnalysisRunner> batchAnalysisRunnerProvider,
+                             Provider<AnalysisConfig> analysisConfigProvider,
+                             NlptabService nlptabService) {
+        restController.registerHandler(RestRequest.Method.POST, "/_nlptab-analysis-batch", this);
+        this.batchAnalysisRunnerProvider = batchAnalysisRunnerProvider;
+        this.analysisConfigProvider = analysisConfigProvider;
+        this.nlptabService = nlptabService;
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel) throws Exception {
+        BatchAnalysisRunner batchAnalysisRunner = batchAnalysisRunnerProvider.get();
+
+        XContentParser parser = JsonXContent.jsonXContent.createParser(request.content());
+
+        Map<String, Object> map = parser.map();
+
+        List<String> ids = new ArrayList<>();
+        try {
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> analyses = (List<Map<String, Object>>) map.get("analyses");
+            if (analyses == null || analyses.isEmpty()) {
+                throw new AnalysisConfigurationException("analyses was null or empty");
+            }
+            for (Map<String, Object> analysis : analyses) {
+                AnalysisConfig analysisConfig = analysisConfigProvider.get();
+                analysisConfig.initFromMap(analysis);
+                String id = Strings.base64UUID();
+                batchAnalysisRunner.addAnalysis(id, analysisConfig);
+                ids.add(id);
+            }
+        } catch (AnalysisConfigurationException e) {
+            String message = e.getLocalizedMessage();
+            channel.sendResponse(new BytesRestResponse(RestStatus.BAD_REQUEST, message == null ? "Error processing config" : message));
+            return;
+        }
+
+        nlptabService.submit(batchAnalysisRunner::setupIndexAndPerformAnalyses);
+
+        XContentBuilder responseBuilder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field("ids", ids)
+                .endObject();
+        channel.sendResponse(new BytesRestResponse(RestStatus.ACCEPTED, responseBuilder));
+    }
+}
@@ -58,7 +58,7 @@ class DeleteSystemRestHandler implements RestHandler {
                 .withSystemIndex(id)
                 .withInstanceIndexes(instanceIndexes);
 
-        deleteSystemTask.executeDeleteSystem();
+        long deleted = deleteSystemTask.executeDeleteSystem();
 
         while (true) {
             SearchResponse searchResponse = client.prepareSearch(instanceIndexes.metadataIndex())
@@ -74,6 +74,7 @@ class DeleteSystemRestHandler implements RestHandler {
         XContentBuilder responseBuilder = XContentFactory.jsonBuilder()
                 .startObject()
                 .field("status", "success")
+                .field("deleted", deleted)
                 .endObject();
         channel.sendResponse(new BytesRestResponse(RestStatus.OK, responseBuilder));
     }
@@ -11,6 +11,7 @@ import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.search.sort.SortParseElement;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.Map;
@@ -34,6 +35,12 @@ class ExportAnalysisRestHandler implements RestHandler {
 
         BytesStreamOutput bytesStreamOutput = restChannel.bytesOutput();
 
+        if ("documents".equals(restRequest.param("counts"))) {
+            exportDocumentCounts(instance, id, bytesStreamOutput);
+            restChannel.sendResponse(new BytesRestResponse(RestStatus.ACCEPTED, "text/csv", bytesStreamOutput.bytes()));
+            return;
+        }
+
         StringJoiner format = new StringJoiner(",", "", "\n");
         format.add("firstIsPresent");
         format.add("secondIsPresent");
@@ -76,6 +83,48 @@ class ExportAnalysisRestHandler implements RestHandler {
         restChannel.sendResponse(new BytesRestResponse(RestStatus.ACCEPTED, "text/csv", bytesStreamOutput.bytes()));
     }
 
+    /**
+     * Exports the per-document counts written by analyses which do not persist every true positive, since their match
+     * export only contains the errors and any sampled true positives.
+     */
+    private void exportDocumentCounts(String instance, String id, BytesStreamOutput bytesStreamOutput)
+            throws IOException {
+        StringJoiner format = new StringJoiner(",", "", "\n");
+        format.add("documentId");
+        format.add("truePositives");
+        format.add("persistedTruePositives");
+        format.add("falsePositives");
+        format.add("falseNegatives");
+        bytesStreamOutput.writeBytes(format.toString().getBytes(StandardCharsets.UTF_8));
+
+        SearchResponse searchResponse = client.prepareSearch(instance + "analysis")
+                .setTypes("DocumentMatchCounts")
+                .setQuery(QueryBuilders.matchQuery("analysisId", id))
+                .addSort(SortParseElement.DOC_FIELD_NAME, SortOrder.ASC)
+                .setScroll(new TimeValue(5, TimeUnit.MINUTES))
+                .setSize(100)
+                .execute()
+                .actionGet();
+
+        while (searchResponse.getHits().getHits().length > 0) {
+            for (SearchHit hit : searchResponse.getHits()) {
+                Map<String, Object> source = hit.getSource();
+                StringJoiner stringJoiner = new StringJoiner(",", "", "\n");
+                stringJoiner.add(source.get("documentId").toString());
+                stringJoiner.add(source.get("truePositives").toString());
+                stringJoiner.add(source.get("persistedTruePositives").toString());
+                stringJoiner.add(source.get("falsePositives").toString());
+                stringJoiner.add(source.get("falseNegatives").toString());
+                bytesStreamOutput.writeBytes(stringJoiner.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            searchResponse = client.prepareSearchScroll(searchResponse.getScrollId())
+                    .setScroll(new TimeValue(5, TimeUnit.MINUTES))
+                    .execute()
+                    .actionGet();
+        }
+    }
+
     private class MatchUploadableFormatter {
         private final Map<String, Object> matchUploadableSource;
         private final String type;
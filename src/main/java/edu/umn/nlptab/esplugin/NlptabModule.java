@@ -16,6 +16,7 @@
 
 package edu.umn.nlptab.esplugin;
 
+import edu.umn.nlptab.analysis.AnalysisResultCache;
 import org.elasticsearch.common.inject.AbstractModule;
 
 /**
@@ -28,13 +29,17 @@ class NlptabModule extends AbstractModule {
     @Override
     protected void configure() {
         bind(AnalysisRestHandler.class).asEagerSingleton();
+        bind(BatchAnalysisRestHandler.class).asEagerSingleton();
+        bind(TypeMatrixRestHandler.class).asEagerSingleton();
         bind(SystemIndexingMetaRestHandler.class).asEagerSingleton();
         bind(SystemIndexingRestHandler.class).asEagerSingleton();
         bind(DeleteSystemRestHandler.class).asEagerSingleton();
         bind(DeleteOrphanedDocumentsRestHandler.class).asEagerSingleton();
+        bind(RouteFeatureStructuresRestHandler.class).asEagerSingleton();
         bind(DeleteAnalysisRestHandler.class).asEagerSingleton();
         bind(ExportAnalysisRestHandler.class).asEagerSingleton();
 
         bind(NlptabService.class).asEagerSingleton();
+        bind(AnalysisResultCache.class).asEagerSingleton();
     }
 }
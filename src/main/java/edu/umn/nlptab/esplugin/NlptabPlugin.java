@@ -16,12 +16,21 @@
 
 package edu.umn.nlptab.esplugin;
 
+import edu.umn.nlptab.analysis.DistributedAnalysisAction;
+import edu.umn.nlptab.analysis.InternalSpanCoOccurrence;
+import edu.umn.nlptab.analysis.LocationCoveringQueryParser;
+import edu.umn.nlptab.analysis.SpanCoOccurrenceParser;
+import edu.umn.nlptab.analysis.SpanProximityQueryParser;
+import edu.umn.nlptab.analysis.TransportDistributedAnalysisAction;
 import edu.umn.nlptab.casprocessing.CasProcessingModule;
+import edu.umn.nlptab.core.CoreModule;
 import edu.umn.nlptab.systemindex.SystemIndexingModule;
+import org.elasticsearch.action.ActionModule;
 import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.indices.IndicesModule;
 import org.elasticsearch.plugins.Plugin;
-import org.elasticsearch.script.ScriptModule;
+import org.elasticsearch.search.SearchModule;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -46,7 +55,8 @@ public class NlptabPlugin extends Plugin {
 
     @Override
     public Collection<Module> nodeModules() {
-        return Arrays.asList(new NlptabModule(), new CasProcessingModule(), new SystemIndexingModule());
+        return Arrays.asList(new NlptabModule(), new CoreModule(), new CasProcessingModule(),
+                new SystemIndexingModule());
     }
 
     @Override
@@ -55,13 +65,37 @@ public class NlptabPlugin extends Plugin {
     }
 
     /**
-     * Initializes the lucene scripts used by NLP-TAB. Called by Elasticsearch using reflection.
+     * Registers the lucene queries used by NLP-TAB. Called by Elasticsearch using reflection.
      *
-     * @param scriptModule injected script module.
+     * @param indicesModule injected indices module.
      * @see Plugin
      */
     @SuppressWarnings("unused")
-    public void onModule(ScriptModule scriptModule) {
-        scriptModule.registerScript("annotationDistance", AnnotationDistanceScriptFactory.class);
+    public void onModule(IndicesModule indicesModule) {
+        indicesModule.registerQueryParser(SpanProximityQueryParser.class);
+        indicesModule.registerQueryParser(LocationCoveringQueryParser.class);
+    }
+
+    /**
+     * Registers the transport actions of NLP-TAB. Called by Elasticsearch using reflection.
+     *
+     * @param actionModule injected action module.
+     * @see Plugin
+     */
+    @SuppressWarnings("unused")
+    public void onModule(ActionModule actionModule) {
+        actionModule.registerAction(DistributedAnalysisAction.INSTANCE, TransportDistributedAnalysisAction.class);
+    }
+
+    /**
+     * Registers the aggregations of NLP-TAB. Called by Elasticsearch using reflection.
+     *
+     * @param searchModule injected search module.
+     * @see Plugin
+     */
+    @SuppressWarnings("unused")
+    public void onModule(SearchModule searchModule) {
+        searchModule.registerAggregatorParser(SpanCoOccurrenceParser.class);
+        InternalSpanCoOccurrence.registerStreams();
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.esplugin;
+
+import edu.umn.nlptab.systemindex.RouteFeatureStructures;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.rest.*;
+
+/**
+ * Migrates a system index created before feature structures were routed by document identifier. The migration runs
+ * on the {@link NlptabService} and the request returns as soon as it has started.
+ *
+ * @since 1.2.0
+ */
+class RouteFeatureStructuresRestHandler implements RestHandler {
+    private final Provider<RouteFeatureStructures> routeFeatureStructuresProvider;
+
+    private final NlptabService nlptabService;
+
+    @Inject
+    RouteFeatureStructuresRestHandler(RestController restController,
+                                      Provider<RouteFeatureStructures> routeFeatureStructuresProvider,
+                                      NlptabService nlptabService) {
+        restController.registerHandler(RestRequest.Method.POST, "_nlptab-route-feature-structures", this);
+        this.routeFeatureStructuresProvider = routeFeatureStructuresProvider;
+        this.nlptabService = nlptabService;
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel) throws Exception {
+        String systemIndex = request.param("systemIndex");
+        if (systemIndex == null) {
+            XContentBuilder error = XContentFactory.jsonBuilder().startObject()
+                    .field("error", "systemIndex was null")
+                    .endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.BAD_REQUEST, error));
+            return;
+        }
+
+        RouteFeatureStructures routeFeatureStructures = routeFeatureStructuresProvider.get()
+                .inSystemIndex(systemIndex);
+        nlptabService.submit(routeFeatureStructures::run);
+
+        XContentBuilder status = XContentFactory.jsonBuilder().startObject()
+                .field("index", systemIndex)
+                .endObject();
+        channel.sendResponse(new BytesRestResponse(RestStatus.ACCEPTED, status));
+    }
+}
@@ -33,10 +33,20 @@ import java.util.Map;
  *     {
  *         "systemName": "system-name",
  *         "systemDescription": "A description of the system",
- *         "instance": "instance"
+ *         "instance": "instance",
+ *         "ignoredViews": ["view-name"],
+ *         "materializedPaths": ["Concept.ontologyConcept.cui"],
+ *         "mappingProfile": "lean",
+ *         "analyzedFeatures": ["org.example.Concept:preferredText"],
+ *         "spanEncoding": "flat"
  *     }
  * </pre>
- * and returns a json object containing the index of the system created:
+ * where the optional "materializedPaths" are reference feature paths whose leaf values are copied into each feature
+ * structure document of the type at ingest, the optional "mappingProfile" is "default" or "lean" as described by
+ * {@link edu.umn.nlptab.systemindex.FeatureStructureMappingProfile}, the optional "analyzedFeatures" are the full
+ * names of the features which keep full text search in the lean profile, and the optional "spanEncoding" is "nested"
+ * or "flat" as described by {@link edu.umn.nlptab.systemindex.SpanEncoding}, and returns a json object containing the
+ * index of the system created:
  * <pre>
  *     {
  *         "index": "created-index"
@@ -35,12 +35,16 @@ import java.util.Objects;
 
 /**
  * Creates a route: "_nlptab-systemindex" which accepts a zip file containing XMI or XCAS XML files. The zip file must
- * also contain a "TypeSystem.xml" file containing the type system of the XMI/XCAS files. The route takes 3 parameters:
+ * also contain a "TypeSystem.xml" file containing the type system of the XMI/XCAS files. The route takes the parameters:
  * <ol>
  * <li>instance - the elasticsearch index to upload to</li>
  * <li>index - the system index to upload to</li>
  * <li>useXCas - whether the files are serialized in the XCas format, XMI is the default.</li>
+ * <li>forceMergeSegments - optional, the number of segments to force merge the system index to after loading.</li>
+ * <li>measureStoreSize - optional, whether to record the primary store size of the system index in its metadata after
+ * loading, which refreshes and flushes the index.</li>
  * </ol>
+ * Refreshes and replicas are disabled on the system index while the files are loaded, and restored afterwards.
  *
  * @author Ben Knoll
  * @since 1.0
@@ -95,7 +99,9 @@ class SystemIndexingRestHandler implements RestHandler {
             content.writeTo(out);
         }
 
-        SystemIndexingSettings systemIndexingSettings = new SystemIndexingSettings(instance, index, useXCas);
+        SystemIndexingSettings systemIndexingSettings = new SystemIndexingSettings(instance, index, useXCas)
+                .withForceMergeSegments(request.paramAsInt("forceMergeSegments", 0))
+                .withMeasureStoreSize(request.paramAsBoolean("measureStoreSize", false));
 
         ZipSystemIndexingFiles zipSystemIndexingFiles = new ZipSystemIndexingFiles(zipPath, useXCas);
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.esplugin;
+
+import edu.umn.nlptab.analysis.AnalysisConfigurationException;
+import edu.umn.nlptab.analysis.TypeMatrixConfig;
+import edu.umn.nlptab.analysis.TypeMatrixRunner;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.rest.*;
+
+import java.util.Map;
+
+/**
+ * Rest handler which starts a type matrix analysis comparing all pairs of annotation types between two systems.
+ *
+ * @since 1.2.0
+ */
+class TypeMatrixRestHandler implements RestHandler {
+
+    private final Provider<TypeMatrixRunner> typeMatrixRunnerProvider;
+
+    private final NlptabService nlptabService;
+
+    @Inject
+    TypeMatrixRestHandler(RestController restController,
+                          Provider<TypeMatrixRunner> typeMatrixRunnerProvider,
+                          NlptabService nlptabService) {
+        restController.registerHandler(RestRequest.Method.POST, "/_nlptab-typematrix", this);
+        this.typeMatrixRunnerProvider = typeMatrixRunnerProvider;
+        this.nlptabService = nlptabService;
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel) throws Exception {
+        TypeMatrixRunner typeMatrixRunner = typeMatrixRunnerProvider.get();
+
+        XContentParser parser = JsonXContent.jsonXContent.createParser(request.content());
+
+        Map<String, Object> map = parser.map();
+
+        try {
+            TypeMatrixConfig typeMatrixConfig = new TypeMatrixConfig();
+            typeMatrixConfig.initFromMap(map);
+            typeMatrixRunner.setTypeMatrixConfig(typeMatrixConfig);
+        } catch (AnalysisConfigurationException e) {
+            String message = e.getLocalizedMessage();
+            channel.sendResponse(new BytesRestResponse(RestStatus.BAD_REQUEST, message == null ? "Error processing config" : message));
+            return;
+        }
+
+        String id = Strings.base64UUID();
+        typeMatrixRunner.setId(id);
+
+        nlptabService.submit(typeMatrixRunner::setupIndexAndPerformAnalysis);
+
+        XContentBuilder responseBuilder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field("id", id)
+                .endObject();
+        channel.sendResponse(new BytesRestResponse(RestStatus.ACCEPTED, responseBuilder));
+    }
+}
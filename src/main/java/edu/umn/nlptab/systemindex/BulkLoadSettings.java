@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.systemindex;
+
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.translog.TranslogConfig;
+
+/**
+ * Index settings used while a system index is bulk loaded. Refreshes are disabled and replicas are dropped for the
+ * duration of the load, and the translog is synced asynchronously if the cluster accepts the setting. The values in
+ * place before the load are captured so that they can be restored once it finishes or fails.
+ * <p>Settings which were not set explicitly on the index are restored to the elasticsearch defaults.</p>
+ *
+ * @since 1.2.0
+ */
+class BulkLoadSettings {
+    private static final ESLogger LOGGER = Loggers.getLogger(BulkLoadSettings.class);
+
+    private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+
+    private static final String DEFAULT_NUMBER_OF_REPLICAS = "1";
+
+    private static final String DEFAULT_TRANSLOG_DURABILITY = "request";
+
+    private final Client client;
+
+    private final String index;
+
+    private final String refreshInterval;
+
+    private final String numberOfReplicas;
+
+    private final String translogDurability;
+
+    private boolean bulkLoadSettingsApplied = false;
+
+    private boolean translogDurabilityChanged = false;
+
+    private BulkLoadSettings(Client client,
+                             String index,
+                             String refreshInterval,
+                             String numberOfReplicas,
+                             String translogDurability) {
+        this.client = client;
+        this.index = index;
+        this.refreshInterval = refreshInterval;
+        this.numberOfReplicas = numberOfReplicas;
+        this.translogDurability = translogDurability;
+    }
+
+    /**
+     * Captures the current settings of the index, so that they can be restored after the bulk load settings have been
+     * applied.
+     *
+     * @param client elasticsearch client
+     * @param index  the index being loaded
+     * @return the captured settings
+     */
+    static BulkLoadSettings capture(Client client, String index) {
+        GetSettingsResponse getSettingsResponse = client.admin().indices().prepareGetSettings(index).get();
+        return new BulkLoadSettings(client, index,
+                settingOrDefault(getSettingsResponse, index, IndexShard.INDEX_REFRESH_INTERVAL,
+                        DEFAULT_REFRESH_INTERVAL),
+                settingOrDefault(getSettingsResponse, index, IndexMetaData.SETTING_NUMBER_OF_REPLICAS,
+                        DEFAULT_NUMBER_OF_REPLICAS),
+                settingOrDefault(getSettingsResponse, index, TranslogConfig.INDEX_TRANSLOG_DURABILITY,
+                        DEFAULT_TRANSLOG_DURABILITY));
+    }
+
+    /**
+     * Switches the index to the bulk load settings, keeping track of which were applied so that {@link #restore()}
+     * only restores those. Should be called inside the block whose finally restores the settings.
+     */
+    void apply() {
+        // marked first, the update may have been applied even if the request fails
+        bulkLoadSettingsApplied = true;
+        update(Settings.builder()
+                .put(IndexShard.INDEX_REFRESH_INTERVAL, "-1")
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, "0")
+                .build());
+
+        try {
+            update(Settings.builder()
+                    .put(TranslogConfig.INDEX_TRANSLOG_DURABILITY, "async")
+                    .build());
+            translogDurabilityChanged = true;
+        } catch (RuntimeException e) {
+            LOGGER.info("Asynchronous translog not permitted on {}, keeping {}", index, translogDurability);
+        }
+
+        LOGGER.debug("Applied bulk load settings to {}", index);
+    }
+
+    /**
+     * Restores the settings which were in place before the bulk load, if any of the bulk load settings were applied.
+     * A failure to restore them is logged rather than thrown, so that it does not replace a failure of the load.
+     */
+    void restore() {
+        if (!bulkLoadSettingsApplied) {
+            return;
+        }
+        Settings.Builder settings = Settings.builder()
+                .put(IndexShard.INDEX_REFRESH_INTERVAL, refreshInterval)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, numberOfReplicas);
+        if (translogDurabilityChanged) {
+            settings.put(TranslogConfig.INDEX_TRANSLOG_DURABILITY, translogDurability);
+        }
+        try {
+            update(settings.build());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to restore the settings of {}, refresh interval {}, replicas {}, translog durability "
+                    + "{}", e, index, refreshInterval, numberOfReplicas, translogDurability);
+            return;
+        }
+
+        LOGGER.debug("Restored settings of {}", index);
+    }
+
+    private void update(Settings settings) {
+        client.admin().indices().prepareUpdateSettings(index).setSettings(settings).get();
+    }
+
+    private static String settingOrDefault(GetSettingsResponse getSettingsResponse,
+                                           String index,
+                                           String setting,
+                                           String defaultValue) {
+        String value = getSettingsResponse.getSetting(index, setting);
+        return value == null ? defaultValue : value;
+    }
+}
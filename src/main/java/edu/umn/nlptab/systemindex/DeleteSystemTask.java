@@ -25,6 +25,8 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.client.IndicesAdminClient;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
@@ -33,6 +35,12 @@ import org.elasticsearch.search.SearchHits;
  *
  */
 public class DeleteSystemTask {
+    private static final ESLogger LOGGER = Loggers.getLogger(DeleteSystemTask.class);
+
+    /**
+     * The number of parallel scrolls used to delete analysis results, which are the most numerous documents.
+     */
+    private static final int ANALYSIS_RESULT_SLICES = 2;
 
     private final Client client;
 
@@ -44,6 +52,8 @@ public class DeleteSystemTask {
 
     private InstanceIndexes instanceIndexes;
 
+    private long deleted;
+
     @Inject
     DeleteSystemTask(Client client,
                      Provider<ScrollDeleter> scrollDeleterProvider,
@@ -63,35 +73,80 @@ public class DeleteSystemTask {
         return this;
     }
 
-    public void executeDeleteSystem() throws NlpTabException {
+    /**
+     * Deletes the system index and every document of the system in the instance indexes.
+     *
+     * @return the number of documents of the system deleted from the instance indexes
+     * @throws NlpTabException if deleting fails
+     */
+    public long executeDeleteSystem() throws NlpTabException {
+        deleted = 0;
         deleteSystemMetadata();
         deleteAnalysisResults();
+        deleteDocumentMatchCounts();
         deleteMatchCounts();
+        deleteTypePairCounts();
+        deletePartialMatchCounts();
         deleteDocumentsInSystem();
         deleteSystemIndex();
         deleteOrphanedDocuments.inSearchIndex(instanceIndexes.searchIndex()).run();
+        LOGGER.info("Deleted system {} and {} of its documents", systemIndex, deleted);
+        return deleted;
+    }
+
+    private void delete(String description, ScrollDeleter scrollDeleter) throws NlpTabException {
+        long count = scrollDeleter
+                .withProgressListener(progress -> LOGGER.debug("Deleted {} {} of {}", progress, description,
+                        systemIndex))
+                .executeDelete();
+        LOGGER.debug("Deleted {} {} of {}", count, description, systemIndex);
+        deleted += count;
     }
 
-    private void deleteDocumentsInSystem() {
-        scrollDeleterProvider.get()
+    private void deleteDocumentsInSystem() throws NlpTabException {
+        delete("documents in system", scrollDeleterProvider.get()
                 .withIndexes(instanceIndexes.searchIndex())
                 .withTypes("DocumentInSystem")
-                .withQuery(QueryBuilders.termQuery("systemIndex", systemIndex))
-                .executeDelete();
+                .withQuery(QueryBuilders.termQuery("systemIndex", systemIndex)));
     }
 
-    private void deleteMatchCounts() {
-        scrollDeleterProvider.get()
+    private void deleteDocumentMatchCounts() throws NlpTabException {
+        delete("document match counts", scrollDeleterProvider.get()
+                .withIndexes(instanceIndexes.analysisIndex())
+                .withTypes("DocumentMatchCounts")
+                .withQuery(QueryBuilders.boolQuery()
+                        .should(QueryBuilders.termQuery("hypothesisSystem", systemIndex))
+                        .should(QueryBuilders.termQuery("referenceSystem", systemIndex))));
+    }
+
+    private void deleteMatchCounts() throws NlpTabException {
+        delete("match counts", scrollDeleterProvider.get()
                 .withIndexes(instanceIndexes.analysisIndex())
                 .withTypes("MatchCounts")
-                .withQuery(QueryBuilders.termQuery("hypothesisUnitOfAnalysis.systemIndex", systemIndex))
-                .executeDelete();
+                .withQuery(QueryBuilders.termQuery("hypothesisUnitOfAnalysis.systemIndex", systemIndex)));
 
-        scrollDeleterProvider.get()
+        delete("match counts", scrollDeleterProvider.get()
                 .withIndexes(instanceIndexes.analysisIndex())
                 .withTypes("MatchCounts")
-                .withQuery(QueryBuilders.termQuery("referenceUnitOfAnalysis.systemIndex", systemIndex))
-                .executeDelete();
+                .withQuery(QueryBuilders.termQuery("referenceUnitOfAnalysis.systemIndex", systemIndex)));
+    }
+
+    private void deleteTypePairCounts() throws NlpTabException {
+        delete("type pair counts", scrollDeleterProvider.get()
+                .withIndexes(instanceIndexes.analysisIndex())
+                .withTypes("TypePairCounts")
+                .withQuery(QueryBuilders.boolQuery()
+                        .should(QueryBuilders.termQuery("hypothesisSystem", systemIndex))
+                        .should(QueryBuilders.termQuery("referenceSystem", systemIndex))));
+    }
+
+    private void deletePartialMatchCounts() throws NlpTabException {
+        delete("partial match counts", scrollDeleterProvider.get()
+                .withIndexes(instanceIndexes.analysisIndex())
+                .withTypes("PartialMatchCounts")
+                .withQuery(QueryBuilders.boolQuery()
+                        .should(QueryBuilders.termQuery("hypothesisSystem", systemIndex))
+                        .should(QueryBuilders.termQuery("referenceSystem", systemIndex))));
     }
 
     private void deleteSystemIndex() {
@@ -122,17 +177,17 @@ public class DeleteSystemTask {
         client.prepareDelete(hit.index(), hit.type(), hit.id()).get();
     }
 
-    private void deleteAnalysisResults() {
-        scrollDeleterProvider.get()
+    private void deleteAnalysisResults() throws NlpTabException {
+        delete("analysis results", scrollDeleterProvider.get()
                 .withIndexes(instanceIndexes.analysisIndex())
                 .withTypes("TruePositive", "FalseNegative", "FalsePositive")
-                .withQuery(QueryBuilders.termQuery("firstSystem", systemIndex))
-                .executeDelete();
+                .withSlices(ANALYSIS_RESULT_SLICES)
+                .withQuery(QueryBuilders.termQuery("firstSystem", systemIndex)));
 
-        scrollDeleterProvider.get()
+        delete("analysis results", scrollDeleterProvider.get()
                 .withIndexes(instanceIndexes.analysisIndex())
                 .withTypes("TruePositive", "FalseNegative", "FalsePositive")
-                .withQuery(QueryBuilders.termQuery("secondSystem", systemIndex))
-                .executeDelete();
+                .withSlices(ANALYSIS_RESULT_SLICES)
+                .withQuery(QueryBuilders.termQuery("secondSystem", systemIndex)));
     }
 }
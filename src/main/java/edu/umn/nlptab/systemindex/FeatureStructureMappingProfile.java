@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.systemindex;
+
+import com.google.common.io.ByteStreams;
+import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * The mapping profiles of the feature structure documents in a system index, selected when the system is created.
+ * <p>The default profile indexes every string both as a keyword and as analyzed text. The lean profile indexes strings
+ * only as keywords, without the analyzed sub-field, disables {@code _all}, and keeps the analyzed copy only for
+ * the features named when the system is created, since the identifiers which make up most of the string fields are
+ * never searched as text.</p>
+ *
+ * @since 1.2.0
+ */
+public enum FeatureStructureMappingProfile {
+    DEFAULT("default", "edu/umn/nlptab/systemindex/FeatureStructureMapping.json"),
+    LEAN("lean", "edu/umn/nlptab/systemindex/FeatureStructureMappingLean.json");
+
+    private final String name;
+
+    private final String resource;
+
+    FeatureStructureMappingProfile(String name, String resource) {
+        this.name = name;
+        this.resource = resource;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public static FeatureStructureMappingProfile forName(String name) {
+        for (FeatureStructureMappingProfile profile : values()) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the feature structure mapping of this profile.
+     *
+     * @param analyzedFeatures the full names of the features which keep an analyzed copy, only used by the lean
+     *                         profile since the default profile analyzes every feature
+     * @return the mapping source
+     * @throws NlpTabException if the mapping resource fails to be read
+     */
+    @SuppressWarnings("unchecked")
+    String buildMapping(List<String> analyzedFeatures) throws NlpTabException {
+        Map<String, Object> mapping;
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(resource)) {
+            mapping = JsonXContent.jsonXContent.createParser(ByteStreams.toByteArray(inputStream)).map();
+        } catch (IOException e) {
+            throw new NlpTabException(e);
+        }
+
+        if (this == LEAN && !analyzedFeatures.isEmpty()) {
+            Map<String, Object> featureStructure = (Map<String, Object>) mapping.get("FeatureStructure");
+            List<Object> dynamicTemplates = new ArrayList<>();
+            for (String analyzedFeature : analyzedFeatures) {
+                String luceneSafeName = analyzedFeature.replace('.', '_').replace(':', ';');
+                Map<String, Object> template = new HashMap<>();
+                template.put("path_match", "*Features." + luceneSafeName);
+                template.put("match_mapping_type", "string");
+                template.put("mapping", analyzedTemplateMapping());
+                dynamicTemplates.add(Collections.singletonMap("analyzed_" + luceneSafeName, template));
+            }
+            // the first matching template applies, so the analyzed features come before the keyword template
+            dynamicTemplates.addAll((List<Object>) featureStructure.get("dynamic_templates"));
+            featureStructure.put("dynamic_templates", dynamicTemplates);
+        }
+
+        try {
+            return XContentFactory.jsonBuilder().map(mapping).string();
+        } catch (IOException e) {
+            throw new NlpTabException(e);
+        }
+    }
+
+    private static Map<String, Object> analyzedTemplateMapping() {
+        Map<String, Object> analyzed = new HashMap<>();
+        analyzed.put("type", "string");
+
+        Map<String, Object> mapping = new HashMap<>();
+        mapping.put("type", "string");
+        mapping.put("index", "not_analyzed");
+        mapping.put("fields", Collections.singletonMap("analyzed", analyzed));
+        return mapping;
+    }
+}
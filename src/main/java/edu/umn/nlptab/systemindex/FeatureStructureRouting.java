@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.systemindex;
+
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.inject.Inject;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routing of the feature structure documents in system indexes.
+ * <p>Feature structures are routed by their document identifier, so that all of the feature structures of a document
+ * are on one shard and the per-document reads of analysis only go to that shard. System indexes created before
+ * routing are read without routing until they are migrated by {@link RouteFeatureStructures}. Whether an index is
+ * routed is recorded in the {@code _meta} of its {@code FeatureStructure} mapping.</p>
+ *
+ * @since 1.2.0
+ */
+public class FeatureStructureRouting {
+    /**
+     * Key in the {@code _meta} of the feature structure mapping naming the field feature structures are routed by.
+     */
+    public static final String META_KEY = "routing";
+
+    /**
+     * The field feature structures are routed by.
+     */
+    public static final String ROUTING_FIELD = "documentIdentifier";
+
+    private final ClusterService clusterService;
+
+    private final ConcurrentMap<String, RoutedState> routedForIndex = new ConcurrentHashMap<>();
+
+    @Inject
+    FeatureStructureRouting(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    /**
+     * Returns whether the feature structures of a system index are routed by document identifier.
+     *
+     * @param systemIndex the system index
+     * @return true if the feature structures are routed
+     */
+    public boolean isRoutedByDocument(String systemIndex) {
+        IndexMetaData indexMetaData = clusterService.state().metaData().index(systemIndex);
+        if (indexMetaData == null) {
+            return false;
+        }
+
+        RoutedState routedState = routedForIndex.get(systemIndex);
+        if (routedState != null && routedState.version == indexMetaData.getVersion()) {
+            return routedState.routed;
+        }
+
+        boolean routed = false;
+        MappingMetaData mapping = indexMetaData.mapping("FeatureStructure");
+        if (mapping != null) {
+            try {
+                Object meta = mapping.sourceAsMap().get("_meta");
+                routed = meta instanceof Map && ROUTING_FIELD.equals(((Map<?, ?>) meta).get(META_KEY));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        routedForIndex.put(systemIndex, new RoutedState(indexMetaData.getVersion(), routed));
+        return routed;
+    }
+
+    /**
+     * Returns the routing to use for reading the feature structures of a document from a system index.
+     *
+     * @param systemIndex        the system index
+     * @param documentIdentifier the document identifier
+     * @return the routing, or null if the feature structures of the system index are not routed
+     */
+    @Nullable
+    public String routing(String systemIndex, String documentIdentifier) {
+        return isRoutedByDocument(systemIndex) ? documentIdentifier : null;
+    }
+
+    private static class RoutedState {
+        private final long version;
+
+        private final boolean routed;
+
+        RoutedState(long version, boolean routed) {
+            this.version = version;
+            this.routed = routed;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.systemindex;
+
+import edu.umn.nlptab.NlpTabException;
+import edu.umn.nlptab.uimatyping.TypeSystemInfo;
+import edu.umn.nlptab.uimatyping.ValueAdapter;
+import org.apache.uima.cas.*;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reference feature paths which are denormalized into the feature structure documents at ingest time, so that
+ * analysis does not need to traverse references to compare their leaf values.
+ * <p>A path is written as a type name, either the full name or the short name, followed by the base names of the
+ * reference features to follow and the base name of the primitive leaf feature, separated by periods, for example
+ * {@code Concept.ontologyConcept.cui}. The resolved values are stored in the {@link #FIELD} object keyed by the
+ * lucene safe full names of the features traversed, joined with {@link #KEY_SEPARATOR}.</p>
+ *
+ * @since 1.2.0
+ */
+public class MaterializedPaths {
+    /**
+     * The field on the feature structure document containing the materialized values.
+     */
+    public static final String FIELD = "materializedFeatures";
+
+    /**
+     * The separator between feature names in the keys of the materialized values.
+     */
+    public static final String KEY_SEPARATOR = "|";
+
+    private final List<String> paths;
+
+    private final TypeSystemInfo typeSystemInfo;
+
+    private final Map<Type, List<List<String>>> featurePathsForType;
+
+    MaterializedPaths(List<String> paths, TypeSystemInfo typeSystemInfo) {
+        this.paths = paths;
+        this.typeSystemInfo = typeSystemInfo;
+        featurePathsForType = new ConcurrentHashMap<>();
+    }
+
+    boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+    private List<List<String>> featurePathsForType(TypeSystem typeSystem, Type type) {
+        return featurePathsForType.computeIfAbsent(type, key -> {
+            List<List<String>> featurePaths = new ArrayList<>();
+            for (String path : paths) {
+                Type typePointer = type;
+                while (typePointer != null) {
+                    String remainder = null;
+                    if (path.startsWith(typePointer.getName() + ".")) {
+                        remainder = path.substring(typePointer.getName().length() + 1);
+                    } else if (path.startsWith(typePointer.getShortName() + ".")) {
+                        remainder = path.substring(typePointer.getShortName().length() + 1);
+                    }
+
+                    if (remainder != null && !remainder.isEmpty()) {
+                        featurePaths.add(Arrays.asList(remainder.split("\\.")));
+                        break;
+                    }
+                    typePointer = typeSystem.getParent(typePointer);
+                }
+            }
+            return featurePaths;
+        });
+    }
+
+    /**
+     * Resolves the leaf values of every path which applies to the type of the feature structure.
+     *
+     * @param featureStructure the feature structure being indexed.
+     * @return map from the lucene safe feature names of the path to the leaf values reached.
+     * @throws NlpTabException if a value fails to be read.
+     */
+    Map<String, List<Object>> resolve(FeatureStructure featureStructure) throws NlpTabException {
+        TypeSystem typeSystem = featureStructure.getCAS().getTypeSystem();
+        List<List<String>> featurePaths = featurePathsForType(typeSystem, featureStructure.getType());
+        if (featurePaths.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, List<Object>> values = new HashMap<>();
+        for (List<String> featurePath : featurePaths) {
+            List<Step> level = Collections.singletonList(new Step(featureStructure, ""));
+            for (String referenceFeatureName : featurePath.subList(0, featurePath.size() - 1)) {
+                List<Step> nextLevel = new ArrayList<>();
+                for (Step step : expandCollections(typeSystem, level)) {
+                    Feature feature = step.featureStructure.getType().getFeatureByBaseName(referenceFeatureName);
+                    if (feature == null || typeSystemInfo.getValueAdapter(feature.getRange()) != null) {
+                        continue;
+                    }
+                    FeatureStructure child = step.featureStructure.getFeatureValue(feature);
+                    if (child != null) {
+                        nextLevel.add(new Step(child, step.key + luceneSafe(feature) + KEY_SEPARATOR));
+                    }
+                }
+                level = nextLevel;
+            }
+
+            String leafFeatureName = featurePath.get(featurePath.size() - 1);
+            for (Step step : expandCollections(typeSystem, level)) {
+                Feature feature = step.featureStructure.getType().getFeatureByBaseName(leafFeatureName);
+                if (feature == null) {
+                    continue;
+                }
+                ValueAdapter valueAdapter = typeSystemInfo.getValueAdapter(feature.getRange());
+                if (valueAdapter == null) {
+                    continue;
+                }
+                Object value = valueAdapter.getValueOfFeature(typeSystem, feature, step.featureStructure)
+                        .getValueOrNull();
+                List<Object> leafValues = values.computeIfAbsent(step.key + luceneSafe(feature),
+                        key -> new ArrayList<>());
+                addFlattened(leafValues, value);
+            }
+        }
+        return values;
+    }
+
+    private static List<Step> expandCollections(TypeSystem typeSystem, List<Step> level) {
+        Type fsListType = typeSystem.getType(CAS.TYPE_NAME_FS_LIST);
+        Feature head = typeSystem.getFeatureByFullName(CAS.FEATURE_FULL_NAME_FS_LIST_HEAD);
+        Feature tail = typeSystem.getFeatureByFullName(CAS.FEATURE_FULL_NAME_FS_LIST_TAIL);
+
+        List<Step> expanded = new ArrayList<>();
+        Deque<Step> toExpand = new ArrayDeque<>(level);
+        while (!toExpand.isEmpty()) {
+            Step step = toExpand.removeFirst();
+            FeatureStructure featureStructure = step.featureStructure;
+            if (featureStructure instanceof ArrayFS) {
+                ArrayFS arrayFS = (ArrayFS) featureStructure;
+                List<Step> items = new ArrayList<>(arrayFS.size());
+                for (int i = 0; i < arrayFS.size(); i++) {
+                    FeatureStructure item = arrayFS.get(i);
+                    if (item != null) {
+                        items.add(new Step(item, step.key));
+                    }
+                }
+                pushAllFirst(toExpand, items);
+            } else if (typeSystem.subsumes(fsListType, featureStructure.getType())) {
+                List<Step> items = new ArrayList<>();
+                FeatureStructure cons = featureStructure;
+                while (cons.getType().getName().equals(CAS.TYPE_NAME_NON_EMPTY_FS_LIST)) {
+                    FeatureStructure item = cons.getFeatureValue(head);
+                    if (item != null) {
+                        items.add(new Step(item, step.key));
+                    }
+                    cons = cons.getFeatureValue(tail);
+                }
+                pushAllFirst(toExpand, items);
+            } else {
+                expanded.add(step);
+            }
+        }
+        return expanded;
+    }
+
+    private static void pushAllFirst(Deque<Step> deque, List<Step> steps) {
+        ListIterator<Step> iterator = steps.listIterator(steps.size());
+        while (iterator.hasPrevious()) {
+            deque.addFirst(iterator.previous());
+        }
+    }
+
+    private static void addFlattened(List<Object> leafValues, @Nullable Object value) {
+        if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                leafValues.add(Array.get(value, i));
+            }
+        } else if (value instanceof Collection) {
+            leafValues.addAll((Collection<?>) value);
+        } else {
+            leafValues.add(value);
+        }
+    }
+
+    private static String luceneSafe(Feature feature) {
+        return feature.getName().replace('.', '_').replace(':', ';');
+    }
+
+    private static class Step {
+        private final FeatureStructure featureStructure;
+
+        private final String key;
+
+        Step(FeatureStructure featureStructure, String key) {
+            this.featureStructure = featureStructure;
+            this.key = key;
+        }
+    }
+}
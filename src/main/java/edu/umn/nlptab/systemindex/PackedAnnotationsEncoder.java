@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.umn.nlptab.systemindex;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Collects the primary locations, primary types and identifiers of the feature structures of one system in one
+ * document view at ingest and encodes them into the binary field {@link #FIELD} of the {@code DocumentInSystem}
+ * document, so that the spans of a document can be read without searching the system index. The annotations are
+ * decoded by {@code edu.umn.nlptab.analysis.PackedAnnotations}.
+ * <p>The spans are sorted by begin and then end. The encoding is the {@link #VERSION}, the distinct type names, the
+ * number of spans, and then for each span the begin as a delta from the previous begin, the zig-zag encoded length,
+ * the type code and the feature structure identifier, with every integer written as a variable length int.</p>
+ *
+ * @since 1.2.0
+ */
+public class PackedAnnotationsEncoder {
+    /**
+     * The field on the {@code DocumentInSystem} document containing the packed annotations.
+     */
+    public static final String FIELD = "annotations";
+
+    /**
+     * The version of the encoding, which is written first.
+     */
+    public static final int VERSION = 2;
+
+    private final Map<String, Integer> typeCodes = new HashMap<>();
+
+    private final List<String> typeNames = new ArrayList<>();
+
+    private final List<Span> spans = new ArrayList<>();
+
+    public PackedAnnotationsEncoder add(String identifier, int begin, int end, String typeName) {
+        Integer typeCode = typeCodes.get(typeName);
+        if (typeCode == null) {
+            typeCode = typeNames.size();
+            typeCodes.put(typeName, typeCode);
+            typeNames.add(typeName);
+        }
+        spans.add(new Span(identifier, begin, end, typeCode));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return spans.isEmpty();
+    }
+
+    public BytesReference encode() throws IOException {
+        spans.sort(Comparator.comparingInt((Span span) -> span.begin).thenComparingInt(span -> span.end));
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        out.writeVInt(VERSION);
+        out.writeStringArray(typeNames.toArray(new String[typeNames.size()]));
+        out.writeVInt(spans.size());
+        int previousBegin = 0;
+        for (Span span : spans) {
+            int length = span.end - span.begin;
+            out.writeVInt(span.begin - previousBegin);
+            out.writeVInt((length << 1) ^ (length >> 31));
+            out.writeVInt(span.typeCode);
+            out.writeString(span.identifier);
+            previousBegin = span.begin;
+        }
+        return out.bytes();
+    }
+
+    private static class Span {
+        private final String identifier;
+
+        private final int begin;
+
+        private final int end;
+
+        private final int typeCode;
+
+        Span(String identifier, int begin, int end, int typeCode) {
+            this.identifier = identifier;
+            this.begin = begin;
+            this.end = end;
+            this.typeCode = typeCode;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.systemindex;
+
+import edu.umn.nlptab.casprocessing.FsDocumentLocation;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * The locations of a feature structure and its ancestors, packed into the binary doc values field {@link #FIELD} by
+ * the flat {@link SpanEncoding}, so that the begin, end and distance of each location can be read together without
+ * nested documents. The field is excluded from {@code _source}, so it only exists as doc values, which are read with
+ * a {@link Reader}.
+ * <p>The encoding is the number of locations and then for each location, in order of distance, the distance as a
+ * delta from the previous distance, the begin and the zig-zag encoded length, each as a variable length int.</p>
+ *
+ * @since 1.2.0
+ */
+public class PackedLocations {
+    /**
+     * The binary doc values field containing the packed locations.
+     */
+    public static final String FIELD = "packedLocations";
+
+    private PackedLocations() {
+    }
+
+    public static BytesReference encode(SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance) throws IOException {
+        int size = 0;
+        for (Set<FsDocumentLocation> locations : locationAtDistance.values()) {
+            size += locations.size();
+        }
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        out.writeVInt(size);
+        int previousDistance = 0;
+        for (Map.Entry<Integer, Set<FsDocumentLocation>> entry : locationAtDistance.entrySet()) {
+            int distance = entry.getKey();
+            for (FsDocumentLocation location : entry.getValue()) {
+                int length = location.getEnd() - location.getBegin();
+                out.writeVInt(distance - previousDistance);
+                out.writeVInt(location.getBegin());
+                out.writeVInt((length << 1) ^ (length >> 31));
+                previousDistance = distance;
+            }
+        }
+        return out.bytes();
+    }
+
+    /**
+     * Reads the packed locations of a document from the binary doc values of {@link #FIELD}, in order of distance. The
+     * reader is reset for each document so that no objects are allocated per document.
+     */
+    public static class Reader {
+        private final ByteArrayDataInput in = new ByteArrayDataInput();
+
+        private int remaining;
+
+        private int distance;
+
+        private int begin;
+
+        private int end;
+
+        /**
+         * Starts reading the locations of a document from its binary doc value, which elasticsearch writes as the
+         * number of values followed by the length and bytes of each value.
+         *
+         * @param docValue the binary doc value of the document, which is empty if the document has no locations
+         */
+        public void reset(BytesRef docValue) {
+            remaining = 0;
+            distance = 0;
+            if (docValue.length == 0) {
+                return;
+            }
+            in.reset(docValue.bytes, docValue.offset, docValue.length);
+            if (in.readVInt() == 0) {
+                return;
+            }
+            int length = in.readVInt();
+            in.reset(docValue.bytes, in.getPosition(), length);
+            remaining = in.readVInt();
+        }
+
+        /**
+         * Advances to the next location.
+         *
+         * @return false if there are no more locations
+         */
+        public boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            distance += in.readVInt();
+            begin = in.readVInt();
+            int zigZagLength = in.readVInt();
+            end = begin + ((zigZagLength >>> 1) ^ -(zigZagLength & 1));
+            return true;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+
+        public int getBegin() {
+            return begin;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+    }
+}
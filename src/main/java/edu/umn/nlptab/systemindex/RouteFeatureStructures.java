@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.systemindex;
+
+import edu.umn.nlptab.NlpTabException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.math.MathUtils;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+
+/**
+ * Migrates a system index created before feature structures were routed, reindexing every feature structure which
+ * has no routing with its document identifier as routing, and then marking the index as routed.
+ * <p>The routed copy is indexed first, and the unrouted copy is only deleted once the routed copy has been indexed,
+ * so a failure never loses a feature structure. When both copies hash to the same shard the routed copy replaces the
+ * unrouted one, and nothing is deleted. Analyses of the system index should not be run during the migration.</p>
+ * <p>Elasticsearch does not update {@code _routing.required} on an existing mapping, so it is only set on indexes
+ * created with routing, and reads of feature structures by id always pass the document identifier as routing.</p>
+ *
+ * @since 1.2.0
+ */
+public class RouteFeatureStructures {
+    private static final ESLogger LOGGER = Loggers.getLogger(RouteFeatureStructures.class);
+
+    private static final int PAGE_SIZE = 500;
+
+    private static final Murmur3HashFunction HASH_FUNCTION = new Murmur3HashFunction();
+
+    private final Client client;
+
+    private final ClusterService clusterService;
+
+    private String systemIndex;
+
+    @Inject
+    RouteFeatureStructures(Client client, ClusterService clusterService) {
+        this.client = client;
+        this.clusterService = clusterService;
+    }
+
+    public RouteFeatureStructures inSystemIndex(String systemIndex) {
+        this.systemIndex = systemIndex;
+        return this;
+    }
+
+    /**
+     * Routes the feature structures of the system index.
+     *
+     * @return the number of feature structures which were reindexed
+     * @throws NlpTabException if reindexing fails
+     * @throws IOException     if the mapping fails to be updated
+     */
+    public long run() throws NlpTabException, IOException {
+        if (systemIndex == null) {
+            throw new IllegalStateException("systemIndex not initialized");
+        }
+        LOGGER.info("Routing feature structures of {} by document identifier", systemIndex);
+
+        IndexMetaData indexMetaData = clusterService.state().metaData().index(systemIndex);
+        if (indexMetaData == null) {
+            throw new NlpTabException("No system index " + systemIndex);
+        }
+        int numberOfShards = indexMetaData.getNumberOfShards();
+
+        long reindexed = 0;
+        SearchResponse response = client.prepareSearch(systemIndex)
+                .setTypes("FeatureStructure")
+                .setQuery(QueryBuilders.matchAllQuery())
+                .addFields("_routing", "_source")
+                .addSort("_doc", SortOrder.ASC)
+                .setScroll(TimeValue.timeValueMinutes(5))
+                .setSize(PAGE_SIZE)
+                .get();
+        try {
+            SearchHit[] hits = response.getHits().getHits();
+            while (hits.length > 0) {
+                BulkRequestBuilder indexRequests = client.prepareBulk();
+                for (SearchHit hit : hits) {
+                    SearchHitField routingField = hit.field("_routing");
+                    if (routingField != null && routingField.getValue() != null) {
+                        continue;
+                    }
+                    Object documentIdentifier = hit.getSource().get(FeatureStructureRouting.ROUTING_FIELD);
+                    if (documentIdentifier == null) {
+                        continue;
+                    }
+                    indexRequests.add(client.prepareIndex(systemIndex, "FeatureStructure", hit.getId())
+                            .setRouting(documentIdentifier.toString())
+                            .setSource(hit.getSourceRef()));
+                }
+
+                if (indexRequests.numberOfActions() > 0) {
+                    BulkResponse indexResponse = indexRequests.get();
+                    BulkRequestBuilder deleteRequests = client.prepareBulk();
+                    for (BulkItemResponse item : indexResponse) {
+                        if (item.isFailed()) {
+                            continue;
+                        }
+                        reindexed++;
+                        String routing = ((IndexRequest) indexRequests.request().requests().get(item.getItemId()))
+                                .routing();
+                        if (shardOf(item.getId(), numberOfShards) != shardOf(routing, numberOfShards)) {
+                            deleteRequests.add(client.prepareDelete(systemIndex, "FeatureStructure", item.getId()));
+                        }
+                    }
+
+                    if (deleteRequests.numberOfActions() > 0) {
+                        BulkResponse deleteResponse = deleteRequests.get();
+                        if (deleteResponse.hasFailures()) {
+                            throw new NlpTabException("Failed to delete unrouted feature structures: "
+                                    + deleteResponse.buildFailureMessage());
+                        }
+                    }
+                    if (indexResponse.hasFailures()) {
+                        throw new NlpTabException("Failed to route feature structures: "
+                                + indexResponse.buildFailureMessage());
+                    }
+                }
+
+                response = client.prepareSearchScroll(response.getScrollId())
+                        .setScroll(TimeValue.timeValueMinutes(5))
+                        .get();
+                hits = response.getHits().getHits();
+            }
+        } finally {
+            client.prepareClearScroll().addScrollId(response.getScrollId()).get();
+        }
+
+        client.admin().indices().prepareRefresh(systemIndex).get();
+        client.admin().indices().preparePutMapping(systemIndex)
+                .setType("FeatureStructure")
+                .setSource(XContentFactory.jsonBuilder()
+                        .startObject()
+                        .startObject("FeatureStructure")
+                        .startObject("_meta")
+                        .field(FeatureStructureRouting.META_KEY, FeatureStructureRouting.ROUTING_FIELD)
+                        .endObject()
+                        .endObject()
+                        .endObject())
+                .get();
+
+        LOGGER.info("Routed {} feature structures of {}", reindexed, systemIndex);
+        return reindexed;
+    }
+
+    private static int shardOf(String routing, int numberOfShards) {
+        return MathUtils.mod(HASH_FUNCTION.hash(routing), numberOfShards);
+    }
+}
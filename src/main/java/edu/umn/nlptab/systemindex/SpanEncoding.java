@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015 Regents of the University of Minnesota.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.umn.nlptab.systemindex;
+
+import javax.annotation.Nullable;
+
+/**
+ * How the locations of a feature structure and its ancestors are stored on the feature structure document, selected
+ * when the system is created.
+ * <p>The nested encoding stores each location as a nested {@code documentLocations} object, which Lucene indexes as
+ * a separate document. The flat encoding stores the locations as the parallel arrays {@code ancestorLocations.begin},
+ * {@code ancestorLocations.end} and {@code ancestorLocations.distance} on the feature structure document itself, plus
+ * the {@link PackedLocations} doc value for anything which needs the begin, end and distance of each location
+ * together. Both encodings store the {@code primaryLocation}.</p>
+ *
+ * @since 1.2.0
+ */
+public enum SpanEncoding {
+    NESTED("nested"),
+    FLAT("flat");
+
+    private final String name;
+
+    SpanEncoding(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public static SpanEncoding forName(String name) {
+        for (SpanEncoding spanEncoding : values()) {
+            if (spanEncoding.name.equals(name)) {
+                return spanEncoding;
+            }
+        }
+        return null;
+    }
+}
@@ -78,6 +78,11 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
     @Nullable
     private List<String> ignoredViews;
 
+    @Nullable
+    private List<String> materializedPaths;
+
+    private SpanEncoding spanEncoding = SpanEncoding.NESTED;
+
     private SystemIndexCasProcessingDelegate(Client client, InstanceIndexes instanceIndexes, String systemIndex) {
         this.client = client;
         typesSeen = new HashSet<>();
@@ -90,21 +95,50 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
                 .execute();
     }
 
-    @Override
-    public boolean shouldProcessView(String viewName) throws NlpTabException {
+    @SuppressWarnings("unchecked")
+    private void loadSystemIndexMetadata() throws NlpTabException {
         if (ignoredViews == null) {
             try {
                 GetResponse getResponse = systemIndexFuture.get();
                 Map<String, Object> systemIndexMetadata = getResponse.getSource();
                 ignoredViews = (List<String>) systemIndexMetadata.get("ignoredViews");
+                materializedPaths = (List<String>) systemIndexMetadata.get("materializedPaths");
+                if (materializedPaths == null) {
+                    materializedPaths = Collections.emptyList();
+                }
+                String spanEncodingName = (String) systemIndexMetadata.get("spanEncoding");
+                if (spanEncodingName != null) {
+                    SpanEncoding spanEncoding = SpanEncoding.forName(spanEncodingName);
+                    if (spanEncoding == null) {
+                        throw new NlpTabException("Unknown span encoding: " + spanEncodingName);
+                    }
+                    this.spanEncoding = spanEncoding;
+                }
             } catch (InterruptedException | ExecutionException e) {
                 throw new NlpTabException(e);
             }
         }
+    }
+
+    @Override
+    public boolean shouldProcessView(String viewName) throws NlpTabException {
+        loadSystemIndexMetadata();
 
         return !ignoredViews.contains(viewName);
     }
 
+    /**
+     * Returns the reference paths which the system index was set up to materialize into feature structure documents.
+     *
+     * @return list of paths, see {@link MaterializedPaths}
+     * @throws NlpTabException if the system index metadata fails to load
+     */
+    List<String> getMaterializedPaths() throws NlpTabException {
+        loadSystemIndexMetadata();
+
+        return materializedPaths;
+    }
+
     @Override
     public void priorToProcessing(SofaData sofaData) throws NlpTabException {
         String documentIdentifierString = sofaData.getDocumentIdentifierString();
@@ -126,6 +160,7 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
 
         try {
             client.prepareIndex(searchIndex, "DocumentInSystem")
+                    .setId(sofaData.getCasViewIdentifierString())
                     .setRouting(documentIdentifierString)
                     .setParent(documentIdentifierString)
                     .setSource(XContentFactory.jsonBuilder()
@@ -211,6 +246,43 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
                 .endObject();
     }
 
+    private static void addNestedLocations(XContentBuilder builder,
+                                           SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance)
+            throws IOException {
+        builder.startArray("documentLocations");
+        for (Map.Entry<Integer, Set<FsDocumentLocation>> entry : locationAtDistance.entrySet()) {
+            for (FsDocumentLocation fsDocumentLocation : entry.getValue()) {
+                builder.startObject()
+                        .field("begin", fsDocumentLocation.getBegin())
+                        .field("end", fsDocumentLocation.getEnd())
+                        .field("distance", entry.getKey())
+                        .endObject();
+            }
+        }
+        builder.endArray();
+    }
+
+    private static void addFlatLocations(XContentBuilder builder,
+                                         SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance)
+            throws IOException {
+        List<Integer> begins = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        List<Integer> distances = new ArrayList<>();
+        for (Map.Entry<Integer, Set<FsDocumentLocation>> entry : locationAtDistance.entrySet()) {
+            for (FsDocumentLocation fsDocumentLocation : entry.getValue()) {
+                begins.add(fsDocumentLocation.getBegin());
+                ends.add(fsDocumentLocation.getEnd());
+                distances.add(entry.getKey());
+            }
+        }
+        builder.startObject("ancestorLocations")
+                .field("begin", begins)
+                .field("end", ends)
+                .field("distance", distances)
+                .endObject()
+                .field(PackedLocations.FIELD, PackedLocations.encode(locationAtDistance));
+    }
+
     @Override
     public void afterProcessing(SofaData sofaData) throws InterruptedException, IOException {
         Map<String, Collection<String>> childToParentMap = sofaData.getChildToParentMap();
@@ -223,6 +295,7 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
         allKeys.addAll(directKeys);
         allKeys.addAll(childKeys);
 
+        PackedAnnotationsEncoder packedAnnotations = new PackedAnnotationsEncoder();
         BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
         for (String key : allKeys) {
             DocumentLocationsForDocument documentLocationsForDocument = new DocumentLocationsForDocument(childToParentMap, documentLocationMap, key);
@@ -230,26 +303,14 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
             SortedMap<Integer, Set<FsDocumentLocation>> locationAtDistance = documentLocationsForDocument.getLocationAtDistance();
 
             if (!locationAtDistance.entrySet().isEmpty()) {
-                XContentBuilder builder = XContentFactory.jsonBuilder().startObject()
-                        .startArray("documentLocations");
-
-                Set<Integer> distances = locationAtDistance.keySet();
-                for (Integer distance : distances) {
-                    Set<FsDocumentLocation> fsDocumentLocations = locationAtDistance.get(distance);
-                    if (fsDocumentLocations == null || fsDocumentLocations.size() == 0) {
-                        continue;
-                    }
-
-                    for (FsDocumentLocation fsDocumentLocation : fsDocumentLocations) {
-                        builder.startObject()
-                                .field("begin", fsDocumentLocation.getBegin())
-                                .field("end", fsDocumentLocation.getEnd())
-                                .field("distance", distance)
-                                .endObject();
-                    }
+                XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+                if (spanEncoding == SpanEncoding.FLAT) {
+                    addFlatLocations(builder, locationAtDistance);
+                } else {
+                    addNestedLocations(builder, locationAtDistance);
                 }
 
-                builder.endArray();
+                Set<Integer> distances = locationAtDistance.keySet();
 
                 Integer first = distances.iterator().next();
                 if (first != null) {
@@ -261,6 +322,11 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
                                     .field("begin", firstLocation.getBegin())
                                     .field("end", firstLocation.getEnd())
                                     .endObject();
+
+                            String typeName = sofaData.getTypeNameForIdentifier(key);
+                            if (typeName != null) {
+                                packedAnnotations.add(key, firstLocation.getBegin(), firstLocation.getEnd(), typeName);
+                            }
                         }
                     }
                 }
@@ -269,12 +335,23 @@ class SystemIndexCasProcessingDelegate implements CasProcessingDelegate {
 
                 UpdateRequestBuilder updateRequest = client
                         .prepareUpdate(systemIndex, "FeatureStructure", key)
+                        .setRouting(sofaData.getDocumentIdentifierString())
                         .setDoc(builder);
 
                 bulkRequestBuilder.add(updateRequest);
             }
         }
 
+        String documentIdentifierString = sofaData.getDocumentIdentifierString();
+        bulkRequestBuilder.add(client.prepareUpdate(searchIndex, "DocumentInSystem",
+                sofaData.getCasViewIdentifierString())
+                .setRouting(documentIdentifierString)
+                .setParent(documentIdentifierString)
+                .setDoc(XContentFactory.jsonBuilder()
+                        .startObject()
+                        .field(PackedAnnotationsEncoder.FIELD, packedAnnotations.encode())
+                        .endObject()));
+
         if (bulkRequestBuilder.numberOfActions() > 0) {
             bulkRequestBuilder.get();
         }
@@ -57,11 +57,19 @@ class SystemIndexFSProcessorDelegate implements FeatureStructureProcessorDelegat
     @Nullable
     private Map<String, Collection<PrimitiveFeatureInstance>> primitiveFeatureInstances;
 
+    @Nullable
+    private MaterializedPaths materializedPaths;
+
     @Inject
     SystemIndexFSProcessorDelegate(Client client) {
         this.client = client;
     }
 
+    SystemIndexFSProcessorDelegate withMaterializedPaths(MaterializedPaths materializedPaths) {
+        this.materializedPaths = materializedPaths;
+        return this;
+    }
+
     @Override
     public void setPrimitiveValue(UimaPrimitive primitiveValue) {
         this.primitiveValue = primitiveValue;
@@ -171,8 +179,20 @@ class SystemIndexFSProcessorDelegate implements FeatureStructureProcessorDelegat
             builder.endObject();
         }
 
+        if (materializedPaths != null) {
+            Map<String, List<Object>> materializedValues = materializedPaths.resolve(featureStructure);
+            if (!materializedValues.isEmpty()) {
+                builder.startObject(MaterializedPaths.FIELD);
+                for (Map.Entry<String, List<Object>> entry : materializedValues.entrySet()) {
+                    builder.field(entry.getKey(), entry.getValue());
+                }
+                builder.endObject();
+            }
+        }
+
         return client.prepareIndex(primaryIndex, "FeatureStructure")
                 .setId(sofaData.getIdentifierForFs(featureStructure))
+                .setRouting(sofaData.getDocumentIdentifierString())
                 .setSource(builder.endObject());
     }
 
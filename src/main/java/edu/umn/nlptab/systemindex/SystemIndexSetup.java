@@ -52,6 +52,14 @@ public class SystemIndexSetup {
 
     private List<String> ignoredViews;
 
+    private List<String> materializedPaths;
+
+    private FeatureStructureMappingProfile mappingProfile;
+
+    private List<String> analyzedFeatures;
+
+    private SpanEncoding spanEncoding;
+
     /**
      * Default constructor, usually instantiated through Guice.
      *
@@ -83,6 +91,50 @@ public class SystemIndexSetup {
         }
         this.ignoredViews = ignoredViews;
 
+        @SuppressWarnings("unchecked")
+        List<String> materializedPaths = (List<String>) jsonObject.get("materializedPaths");
+        if (materializedPaths == null) {
+            materializedPaths = Collections.emptyList();
+        }
+        for (String materializedPath : materializedPaths) {
+            if (materializedPath == null || materializedPath.indexOf('.') <= 0 || materializedPath.endsWith(".")) {
+                throw new NlpTabException("Invalid materialized path: " + materializedPath);
+            }
+        }
+        this.materializedPaths = materializedPaths;
+
+        String mappingProfileName = (String) jsonObject.get("mappingProfile");
+        if (mappingProfileName == null) {
+            mappingProfile = FeatureStructureMappingProfile.DEFAULT;
+        } else {
+            mappingProfile = FeatureStructureMappingProfile.forName(mappingProfileName);
+            if (mappingProfile == null) {
+                throw new NlpTabException("Unknown mapping profile: " + mappingProfileName);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<String> analyzedFeatures = (List<String>) jsonObject.get("analyzedFeatures");
+        if (analyzedFeatures == null) {
+            analyzedFeatures = Collections.emptyList();
+        }
+        for (String analyzedFeature : analyzedFeatures) {
+            if (analyzedFeature == null || analyzedFeature.isEmpty()) {
+                throw new NlpTabException("Invalid analyzed feature: " + analyzedFeature);
+            }
+        }
+        this.analyzedFeatures = analyzedFeatures;
+
+        String spanEncodingName = (String) jsonObject.get("spanEncoding");
+        if (spanEncodingName == null) {
+            spanEncoding = SpanEncoding.NESTED;
+        } else {
+            spanEncoding = SpanEncoding.forName(spanEncodingName);
+            if (spanEncoding == null) {
+                throw new NlpTabException("Unknown span encoding: " + spanEncodingName);
+            }
+        }
+
         String instance = (String) jsonObject.get("instance");
         if (instance == null) {
             throw new NlpTabException("instance was null");
@@ -98,27 +150,29 @@ public class SystemIndexSetup {
     /**
      * Initializes the primary index where data is stored about the CASes in this system. Also initializes the types on
      * the primary, metadata, and search indexes.
+     * <p>Each index is created with its settings and all of its mappings in one request. The metadata and search
+     * indexes are shared by the systems of an instance and are only initialized once per node, so setting up a system
+     * is a single cluster state update.</p>
      *
      * @throws NlpTabException if the setup fails.
      */
     public void setupElasticSearch() throws NlpTabException {
         LOGGER.info("Initializing ElasticSearch indexes and type mappings");
-        elasticSearchSetup.setUpPrimaryIndex("edu/umn/nlptab/systemindex/SystemIndexSettings.json");
+        elasticSearchSetup.setUpInstanceIndex(InstanceIndexes.METADATA_SUFFIX, null,
+                Collections.singletonMap("SystemIndex", "edu/umn/nlptab/systemindex/MetadataSystemIndexMapping.json"));
 
-        elasticSearchSetup.setUpPrimaryIndexType("FeatureStructure",
-                "edu/umn/nlptab/systemindex/FeatureStructureMapping.json");
+        Map<String, String> searchTypes = new LinkedHashMap<>();
+        searchTypes.put("DocumentInSystem", "edu/umn/nlptab/systemindex/SearchDocumentInSystemMapping.json");
+        searchTypes.put("Document", "edu/umn/nlptab/systemindex/SearchDocumentMapping.json");
+        elasticSearchSetup.setUpInstanceIndex(InstanceIndexes.SEARCH_SUFFIX, null, searchTypes);
 
-        elasticSearchSetup.setUpPrimaryIndexType("Type",
-                "edu/umn/nlptab/systemindex/TypeMapping.json");
-
-        elasticSearchSetup.setUpMetadataIndexType("SystemIndex",
-                "edu/umn/nlptab/systemindex/MetadataSystemIndexMapping.json");
+        elasticSearchSetup.addPrimaryIndexTypeFromSource("FeatureStructure",
+                mappingProfile.buildMapping(analyzedFeatures));
 
-        elasticSearchSetup.setUpSearchIndexType("DocumentInSystem",
-                "edu/umn/nlptab/systemindex/SearchDocumentInSystemMapping.json");
+        elasticSearchSetup.addPrimaryIndexType("Type",
+                "edu/umn/nlptab/systemindex/TypeMapping.json");
 
-        elasticSearchSetup.setUpSearchIndexType("Document",
-                "edu/umn/nlptab/systemindex/SearchDocumentMapping.json");
+        elasticSearchSetup.setUpPrimaryIndex("edu/umn/nlptab/systemindex/SystemIndexSettings.json");
     }
 
     /**
@@ -137,6 +191,10 @@ public class SystemIndexSetup {
                         .field("created", new Date())
                         .field("ready", false)
                         .field("ignoredViews", ignoredViews)
+                        .field("materializedPaths", materializedPaths)
+                        .field("mappingProfile", mappingProfile.getName())
+                        .field("analyzedFeatures", analyzedFeatures)
+                        .field("spanEncoding", spanEncoding.getName())
                         .endObject())
                 .get().getId();
     }
@@ -66,6 +66,8 @@ public class SystemIndexing {
 
     private final Provider<SystemIndexFSProcessorDelegate> systemIndexFSProcessorDelegateProvider;
 
+    private final MaterializedPaths materializedPaths;
+
     private final SystemIndexingSettings systemIndexingSettings;
 
     private final TypeSystemInfo typeSystemInfo;
@@ -112,6 +114,9 @@ public class SystemIndexing {
         InstanceIndexes instanceIndexes = systemIndexingSettings.getInstanceIndexes();
         String systemIndex = systemIndexingSettings.getIndex();
         systemIndexCasViewProcessorDelegate = casViewProcessorDelegateFactory.create(instanceIndexes, systemIndex);
+
+        materializedPaths = new MaterializedPaths(systemIndexCasViewProcessorDelegate.getMaterializedPaths(),
+                typeSystemInfo);
     }
 
     void indexDocument(Path documentPath) throws NlpTabException {
@@ -124,8 +129,12 @@ public class SystemIndexing {
                 XmiCasDeserializer.deserialize(inputStream, cas, true);
             }
 
+            Provider<SystemIndexFSProcessorDelegate> delegateProvider = materializedPaths.isEmpty()
+                    ? systemIndexFSProcessorDelegateProvider
+                    : () -> systemIndexFSProcessorDelegateProvider.get().withMaterializedPaths(materializedPaths);
+
             CasProcessorSettings casProcessorSettings = new CasProcessorSettings(systemIndexingSettings.getIndex(),
-                    typeSystemInfo, systemIndexFSProcessorDelegateProvider, systemIndexCasViewProcessorDelegate);
+                    typeSystemInfo, delegateProvider, systemIndexCasViewProcessorDelegate);
 
             casProcessorFactory.create(casProcessorSettings, cas).process();
         } catch (ResourceInitializationException | IOException | SAXException e) {
@@ -30,5 +30,7 @@ public class SystemIndexingModule extends AbstractModule {
 
         bind(SystemIndexingTaskFactory.class)
                 .toProvider(FactoryProvider.newFactory(SystemIndexingTaskFactory.class, SystemIndexingTask.class));
+
+        bind(FeatureStructureRouting.class).asEagerSingleton();
     }
 }
@@ -28,6 +28,10 @@ public class SystemIndexingSettings {
 
     private final boolean useXCas;
 
+    private int forceMergeSegments = 0;
+
+    private boolean measureStoreSize = false;
+
     public SystemIndexingSettings(String instance, String index, boolean useXCas) {
         this.instanceIndexes = InstanceIndexes.of(instance);
         this.index = index;
@@ -45,4 +49,37 @@ public class SystemIndexingSettings {
     public boolean useXCas() {
         return useXCas;
     }
+
+    /**
+     * The number of segments to force merge the system index down to once it has been loaded, or 0 if the index
+     * should not be force merged.
+     *
+     * @return maximum number of segments
+     */
+    public int getForceMergeSegments() {
+        return forceMergeSegments;
+    }
+
+    public SystemIndexingSettings withForceMergeSegments(int forceMergeSegments) {
+        if (forceMergeSegments < 0) {
+            throw new IllegalArgumentException("forceMergeSegments must not be negative");
+        }
+        this.forceMergeSegments = forceMergeSegments;
+        return this;
+    }
+
+    /**
+     * Whether to refresh and flush the system index once it has been loaded and record its primary store size in the
+     * system metadata, which is off by default since it costs a refresh, a flush and an index stats call.
+     *
+     * @return true if the store size should be measured
+     */
+    public boolean measureStoreSize() {
+        return measureStoreSize;
+    }
+
+    public SystemIndexingSettings withMeasureStoreSize(boolean measureStoreSize) {
+        this.measureStoreSize = measureStoreSize;
+        return this;
+    }
 }
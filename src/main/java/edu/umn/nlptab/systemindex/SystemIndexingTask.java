@@ -94,18 +94,50 @@ public class SystemIndexingTask implements Runnable {
 
             Iterator<Path> systemIndexingDocumentFiles = systemIndexingFiles.getSystemIndexingDocumentFiles();
 
-            while (systemIndexingDocumentFiles.hasNext()) {
-                Path documentPath = systemIndexingDocumentFiles.next();
-                systemIndexing.indexDocument(documentPath);
+            String index = systemIndexingSettings.getIndex();
+            BulkLoadSettings bulkLoadSettings = BulkLoadSettings.capture(client, index);
+            try {
+                bulkLoadSettings.apply();
+                while (systemIndexingDocumentFiles.hasNext()) {
+                    Path documentPath = systemIndexingDocumentFiles.next();
+                    systemIndexing.indexDocument(documentPath);
+
+                    updateTask(++completedDocuments, false, false, null);
+                }
+
+                int forceMergeSegments = systemIndexingSettings.getForceMergeSegments();
+                if (forceMergeSegments > 0) {
+                    LOGGER.info("Force merging {} to {} segments", index, forceMergeSegments);
+                    client.admin().indices().prepareForceMerge(index)
+                            .setMaxNumSegments(forceMergeSegments)
+                            .get();
+                }
+            } finally {
+                bulkLoadSettings.restore();
+            }
 
-                updateTask(++completedDocuments, false, false, null);
+            XContentBuilder metadata = XContentFactory.jsonBuilder()
+                    .startObject()
+                    .field("ready", true);
+            if (systemIndexingSettings.measureStoreSize()) {
+                client.admin().indices().prepareRefresh(index).get();
+                client.admin().indices().prepareFlush(index).get();
+                long storeSizeInBytes = client.admin().indices().prepareStats(index)
+                        .clear()
+                        .setStore(true)
+                        .get()
+                        .getPrimaries()
+                        .getStore()
+                        .getSizeInBytes();
+                LOGGER.info("Indexed {} documents into {}, primary store size {} bytes", completedDocuments, index,
+                        storeSizeInBytes);
+                metadata.field("storeSizeInBytes", storeSizeInBytes);
+            } else {
+                LOGGER.info("Indexed {} documents into {}", completedDocuments, index);
             }
 
-            client.prepareUpdate(metadataIndex, "SystemIndex", systemIndexingSettings.getIndex())
-                    .setDoc(XContentFactory.jsonBuilder()
-                            .startObject()
-                            .field("ready", true)
-                            .endObject())
+            client.prepareUpdate(metadataIndex, "SystemIndex", index)
+                    .setDoc(metadata.endObject())
                     .get();
 
             updateTask(completedDocuments, true, false, null);